@@ -0,0 +1,297 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.rendering.ImageType;
+
+/**
+ * Keeps rendered pages as PNG files in a directory, so they survive between sessions. Files are
+ * named after a hash of the PDF's content rather than its name or location, so a PDF that is
+ * moved or copied still finds its pages. The directory is kept under a size limit by deleting
+ * the least recently used files, which is tracked through their modification times. Only files
+ * named the way this cache names them are counted or deleted, so anything else in the directory
+ * is left alone.
+ * 
+ * @author Abeer Ahmed
+ */
+public class DiskRenderCache {
+
+	public static final long DEFAULT_SIZE_LIMIT = 512L << 20;
+
+	private static final String SUFFIX = ".png";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// The names of the images this cache writes, as content hash, page index, scale and image type
+	private static final Pattern NAME = Pattern.compile("[0-9a-f]{64}-[0-9]+-[0-9a-f]+-[a-z_]+\\.png");
+
+	private File directory;
+	private long sizeLimit;
+	private long size;
+	private LinkedHashMap<String, Long> files;
+	private ExecutorService writer;
+
+	/**
+	 * Open a cache directory, creating it if needed.
+	 * 
+	 * @param directory the directory the images are kept in
+	 * @param sizeLimit the most bytes of images kept
+	 * @throws IOException if the directory cannot be created
+	 */
+	public DiskRenderCache(File directory, long sizeLimit) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create cache directory " + directory);
+		}
+		this.directory = directory;
+		this.sizeLimit = sizeLimit;
+		files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PDF-Splicer disk cache");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+
+		// Pick up the images of earlier sessions, least recently used first
+		File[] existing = directory.listFiles();
+		if (existing != null) {
+			Arrays.sort(existing, new Comparator<File>() {
+				public int compare(File a, File b) {
+					return Long.compare(a.lastModified(), b.lastModified());
+				}
+			});
+			for (File file : existing) {
+				String name = file.getName();
+				if (!file.isFile()) {
+					continue;
+				}
+				if (NAME.matcher(name).matches()) {
+					files.put(name, file.length());
+					size += file.length();
+				} else if (name.endsWith(TEMP_SUFFIX)
+						&& NAME.matcher(name.substring(0, name.length() - TEMP_SUFFIX.length())).matches()) {
+					// Left over from a write that never finished
+					file.delete();
+				}
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Returns the default cache directory, in the user's home directory.
+	 * 
+	 * @return the directory
+	 */
+	public static File defaultDirectory() {
+		return new File(new File(System.getProperty("user.home"), ".pdf-splicer"), "cache");
+	}
+
+	/**
+	 * Look up a rendered page.
+	 * 
+	 * @param pdf the handle to the loaded PDF
+	 * @param pageIndex the index of the page, starting at 0
+	 * @param scale the scale the page was rendered at
+	 * @param imageType the type of image rendered
+	 * @return the image, or {@code null} if it is not cached
+	 */
+	public BufferedImage get(PDFHandle pdf, int pageIndex, float scale, ImageType imageType) {
+		String name;
+		try {
+			name = fileName(pdf, pageIndex, scale, imageType);
+		} catch (IOException e) {
+			return null;
+		}
+		synchronized (this) {
+			// Looked up with get, since containsKey does not count as a use
+			if (files.get(name) == null) {
+				return null;
+			}
+		}
+
+		File file = new File(directory, name);
+		BufferedImage image = null;
+		try {
+			image = ImageIO.read(file);
+		} catch (IOException e) {
+			// Treated as missing, and dropped below
+		}
+		if (image == null) {
+			remove(name);
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return image;
+	}
+
+	/**
+	 * Add a rendered page. The image is written in the background, deleting the least recently
+	 * used images if over the size limit.
+	 * 
+	 * @param pdf the handle to the loaded PDF
+	 * @param pageIndex the index of the page, starting at 0
+	 * @param scale the scale the page was rendered at
+	 * @param imageType the type of image rendered
+	 * @param image the image
+	 */
+	public void put(final PDFHandle pdf, final int pageIndex, final float scale, final ImageType imageType,
+			final BufferedImage image) {
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					String name = fileName(pdf, pageIndex, scale, imageType);
+					synchronized (DiskRenderCache.this) {
+						if (files.containsKey(name)) {
+							return;
+						}
+					}
+					// Written under another name first, so a crash never leaves half an image behind
+					File temp = new File(directory, name + TEMP_SUFFIX);
+					File file = new File(directory, name);
+					if (!ImageIO.write(image, "png", temp) || !temp.renameTo(file)) {
+						temp.delete();
+						return;
+					}
+					added(name, file.length());
+				} catch (IOException e) {
+					// The page is simply rendered again next time
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for every image added so far to be written.
+	 */
+	public void flush() {
+		try {
+			writer.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Cannot happen, the task does nothing
+		}
+	}
+
+	/**
+	 * Returns the name of the file a rendering is kept in.
+	 * 
+	 * @param pdf the handle to the loaded PDF
+	 * @param pageIndex the index of the page, starting at 0
+	 * @param scale the scale the page was rendered at
+	 * @param imageType the type of image rendered
+	 * @return the file name
+	 * @throws IOException if the PDF cannot be read to hash it
+	 */
+	private static String fileName(PDFHandle pdf, int pageIndex, float scale, ImageType imageType) throws IOException {
+		return pdf.getContentHash() + "-" + pageIndex + "-" + Integer.toHexString(Float.floatToIntBits(scale))
+				+ "-" + imageType.name().toLowerCase() + SUFFIX;
+	}
+
+	/**
+	 * Count a newly written image, and delete the least recently used ones if over the limit.
+	 * 
+	 * @param name the file name
+	 * @param length the size of the file, in bytes
+	 */
+	private synchronized void added(String name, long length) {
+		Long old = files.put(name, length);
+		if (old != null) {
+			size -= old;
+		}
+		size += length;
+		evict();
+	}
+
+	/**
+	 * Forget and delete an image that cannot be read.
+	 * 
+	 * @param name the file name
+	 */
+	private synchronized void remove(String name) {
+		Long length = files.remove(name);
+		if (length != null) {
+			size -= length;
+			new File(directory, name).delete();
+		}
+	}
+
+	/**
+	 * Delete the least recently used images until the cache is within its size limit.
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+		while (size > sizeLimit && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			size -= eldest.getValue();
+			new File(directory, eldest.getKey()).delete();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Set the most bytes of images kept, deleting any over the new limit.
+	 * 
+	 * @param sizeLimit the size, in bytes
+	 */
+	public synchronized void setSizeLimit(long sizeLimit) {
+		this.sizeLimit = sizeLimit;
+		evict();
+	}
+
+	/**
+	 * Returns the bytes of images currently kept.
+	 * 
+	 * @return the size, in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the directory the images are kept in.
+	 * 
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+}
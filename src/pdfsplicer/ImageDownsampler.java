@@ -0,0 +1,569 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.pdfbox.contentstream.PDFGraphicsStreamEngine;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+/**
+ * Lowers the resolution of the images in the new PDF. The pages are first analyzed to find
+ * how large each image is shown, and so its resolution, then every image above the target
+ * resolution is decoded by the thread holding its PDF and scaled down and encoded again on a
+ * pool of workers. Bilevel images, such as scanned text, are encoded with CCITT group 4 and all
+ * others with JPEG. The new images are handed to the {@link StreamingPDFWriter} as replacements,
+ * so the loaded PDFs themselves are never changed.
+ * 
+ * <p>The target is either a resolution, or a budget for the total size of the images, in which
+ * case the highest resolution estimated to fit in it is used. Images with transparency, color
+ * key masks or a small palette, and images that would not get any smaller, are left as they are.
+ * 
+ * @author Abeer Ahmed
+ */
+public class ImageDownsampler implements Closeable {
+
+	// Lowest resolution a byte budget brings images down to
+	public static final float MIN_RESOLUTION = 36;
+
+	// Images are only downsampled when they are this much over the target resolution
+	private static final float THRESHOLD = 1.2f;
+	private static final float JPEG_QUALITY = 0.75f;
+
+	// Entries of an image that describe its data, and so are replaced along with it
+	private static final Set<COSName> DATA_KEYS = new HashSet<COSName>(Arrays.asList(COSName.LENGTH, COSName.FILTER,
+			COSName.DECODE_PARMS, COSName.F, COSName.F_FILTER, COSName.F_DECODE_PARMS, COSName.DL, COSName.WIDTH,
+			COSName.HEIGHT, COSName.BITS_PER_COMPONENT, COSName.COLORSPACE, COSName.DECODE, COSName.getPDFName("SMaskInData")));
+
+	/**
+	 * How one image is shown by the pages of the new PDF.
+	 */
+	private static class Usage {
+
+		final Object owner;
+		final int width;
+		final int height;
+		final long bytes;
+		final boolean bilevel;
+		final boolean gray;
+		float displayWidth;
+		float displayHeight;
+		boolean queued;
+
+		Usage(Object owner, int width, int height, long bytes, boolean bilevel, boolean gray) {
+			this.owner = owner;
+			this.width = width;
+			this.height = height;
+			this.bytes = bytes;
+			this.bilevel = bilevel;
+			this.gray = gray;
+		}
+
+		/**
+		 * Returns the resolution of the image where it is shown largest.
+		 * 
+		 * @return the resolution, in DPI
+		 */
+		float resolution() {
+			return Math.min(width * 72 / Math.max(displayWidth, 1e-3f), height * 72 / Math.max(displayHeight, 1e-3f));
+		}
+
+	}
+
+	/**
+	 * Finds the images a page shows, and how large they are shown.
+	 */
+	private class ImageFinder extends PDFGraphicsStreamEngine {
+
+		private Object owner;
+
+		ImageFinder(Object owner, PDPage page) {
+			super(page);
+			this.owner = owner;
+		}
+
+		@Override
+		public void drawImage(PDImage pdImage) throws IOException {
+			if (pdImage instanceof PDImageXObject) {
+				Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+				record(owner, (PDImageXObject) pdImage, ctm.getScalingFactorX(), ctm.getScalingFactorY());
+			}
+		}
+
+		@Override
+		public void appendRectangle(Point2D p0, Point2D p1, Point2D p2, Point2D p3) {
+		}
+
+		@Override
+		public void clip(int windingRule) {
+		}
+
+		@Override
+		public void moveTo(float x, float y) {
+		}
+
+		@Override
+		public void lineTo(float x, float y) {
+		}
+
+		@Override
+		public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+		}
+
+		@Override
+		public Point2D getCurrentPoint() {
+			return new Point2D.Float();
+		}
+
+		@Override
+		public void closePath() {
+		}
+
+		@Override
+		public void endPath() {
+		}
+
+		@Override
+		public void strokePath() {
+		}
+
+		@Override
+		public void fillPath(int windingRule) {
+		}
+
+		@Override
+		public void fillAndStrokePath(int windingRule) {
+		}
+
+		@Override
+		public void shadingFill(COSName shadingName) {
+		}
+
+	}
+
+	private float targetResolution;
+	private long byteBudget;
+	private float resolution;
+	private int parallelism;
+	private ExecutorService executor;
+	private Semaphore decoded;
+	private Map<COSBase, Usage> usages;
+	private Map<COSBase, COSStream> replacements;
+	private List<Future<?>> futures;
+
+	/**
+	 * Create a new downsampler. If both a resolution and a byte budget are given, images are
+	 * brought down to whichever is lower.
+	 * 
+	 * @param targetResolution the resolution, in DPI, or 0 for none
+	 * @param byteBudget the most bytes all of the images together should take, or 0 for none
+	 * @param parallelism the number of workers encoding images
+	 */
+	public ImageDownsampler(float targetResolution, long byteBudget, int parallelism) {
+		this.targetResolution = targetResolution;
+		this.byteBudget = byteBudget;
+		this.parallelism = Math.max(1, parallelism);
+		resolution = targetResolution;
+		usages = new IdentityHashMap<COSBase, Usage>();
+		replacements = Collections.synchronizedMap(new IdentityHashMap<COSBase, COSStream>());
+		futures = new ArrayList<Future<?>>();
+		// Decoded images waiting for a worker can be large, so only a few are kept at once
+		decoded = new Semaphore(2 * this.parallelism);
+		executor = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PDF-Splicer downsample");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Find the images a page of the new PDF shows. The caller must hold the page's PDF.
+	 * 
+	 * @param owner identifies the PDF the page is in, as passed to {@link #downsample(Object)}
+	 * @param page the page
+	 * @throws IOException if the page cannot be read
+	 */
+	public void analyze(Object owner, PDPage page) throws IOException {
+		new ImageFinder(owner, page).processPage(page);
+	}
+
+	/**
+	 * Record that an image is shown at a size, if it is one that can be downsampled.
+	 * 
+	 * @param owner identifies the PDF the image is in
+	 * @param image the image
+	 * @param displayWidth the width it is shown at, in points
+	 * @param displayHeight the height it is shown at, in points
+	 */
+	private void record(Object owner, PDImageXObject image, float displayWidth, float displayHeight) {
+		COSStream stream = image.getCOSObject();
+		Usage usage;
+		synchronized (usages) {
+			usage = usages.get(stream);
+		}
+		if (usage == null) {
+			usage = createUsage(owner, image);
+			if (usage == null) {
+				return;
+			}
+		}
+		synchronized (usages) {
+			if (!usages.containsKey(stream)) {
+				usages.put(stream, usage);
+			}
+			usage = usages.get(stream);
+			usage.displayWidth = Math.max(usage.displayWidth, displayWidth);
+			usage.displayHeight = Math.max(usage.displayHeight, displayHeight);
+		}
+	}
+
+	/**
+	 * Check whether an image can be downsampled, and describe it if so. Only images in gray, RGB
+	 * or CMYK color spaces are, since the new image is plain DeviceGray or DeviceRGB, which would
+	 * lose a spot color, or the colors of an indexed, DeviceN or Lab image.
+	 * 
+	 * @param owner identifies the PDF the image is in
+	 * @param image the image
+	 * @return the description, or {@code null} if it is left as it is
+	 */
+	private Usage createUsage(Object owner, PDImageXObject image) {
+		COSStream stream = image.getCOSObject();
+		if (image.isStencil() || stream.containsKey(COSName.SMASK) || stream.containsKey(COSName.MASK)) {
+			return null;
+		}
+		try {
+			PDColorSpace colorSpace = image.getColorSpace();
+			int components = colorSpace.getNumberOfComponents();
+			int bits = image.getBitsPerComponent();
+			if (!isDeviceLike(colorSpace) || (bits < 8 && !(bits == 1 && components == 1))) {
+				return null;
+			}
+			return new Usage(owner, image.getWidth(), image.getHeight(), stream.getLength(), bits == 1, components == 1);
+		} catch (IOException e) {
+			// An image whose color space cannot be read is left as it is
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether a color space is a plain gray, RGB or CMYK one, which the downsampled image
+	 * can be drawn in without changing what it looks like.
+	 * 
+	 * @param colorSpace the color space
+	 * @return {@code true} if it is DeviceGray, DeviceRGB, DeviceCMYK, CalGray, CalRGB or ICCBased
+	 */
+	private static boolean isDeviceLike(PDColorSpace colorSpace) {
+		return colorSpace instanceof PDDeviceGray || colorSpace instanceof PDDeviceRGB || colorSpace instanceof PDDeviceCMYK
+				|| colorSpace instanceof PDCalGray || colorSpace instanceof PDCalRGB || colorSpace instanceof PDICCBased;
+	}
+
+	/**
+	 * Decide the resolution images are brought down to, once every page has been analyzed. With
+	 * a byte budget, this is the highest resolution at which the images are estimated to fit in it,
+	 * assuming their size goes down with their number of pixels.
+	 */
+	public void chooseResolution() {
+		if (byteBudget <= 0) {
+			return;
+		}
+		
+		List<Usage> all;
+		synchronized (usages) {
+			all = new ArrayList<Usage>(usages.values());
+		}
+		float low = MIN_RESOLUTION;
+		float high = 0;
+		for (Usage usage : all) {
+			high = Math.max(high, usage.resolution());
+		}
+		if (estimateSize(all, high) <= byteBudget) {
+			high = 0;
+		} else {
+			for (int i = 0; i < 20 && high - low > 1; ++i) {
+				float mid = (low + high) / 2;
+				if (estimateSize(all, mid) <= byteBudget) {
+					low = mid;
+				} else {
+					high = mid;
+				}
+			}
+			high = low;
+		}
+		
+		resolution = targetResolution > 0 && (high == 0 || targetResolution < high) ? targetResolution : high;
+	}
+
+	/**
+	 * Estimate how many bytes the images take once brought down to a resolution.
+	 * 
+	 * @param all the images
+	 * @param target the resolution, in DPI
+	 * @return the size, in bytes
+	 */
+	private static long estimateSize(List<Usage> all, float target) {
+		long size = 0;
+		for (Usage usage : all) {
+			float scale = target / usage.resolution();
+			size += scale * THRESHOLD < 1 ? (long) (usage.bytes * scale * scale) : usage.bytes;
+		}
+		return size;
+	}
+
+	/**
+	 * Decode every image of a PDF above the target resolution, and queue it to be scaled down and
+	 * encoded again. The caller must hold the PDF, and may release it once this returns.
+	 * 
+	 * @param owner identifies the PDF, as passed to {@link #analyze(Object, PDPage)}
+	 * @throws IOException if interrupted
+	 */
+	public void downsample(Object owner) throws IOException {
+		if (resolution <= 0) {
+			return;
+		}
+		
+		List<COSBase> images = new ArrayList<COSBase>();
+		synchronized (usages) {
+			for (Map.Entry<COSBase, Usage> entry : usages.entrySet()) {
+				Usage usage = entry.getValue();
+				if (usage.owner == owner && !usage.queued && usage.resolution() > resolution * THRESHOLD) {
+					usage.queued = true;
+					images.add(entry.getKey());
+				}
+			}
+		}
+		
+		for (COSBase image : images) {
+			final COSStream original = (COSStream) image;
+			final Usage usage;
+			synchronized (usages) {
+				usage = usages.get(original);
+			}
+			float scale = resolution / usage.resolution();
+			final int width = Math.max(1, Math.round(usage.width * scale));
+			final int height = Math.max(1, Math.round(usage.height * scale));
+			
+			try {
+				decoded.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			BufferedImage decodedImage = null;
+			try {
+				// Skipping pixels while decoding keeps the image small, leaving a final smooth step of up to 2x
+				decodedImage = new PDImageXObject(new PDStream(original), null).getImage(null, Math.max(1, (int) (1 / scale / 2)));
+			} catch (IOException | RuntimeException e) {
+				// An image that cannot be decoded is left as it is, PDFBox throws either for broken JPX or JBIG2 data
+			} finally {
+				if (decodedImage == null) {
+					decoded.release();
+				}
+			}
+			if (decodedImage == null) {
+				continue;
+			}
+			final BufferedImage source = decodedImage;
+			
+			Future<?> future = executor.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					try {
+						COSStream replacement = encode(original, scale(source, width, height, usage.gray || usage.bilevel), usage.bilevel);
+						if (replacement != null) {
+							replacements.put(original, replacement);
+						}
+						return null;
+					} finally {
+						decoded.release();
+					}
+				}
+			});
+			synchronized (futures) {
+				futures.add(future);
+			}
+		}
+	}
+
+	/**
+	 * Wait for every queued image to be encoded.
+	 * 
+	 * @throws IOException if an image could not be encoded, or interrupted
+	 */
+	public void await() throws IOException {
+		List<Future<?>> pending;
+		synchronized (futures) {
+			pending = new ArrayList<Future<?>>(futures);
+			futures.clear();
+		}
+		for (Future<?> future : pending) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Scale an image down smoothly.
+	 * 
+	 * @param source the image
+	 * @param width the new width
+	 * @param height the new height
+	 * @param gray whether the image only needs shades of gray
+	 * @return the scaled image
+	 */
+	private static BufferedImage scale(BufferedImage source, int width, int height, boolean gray) {
+		BufferedImage scaled = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = scaled.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(source, 0, 0, width, height, null);
+		} finally {
+			g.dispose();
+		}
+		return scaled;
+	}
+
+	/**
+	 * Encode a scaled image, keeping the entries of the original that do not describe its data.
+	 * 
+	 * @param original the original image
+	 * @param scaled the scaled image
+	 * @param bilevel whether to encode it as black and white
+	 * @return the new image, or {@code null} if it is not smaller than the original
+	 * @throws IOException if the image cannot be encoded
+	 */
+	private static COSStream encode(COSStream original, BufferedImage scaled, boolean bilevel) throws IOException {
+		// The factories need a document to hold the new image, so each one gets a throwaway one
+		PDDocument scratchDoc = new PDDocument();
+		try {
+			PDImageXObject image;
+			if (bilevel) {
+				BufferedImage binary = new BufferedImage(scaled.getWidth(), scaled.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+				Graphics2D g = binary.createGraphics();
+				try {
+					g.drawImage(scaled, 0, 0, null);
+				} finally {
+					g.dispose();
+				}
+				image = CCITTFactory.createFromImage(scratchDoc, binary);
+			} else {
+				image = JPEGFactory.createFromImage(scratchDoc, scaled, JPEG_QUALITY);
+			}
+			
+			COSStream encoded = image.getCOSObject();
+			if (encoded.getLength() >= original.getLength()) {
+				return null;
+			}
+			COSStream replacement = new COSStream();
+			for (Map.Entry<COSName, COSBase> entry : original.entrySet()) {
+				if (!DATA_KEYS.contains(entry.getKey())) {
+					replacement.setItem(entry.getKey(), entry.getValue());
+				}
+			}
+			for (Map.Entry<COSName, COSBase> entry : encoded.entrySet()) {
+				if (!entry.getKey().equals(COSName.LENGTH)) {
+					replacement.setItem(entry.getKey(), entry.getValue());
+				}
+			}
+			InputStream data = encoded.createRawInputStream();
+			OutputStream out = replacement.createRawOutputStream();
+			try {
+				IOUtils.copy(data, out);
+			} finally {
+				out.close();
+				data.close();
+			}
+			return replacement;
+		} finally {
+			scratchDoc.close();
+		}
+	}
+
+	/**
+	 * Returns the new images so far, keyed by the image of a loaded PDF each replaces.
+	 * 
+	 * @return the new images, as a {@link Map}
+	 */
+	public Map<COSBase, COSStream> getReplacements() {
+		return replacements;
+	}
+
+	/**
+	 * Returns the resolution images are brought down to.
+	 * 
+	 * @return the resolution, in DPI, or 0 if no image needs to be
+	 */
+	public float getResolution() {
+		return resolution;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+/**
+ * Reads a file through read-only memory mappings, so PDFBox can parse it straight out of the
+ * OS page cache instead of copying it into its own buffers. Files larger than a single mapping
+ * allows are split into several chunks. The mappings are released by the garbage collector
+ * some time after {@link #close()}.
+ * 
+ * @author Abeer Ahmed
+ */
+public class MappedRandomAccessRead implements RandomAccessRead {
+
+	private static final int CHUNK_SIZE = 1 << 30;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer[] chunks;
+	private long length;
+	private long position;
+
+	/**
+	 * Map a file for reading.
+	 * 
+	 * @param file the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public MappedRandomAccessRead(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = this.file.getChannel();
+			length = channel.size();
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i < chunks.length; ++i) {
+				long start = (long) i * CHUNK_SIZE;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		if (position >= length) {
+			return -1;
+		}
+		int b = chunks[(int) (position / CHUNK_SIZE)].get((int) (position % CHUNK_SIZE)) & 0xff;
+		++position;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= length) {
+			return -1;
+		}
+
+		int total = (int) Math.min(len, length - position);
+		int done = 0;
+		while (done < total) {
+			MappedByteBuffer chunk = chunks[(int) (position / CHUNK_SIZE)];
+			int chunkOffset = (int) (position % CHUNK_SIZE);
+			int n = Math.min(total - done, chunk.limit() - chunkOffset);
+			chunk.position(chunkOffset);
+			chunk.get(b, off + done, n);
+			done += n;
+			position += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Read the byte at a position, without moving to it.
+	 * 
+	 * @param position the position
+	 * @return the byte, or -1 if the position is outside the file
+	 * @throws IOException if the file has been closed
+	 */
+	public int get(long position) throws IOException {
+		checkClosed();
+		if (position < 0 || position >= length) {
+			return -1;
+		}
+		return chunks[(int) (position / CHUNK_SIZE)].get((int) (position % CHUNK_SIZE)) & 0xff;
+	}
+
+	@Override
+	public long getPosition() throws IOException {
+		checkClosed();
+		return position;
+	}
+
+	@Override
+	public void seek(long position) throws IOException {
+		checkClosed();
+		if (position < 0) {
+			throw new IOException("Invalid position " + position);
+		}
+		this.position = Math.min(position, length);
+	}
+
+	@Override
+	public long length() throws IOException {
+		checkClosed();
+		return length;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return chunks == null;
+	}
+
+	@Override
+	public int peek() throws IOException {
+		int b = read();
+		if (b != -1) {
+			rewind(1);
+		}
+		return b;
+	}
+
+	@Override
+	public void rewind(int bytes) throws IOException {
+		seek(position - bytes);
+	}
+
+	@Override
+	public byte[] readFully(int len) throws IOException {
+		byte[] b = new byte[len];
+		if (len > 0 && read(b, 0, len) < len) {
+			throw new EOFException("Premature end of file");
+		}
+		return b;
+	}
+
+	@Override
+	public boolean isEOF() throws IOException {
+		return peek() == -1;
+	}
+
+	@Override
+	public int available() throws IOException {
+		checkClosed();
+		return (int) Math.min(length - position, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		chunks = null;
+		file.close();
+	}
+
+	/**
+	 * Make sure the file has not been closed.
+	 * 
+	 * @throws IOException if the file has been closed
+	 */
+	private void checkClosed() throws IOException {
+		if (chunks == null) {
+			throw new IOException("MappedRandomAccessRead already closed");
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * Decides how much heap each PDF may use for its buffers. Small files are kept entirely in main
+ * memory, medium ones use main memory up to a cap and spill the rest to a temp file, and anything
+ * else goes straight to a temp file. Heap given out is counted against a global budget, so once
+ * the budget is used up further PDFs fall back to temp files until earlier ones are closed.
+ * 
+ * @author Abeer Ahmed
+ */
+public class MemoryPolicy {
+
+	/**
+	 * Where a PDF's buffers are kept.
+	 */
+	public enum Mode {
+		MAIN_MEMORY, MIXED, TEMP_FILE
+	}
+
+	/**
+	 * The buffer setting chosen for one PDF, and the share of the budget it holds.
+	 */
+	public static class Allocation {
+
+		private Mode mode;
+		private long bytes;
+		private MemoryUsageSetting setting;
+
+		private Allocation(Mode mode, long bytes, MemoryUsageSetting setting) {
+			this.mode = mode;
+			this.bytes = bytes;
+			this.setting = setting;
+		}
+
+		/**
+		 * Returns where the PDF's buffers are kept.
+		 * 
+		 * @return the mode
+		 */
+		public Mode getMode() {
+			return mode;
+		}
+
+		/**
+		 * Returns the setting to open or create the PDF with.
+		 * 
+		 * @return the setting, as a {@link MemoryUsageSetting}
+		 */
+		public MemoryUsageSetting getSetting() {
+			return setting;
+		}
+
+	}
+
+	private long mainMemoryFileLimit;
+	private long mixedHeapLimit;
+	private long budget;
+	private long used;
+
+	/**
+	 * Create a new policy, keeping files up to 4 MB in main memory, capping mixed files at 32 MB of
+	 * heap each, and using a quarter of the maximum heap as the budget.
+	 */
+	public MemoryPolicy() {
+		this(4L << 20, 32L << 20, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Create a new policy.
+	 * 
+	 * @param mainMemoryFileLimit the largest file size, in bytes, kept entirely in main memory
+	 * @param mixedHeapLimit the most heap, in bytes, a larger file may use before spilling to a temp file
+	 * @param budget the total heap, in bytes, all open PDFs may use together
+	 */
+	public MemoryPolicy(long mainMemoryFileLimit, long mixedHeapLimit, long budget) {
+		this.mainMemoryFileLimit = mainMemoryFileLimit;
+		this.mixedHeapLimit = mixedHeapLimit;
+		this.budget = budget;
+	}
+
+	/**
+	 * Choose a setting for a PDF of the given size, and reserve its share of the budget.
+	 * Every allocation must be given back with {@link #release(Allocation)} once the PDF is closed.
+	 * 
+	 * @param size the size of the PDF, in bytes
+	 * @return the allocation, as an {@link Allocation}
+	 */
+	public synchronized Allocation allocate(long size) {
+		long available = budget - used;
+		Allocation allocation;
+		if (size <= mainMemoryFileLimit && size <= available) {
+			allocation = new Allocation(Mode.MAIN_MEMORY, size, MemoryUsageSetting.setupMainMemoryOnly());
+		} else if (available > 0 && mixedHeapLimit > 0) {
+			long heap = Math.min(Math.min(mixedHeapLimit, size), available);
+			allocation = new Allocation(Mode.MIXED, heap, MemoryUsageSetting.setupMixed(heap));
+		} else {
+			allocation = new Allocation(Mode.TEMP_FILE, 0, MemoryUsageSetting.setupTempFileOnly());
+		}
+		used += allocation.bytes;
+		return allocation;
+	}
+
+	/**
+	 * Give an allocation's share of the budget back.
+	 * 
+	 * @param allocation the allocation, or {@code null}
+	 */
+	public synchronized void release(Allocation allocation) {
+		if (allocation != null) {
+			used -= allocation.bytes;
+			allocation.bytes = 0;
+		}
+	}
+
+	/**
+	 * Set the largest file size kept entirely in main memory.
+	 * 
+	 * @param mainMemoryFileLimit the size, in bytes, or 0 to never use main memory only
+	 */
+	public synchronized void setMainMemoryFileLimit(long mainMemoryFileLimit) {
+		this.mainMemoryFileLimit = mainMemoryFileLimit;
+	}
+
+	/**
+	 * Set the most heap a file too large for main memory may use before spilling to a temp file.
+	 * 
+	 * @param mixedHeapLimit the size, in bytes, or 0 to use temp files only for those files
+	 */
+	public synchronized void setMixedHeapLimit(long mixedHeapLimit) {
+		this.mixedHeapLimit = mixedHeapLimit;
+	}
+
+	/**
+	 * Set the total heap all open PDFs may use together.
+	 * 
+	 * @param budget the size, in bytes
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the heap currently given out to open PDFs.
+	 * 
+	 * @return the size, in bytes
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+/**
+ * Describes what changed in a {@link SplicerModel}. Listeners subscribe to the types they
+ * care about on the model's {@link ModelEventBus}.
+ * 
+ * @author Abeer Ahmed
+ */
+public class ModelEvent {
+
+	/**
+	 * The kinds of change.
+	 */
+	public enum Type {
+		/** PDFs were loaded or removed */
+		SOURCES_CHANGED,
+		/** Page ranges were added, removed or moved, so the finalized PDF's page count may differ */
+		RANGES_CHANGED,
+		/** The loaded PDF preview has a new image, page number or page count */
+		LOADED_PREVIEW_READY,
+		/** The finalized PDF preview has a new image or page number */
+		FINAL_PREVIEW_READY,
+		/** A background task made progress, see {@link ModelEvent#getProgress()} and {@link ModelEvent#getSource()} */
+		PROGRESS,
+		/** Something went wrong in the background, see {@link ModelEvent#getError()} */
+		ERROR
+	}
+
+	private Type type;
+	private Object source;
+	private int progress;
+	private String note;
+	private UIConstants error;
+
+	private ModelEvent(Type type, Object source, int progress, String note, UIConstants error) {
+		this.type = type;
+		this.source = source;
+		this.progress = progress;
+		this.note = note;
+		this.error = error;
+	}
+
+	/**
+	 * Create an event that only says what changed.
+	 * 
+	 * @param type the kind of change
+	 * @return the event
+	 */
+	public static ModelEvent of(Type type) {
+		return new ModelEvent(type, null, 0, null, UIConstants.ERROR_NOERROR);
+	}
+
+	/**
+	 * Create a {@link Type#PROGRESS} event.
+	 * 
+	 * @param source the task reporting its progress, so listeners can ignore other tasks
+	 * @param progress how far along the task is, from 0 to 100
+	 * @param note what the task is working on, or {@code null}
+	 * @return the event
+	 */
+	public static ModelEvent progress(Object source, int progress, String note) {
+		return new ModelEvent(Type.PROGRESS, source, progress, note, UIConstants.ERROR_NOERROR);
+	}
+
+	/**
+	 * Create an {@link Type#ERROR} event.
+	 * 
+	 * @param error the error, as a {@link UIConstants}
+	 * @return the event
+	 */
+	public static ModelEvent error(UIConstants error) {
+		return new ModelEvent(Type.ERROR, null, 0, null, error);
+	}
+
+	/**
+	 * Returns the kind of change.
+	 * 
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the background task that made progress.
+	 * 
+	 * @return the task, or {@code null} if the event is not about a task's progress
+	 */
+	public Object getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns how far along a background task is.
+	 * 
+	 * @return the progress, from 0 to 100
+	 */
+	public int getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Returns what a background task is working on.
+	 * 
+	 * @return the note, or {@code null}
+	 */
+	public String getNote() {
+		return note;
+	}
+
+	/**
+	 * Returns what went wrong.
+	 * 
+	 * @return the error, as a {@link UIConstants}
+	 */
+	public UIConstants getError() {
+		return error;
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.Timer;
+
+/**
+ * Delivers {@link ModelEvent}s to the listeners subscribed to their type. Events can be fired
+ * from any thread, and are held for up to a frame before being delivered together on the event
+ * thread, with only the latest event of each type, and of each source for progress, kept. So a
+ * burst of edits or a background task reporting progress causes one update per frame, not one per
+ * event, and tasks running at once do not hide each other's progress. Events no listener is
+ * subscribed to are dropped straight away.
+ * 
+ * @author Abeer Ahmed
+ */
+public class ModelEventBus {
+
+	// About one frame at 60 Hz
+	public static final int FRAME_DELAY = 16;
+
+	private Map<ModelListener, EnumSet<ModelEvent.Type>> listeners;
+	private Map<ModelEvent.Type, Map<Object, ModelEvent>> pending;
+	private Timer timer;
+
+	/**
+	 * Create a new bus with no listeners.
+	 */
+	public ModelEventBus() {
+		listeners = new LinkedHashMap<ModelListener, EnumSet<ModelEvent.Type>>();
+		pending = new EnumMap<ModelEvent.Type, Map<Object, ModelEvent>>(ModelEvent.Type.class);
+		timer = new Timer(FRAME_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				flush();
+			}
+		});
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Subscribe a listener to some types of event. Subscribing it again replaces its types.
+	 * 
+	 * @param listener the listener
+	 * @param types the types of event it is told about
+	 */
+	public synchronized void addListener(ModelListener listener, ModelEvent.Type... types) {
+		EnumSet<ModelEvent.Type> subscribed = EnumSet.noneOf(ModelEvent.Type.class);
+		subscribed.addAll(Arrays.asList(types));
+		listeners.put(listener, subscribed);
+	}
+
+	/**
+	 * Unsubscribe a listener from every type of event.
+	 * 
+	 * @param listener the listener
+	 */
+	public synchronized void removeListener(ModelListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Fire an event. It replaces any event of the same type and source not yet delivered.
+	 * 
+	 * @param event the event
+	 */
+	public void fire(ModelEvent event) {
+		synchronized (this) {
+			if (!isSubscribed(event.getType())) {
+				return;
+			}
+			Map<Object, ModelEvent> bySource = pending.get(event.getType());
+			if (bySource == null) {
+				bySource = new LinkedHashMap<Object, ModelEvent>();
+				pending.put(event.getType(), bySource);
+			}
+			bySource.put(event.getSource(), event);
+		}
+		if (!timer.isRunning()) {
+			timer.start();
+		}
+	}
+
+	/**
+	 * Deliver every event not yet delivered, in the order of their types, on the calling thread.
+	 * 
+	 * @return the number of events delivered
+	 */
+	public int flush() {
+		List<ModelEvent> events;
+		List<Map.Entry<ModelListener, EnumSet<ModelEvent.Type>>> targets;
+		synchronized (this) {
+			events = new ArrayList<ModelEvent>();
+			for (Map<Object, ModelEvent> bySource : pending.values()) {
+				events.addAll(bySource.values());
+			}
+			pending.clear();
+			targets = new ArrayList<Map.Entry<ModelListener, EnumSet<ModelEvent.Type>>>(listeners.entrySet());
+		}
+		
+		for (ModelEvent event : events) {
+			for (Map.Entry<ModelListener, EnumSet<ModelEvent.Type>> target : targets) {
+				if (target.getValue().contains(event.getType())) {
+					target.getKey().modelChanged(event);
+				}
+			}
+		}
+		return events.size();
+	}
+
+	/**
+	 * Returns whether any listener is subscribed to a type of event.
+	 * 
+	 * @param type the type of event
+	 * @return {@code true} if a listener is subscribed to it
+	 */
+	private boolean isSubscribed(ModelEvent.Type type) {
+		for (EnumSet<ModelEvent.Type> types : listeners.values()) {
+			if (types.contains(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
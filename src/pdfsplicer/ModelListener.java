@@ -0,0 +1,36 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+/**
+ * Listens for the {@link ModelEvent}s it subscribed to on a {@link ModelEventBus}.
+ * 
+ * @author Abeer Ahmed
+ */
+public interface ModelListener {
+
+	/**
+	 * Called on the event thread with the latest event of a subscribed type. Several events of
+	 * the same type fired in quick succession arrive as a single call.
+	 * 
+	 * @param event the event
+	 */
+	void modelChanged(ModelEvent event);
+
+}
@@ -0,0 +1,836 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.multipdf.PDFCloneUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import pdfsplicer.RawPDFReader.RawPage;
+
+/**
+ * Builds the finalized PDF from page ranges of loaded PDFs. Each loaded PDF is handled by one
+ * worker, which holds it for the whole time and clones all of the pages taken from it into a
+ * scratch document of its own with a single {@link PDFCloneUtility}, so no document is touched
+ * by two threads and objects shared by its pages are only cloned once. The cloned pages are then
+ * written in the order of the page ranges by a {@link StreamingPDFWriter}, which also writes
+ * identical fonts, images and ICC profiles from different PDFs only once.
+ * 
+ * <p>In streaming mode the page ranges are instead written one after another straight from the
+ * loaded PDFs, on the calling thread. Nothing is cloned, and memory stays bounded however large
+ * the new PDF is, at the cost of not using several threads.
+ * 
+ * <p>Either way, images above a target resolution can be made smaller by an {@link ImageDownsampler}
+ * before they are written, and the new PDF can be written in compact mode, see {@link StreamingPDFWriter#setCompact(boolean)},
+ * compressing on as many threads as the pages are cloned on.
+ * 
+ * <p>PDFBox reads every object of a PDF when it is opened, which is most of the time taken to copy
+ * whole PDFs or long runs of their pages. So when every page range taken from a PDF is made of long
+ * runs, its pages are instead copied straight from its file by a {@link RawPDFReader}, without ever
+ * loading it, as long as its file can be read that way.
+ * 
+ * <p>A {@link ProgressListener} can follow each phase page by page, and stop the assembly between
+ * pages. The partly written file is then deleted and the scratch documents closed, as on any error.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PDFAssembler {
+
+	/**
+	 * The phases of assembling the new PDF.
+	 */
+	public enum Phase {
+		/** Pages are copied out of the loaded PDFs, one step per page */
+		CLONE,
+		/** Images are found and made smaller, one step per page or scratch document */
+		DOWNSAMPLE,
+		/** Pages are written to the file, one step per page */
+		WRITE
+	}
+
+	/**
+	 * Follows how far along assembling the new PDF is, and can stop it.
+	 */
+	public interface ProgressListener {
+
+		/**
+		 * Called when a phase starts and each time a step of it is done. This is called on
+		 * whichever thread did the step, possibly several at once.
+		 * 
+		 * @param phase the phase
+		 * @param done the number of steps done so far
+		 * @param total the number of steps in the phase
+		 */
+		void progress(Phase phase, int done, int total);
+
+		/**
+		 * Returns whether to stop assembling. This is checked before each step.
+		 * 
+		 * @return {@code true} to stop
+		 */
+		boolean isCancelled();
+
+	}
+
+	/**
+	 * Reports the steps of each phase to a {@link ProgressListener}, if there is one, and stops
+	 * the assembly once it is cancelled.
+	 */
+	private static class Progress {
+
+		private final ProgressListener listener;
+		private final AtomicInteger done;
+		private volatile Phase phase;
+		private volatile int total;
+
+		Progress(ProgressListener listener) {
+			this.listener = listener;
+			done = new AtomicInteger();
+		}
+
+		/**
+		 * Start a phase.
+		 * 
+		 * @param phase the phase
+		 * @param total the number of steps in it
+		 */
+		void start(Phase phase, int total) {
+			checkCancelled();
+			this.phase = phase;
+			this.total = total;
+			done.set(0);
+			if (listener != null) {
+				listener.progress(phase, 0, total);
+			}
+		}
+
+		/**
+		 * Count another step of the current phase as done.
+		 */
+		void advance() {
+			checkCancelled();
+			int count = done.incrementAndGet();
+			if (listener != null) {
+				listener.progress(phase, count, total);
+			}
+		}
+
+		/**
+		 * Stop the assembly if it has been cancelled.
+		 * 
+		 * @throws CancellationException if it has been cancelled
+		 */
+		void checkCancelled() {
+			if (listener != null && listener.isCancelled()) {
+				throw new CancellationException("PDF creation cancelled");
+			}
+		}
+
+	}
+
+	private MemoryPolicy memoryPolicy;
+	private int parallelism;
+	private boolean streaming;
+	private boolean deduplicateResources;
+	private boolean compact;
+	private int compressionLevel;
+	private float targetResolution;
+	private long imageByteBudget;
+	private boolean bulkCopy;
+
+	// Fewest pages per run, and most pages of the PDF per page taken, for page ranges copied straight from the file
+	private static final int BULK_MIN_RUN = 16;
+	private static final int BULK_MIN_SHARE = 4;
+
+	/**
+	 * Create a new assembler, using up to one worker per processor.
+	 * 
+	 * @param memoryPolicy the policy deciding where the scratch documents keep their buffers
+	 */
+	public PDFAssembler(MemoryPolicy memoryPolicy) {
+		this.memoryPolicy = memoryPolicy;
+		parallelism = Runtime.getRuntime().availableProcessors();
+		deduplicateResources = true;
+		bulkCopy = true;
+		compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	}
+
+	/**
+	 * Create the new PDF, and save it.
+	 * 
+	 * @param sources the loaded PDF each page range comes from
+	 * @param ranges the page ranges, in the order their pages appear in the new PDF
+	 * @param saveFile the file to save it as
+	 * @throws IOException if a loaded PDF cannot be read or is encrypted, or the file cannot be saved
+	 */
+	public void assemble(List<PDFHandle> sources, List<PageSelection> ranges, File saveFile) throws IOException {
+		assemble(sources, ranges, saveFile, null);
+	}
+
+	/**
+	 * Create the new PDF, and save it, reporting its progress.
+	 * 
+	 * @param sources the loaded PDF each page range comes from
+	 * @param ranges the page ranges, in the order their pages appear in the new PDF
+	 * @param saveFile the file to save it as
+	 * @param listener told how far along it is, and asked whether to stop, or {@code null}
+	 * @throws IOException if a loaded PDF cannot be read or is encrypted, or the file cannot be saved
+	 * @throws CancellationException if the listener cancelled it, in which case the file is not saved
+	 */
+	public void assemble(List<PDFHandle> sources, List<PageSelection> ranges, File saveFile, ProgressListener listener)
+			throws IOException {
+		Progress progress = new Progress(listener);
+		if (streaming) {
+			assembleStreaming(sources, ranges, saveFile, progress);
+			return;
+		}
+		
+		// Group the page ranges by the PDF they come from, keeping the PDFs in order of first use
+		Map<PDFHandle, List<Integer>> rangesBySource = new LinkedHashMap<PDFHandle, List<Integer>>();
+		for (int i = 0; i < sources.size(); ++i) {
+			List<Integer> indices = rangesBySource.get(sources.get(i));
+			if (indices == null) {
+				rangesBySource.put(sources.get(i), indices = new ArrayList<Integer>());
+			}
+			indices.add(i);
+		}
+		
+		COSDictionary[][] clonedPages = new COSDictionary[ranges.size()][];
+		PDDocument[] rangeScratchDocs = new PDDocument[ranges.size()];
+		List<PDDocument> scratchDocs = new ArrayList<PDDocument>();
+		List<MemoryPolicy.Allocation> allocations = new ArrayList<MemoryPolicy.Allocation>();
+		ImageDownsampler downsampler = createDownsampler();
+		Map<PDFHandle, RawPDFReader> readers = new HashMap<PDFHandle, RawPDFReader>();
+		RawPage[][] bulkPages;
+		try {
+			bulkPages = findBulkRanges(sources, ranges, downsampler == null, readers);
+		} catch (IOException e) {
+			closeReaders(readers);
+			throw e;
+		}
+		rangesBySource.keySet().removeAll(readers.keySet());
+		int clonedCount = 0;
+		for (int i = 0; i < ranges.size(); ++i) {
+			if (bulkPages[i] == null) {
+				clonedCount += ranges.get(i).size();
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, rangesBySource.size())),
+				new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PDF-Splicer assemble");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		try {
+			progress.start(Phase.CLONE, clonedCount);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Map.Entry<PDFHandle, List<Integer>> entry : rangesBySource.entrySet()) {
+				MemoryPolicy.Allocation allocation = memoryPolicy.allocate(estimateSize(entry.getKey(), entry.getValue(), ranges));
+				allocations.add(allocation);
+				PDDocument scratchDoc = new PDDocument(allocation.getSetting());
+				scratchDocs.add(scratchDoc);
+				for (int i : entry.getValue()) {
+					rangeScratchDocs[i] = scratchDoc;
+				}
+				futures.add(executor.submit(cloneTask(entry.getKey(), entry.getValue(), ranges, scratchDoc, clonedPages, downsampler, progress)));
+			}
+			awaitAll(futures);
+			
+			if (downsampler != null) {
+				// Each scratch document's images are decoded by one worker, as it was cloned into
+				downsampler.chooseResolution();
+				progress.start(Phase.DOWNSAMPLE, scratchDocs.size());
+				futures.clear();
+				for (PDDocument scratchDoc : scratchDocs) {
+					futures.add(executor.submit(downsampleTask(downsampler, scratchDoc, progress)));
+				}
+				awaitAll(futures);
+				downsampler.await();
+			}
+			
+			progress.start(Phase.WRITE, countPages(ranges));
+			boolean finished = false;
+			File tempFile = createTempFile(saveFile);
+			StreamingPDFWriter writer = createWriter(tempFile, progress);
+			try {
+				if (downsampler != null) {
+					writer.setReplacements(downsampler.getReplacements());
+				}
+				for (int i = 0; i < clonedPages.length; ++i) {
+					if (bulkPages[i] != null) {
+						writer.writePages(readers.get(sources.get(i)), bulkPages[i]);
+					} else {
+						writer.writePages(rangeScratchDocs[i], clonedPages[i]);
+					}
+				}
+				writer.finish();
+				finished = true;
+			} finally {
+				closeWriter(writer, tempFile, saveFile, finished);
+			}
+		} finally {
+			// Scratch documents may only be closed once no worker is still cloning into them
+			executor.shutdown();
+			awaitTermination(executor);
+			if (downsampler != null) {
+				downsampler.close();
+			}
+			for (PDDocument scratchDoc : scratchDocs) {
+				scratchDoc.close();
+			}
+			for (MemoryPolicy.Allocation allocation : allocations) {
+				memoryPolicy.release(allocation);
+			}
+			closeReaders(readers);
+		}
+	}
+
+	/**
+	 * Write the new PDF one page range at a time. The objects written from a loaded PDF are
+	 * forgotten once its last page range is done, and a partly written file is deleted on failure.
+	 * 
+	 * @param sources the loaded PDF each page range comes from
+	 * @param ranges the page ranges, in the order their pages appear in the new PDF
+	 * @param saveFile the file to save it as
+	 * @param progress reports how far along it is
+	 * @throws IOException if a loaded PDF cannot be read or is encrypted, or the file cannot be saved
+	 */
+	private void assembleStreaming(List<PDFHandle> sources, List<PageSelection> ranges, File saveFile, Progress progress)
+			throws IOException {
+		Map<PDFHandle, Integer> lastRange = new HashMap<PDFHandle, Integer>();
+		for (int i = 0; i < sources.size(); ++i) {
+			lastRange.put(sources.get(i), i);
+		}
+		
+		ImageDownsampler downsampler = createDownsampler();
+		Map<PDFHandle, RawPDFReader> readers = new HashMap<PDFHandle, RawPDFReader>();
+		boolean finished = false;
+		File tempFile = null;
+		StreamingPDFWriter writer = null;
+		try {
+			RawPage[][] bulkPages = findBulkRanges(sources, ranges, downsampler == null, readers);
+			tempFile = createTempFile(saveFile);
+			writer = createWriter(tempFile, progress);
+			if (downsampler != null) {
+				// Every page is read once more first, to find how large each image is shown
+				progress.start(Phase.DOWNSAMPLE, countPages(ranges));
+				for (int i = 0; i < sources.size(); ++i) {
+					PDFHandle pdf = sources.get(i);
+					PDDocument doc = pdf.acquire();
+					try {
+						checkNotEncrypted(pdf, doc);
+						for (COSDictionary page : PageTreeWalker.collect(doc, ranges.get(i))) {
+							downsampler.analyze(pdf, new PDPage(page));
+							progress.advance();
+						}
+					} finally {
+						pdf.release();
+					}
+				}
+				downsampler.chooseResolution();
+				writer.setReplacements(downsampler.getReplacements());
+			}
+			
+			progress.start(Phase.WRITE, countPages(ranges));
+			for (int i = 0; i < sources.size(); ++i) {
+				PDFHandle pdf = sources.get(i);
+				if (bulkPages[i] != null) {
+					RawPDFReader reader = readers.get(pdf);
+					writer.writePages(reader, bulkPages[i]);
+					if (lastRange.get(pdf) == i) {
+						writer.releaseSource(reader);
+					}
+					continue;
+				}
+				
+				PDDocument doc = pdf.acquire();
+				try {
+					checkNotEncrypted(pdf, doc);
+					if (downsampler != null) {
+						downsampler.downsample(pdf);
+						downsampler.await();
+					}
+					writer.writePages(pdf, doc, ranges.get(i));
+				} finally {
+					pdf.release();
+				}
+				if (lastRange.get(pdf) == i) {
+					writer.releaseSource(pdf);
+				}
+			}
+			writer.finish();
+			finished = true;
+		} finally {
+			if (downsampler != null) {
+				downsampler.close();
+			}
+			closeReaders(readers);
+			if (writer != null) {
+				closeWriter(writer, tempFile, saveFile, finished);
+			}
+		}
+	}
+
+	/**
+	 * Find the pages of every page range that can be copied straight from its PDF's file. That is
+	 * every range of a PDF whose ranges are all bulk, see {@link #isBulk(PageSelection, int)}, as
+	 * long as its file can be read by a {@link RawPDFReader} and its page tree matches its counts.
+	 * 
+	 * @param sources the loaded PDF each page range comes from
+	 * @param ranges the page ranges
+	 * @param allowed whether pages may be copied straight from the file at all, IE images are left as they are
+	 * @param readers where the reader of each PDF copied from is stored
+	 * @return the pages of each page range, or {@code null} for those that have to be loaded
+	 * @throws IOException if a file cannot be read
+	 */
+	private RawPage[][] findBulkRanges(List<PDFHandle> sources, List<PageSelection> ranges, boolean allowed,
+			Map<PDFHandle, RawPDFReader> readers) throws IOException {
+		RawPage[][] bulkPages = new RawPage[ranges.size()][];
+		if (!bulkCopy || !allowed) {
+			return bulkPages;
+		}
+		
+		Set<PDFHandle> loaded = new HashSet<PDFHandle>();
+		for (int i = 0; i < sources.size(); ++i) {
+			if (!isBulk(ranges.get(i), sources.get(i).getNumPages())) {
+				loaded.add(sources.get(i));
+			}
+		}
+		for (int i = 0; i < sources.size(); ++i) {
+			PDFHandle pdf = sources.get(i);
+			if (loaded.contains(pdf)) {
+				continue;
+			}
+			RawPDFReader reader = readers.get(pdf);
+			if (reader == null) {
+				reader = RawPDFReader.open(pdf.getFile());
+				if (reader == null) {
+					loaded.add(pdf);
+					continue;
+				}
+				readers.put(pdf, reader);
+			}
+			bulkPages[i] = reader.collect(ranges.get(i));
+			if (bulkPages[i] == null) {
+				loaded.add(pdf);
+			}
+		}
+		
+		for (int i = 0; i < sources.size(); ++i) {
+			if (loaded.contains(sources.get(i))) {
+				bulkPages[i] = null;
+				RawPDFReader reader = readers.remove(sources.get(i));
+				if (reader != null) {
+					reader.close();
+				}
+			}
+		}
+		return bulkPages;
+	}
+
+	/**
+	 * Returns whether a page range is worth copying straight from its PDF's file, IE it is made of long
+	 * runs of consecutive pages, and takes a large enough share of the PDF to make up for reading its
+	 * whole cross reference table first.
+	 * 
+	 * @param range the page range
+	 * @param numPages the number of pages in its PDF
+	 * @return {@code true} if it should be copied straight from the file
+	 */
+	private boolean isBulk(PageSelection range, int numPages) {
+		for (int run = 0; run < range.getRunCount(); ++run) {
+			if (range.getRunSize(run) > 1 && Math.abs(range.getRunStep(run)) != 1) {
+				return false;
+			}
+		}
+		return range.size() >= BULK_MIN_RUN * range.getRunCount() && range.size() * BULK_MIN_SHARE >= numPages;
+	}
+
+	/**
+	 * Close the readers of the PDFs copied straight from their files.
+	 * 
+	 * @param readers the readers
+	 * @throws IOException if a file cannot be closed
+	 */
+	private void closeReaders(Map<PDFHandle, RawPDFReader> readers) throws IOException {
+		for (RawPDFReader reader : readers.values()) {
+			reader.close();
+		}
+		readers.clear();
+	}
+
+	/**
+	 * Create the downsampler for the new PDF's images, if they are to be made smaller.
+	 * 
+	 * @return the downsampler, or {@code null} if images are left as they are
+	 */
+	private ImageDownsampler createDownsampler() {
+		if (targetResolution <= 0 && imageByteBudget <= 0) {
+			return null;
+		}
+		return new ImageDownsampler(targetResolution, imageByteBudget, parallelism);
+	}
+
+	/**
+	 * Returns the number of pages in the new PDF.
+	 * 
+	 * @param ranges the page ranges
+	 * @return the number of pages
+	 */
+	private int countPages(List<PageSelection> ranges) {
+		int count = 0;
+		for (PageSelection range : ranges) {
+			count += range.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Create the temporary file the new PDF is written to, next to the file it is saved as, so an
+	 * existing file there is only replaced once the new PDF is complete.
+	 * 
+	 * @param saveFile the file to save it as
+	 * @return the temporary file
+	 * @throws IOException if the file cannot be created
+	 */
+	private static File createTempFile(File saveFile) throws IOException {
+		return File.createTempFile(".pdfsplicer", ".tmp", saveFile.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * Start writing the new PDF.
+	 * 
+	 * @param tempFile the temporary file to write it to, deleted if it cannot be written
+	 * @param progress told each time a page has been written
+	 * @return the writer, as a {@link StreamingPDFWriter}
+	 * @throws IOException if the file cannot be written
+	 */
+	private StreamingPDFWriter createWriter(File tempFile, final Progress progress) throws IOException {
+		StreamingPDFWriter writer;
+		try {
+			writer = new StreamingPDFWriter(tempFile);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+		writer.setPageListener(new StreamingPDFWriter.PageListener() {
+			public void pageWritten(int pageCount) {
+				progress.advance();
+			}
+		});
+		writer.setDeduplicateResources(deduplicateResources);
+		writer.setCompact(compact);
+		writer.setCompressionLevel(compressionLevel);
+		writer.setCompressionThreads(parallelism);
+		return writer;
+	}
+
+	/**
+	 * Close the writer, and move the temporary file over the file to save if the whole PDF was
+	 * written. Otherwise the temporary file is deleted, and any file already there is left as it was.
+	 * 
+	 * @param writer the writer
+	 * @param tempFile the temporary file it was writing
+	 * @param saveFile the file to save the new PDF as
+	 * @param finished whether the whole PDF was written
+	 * @throws IOException if the file cannot be closed or moved
+	 */
+	private void closeWriter(StreamingPDFWriter writer, File tempFile, File saveFile, boolean finished) throws IOException {
+		try {
+			writer.close();
+			if (finished) {
+				Files.move(tempFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			// Nothing is left to delete once it has been moved
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Make sure a loaded PDF is not encrypted, since its pages cannot be copied as they are.
+	 * 
+	 * @param pdf the loaded PDF
+	 * @param doc the opened PDF
+	 * @throws IOException if the PDF is encrypted
+	 */
+	private void checkNotEncrypted(PDFHandle pdf, PDDocument doc) throws IOException {
+		if (doc.isEncrypted()) {
+			throw new IOException("Encrypted PDF: " + pdf.getFile().getName());
+		}
+	}
+
+	/**
+	 * Create the task that clones every page taken from one loaded PDF.
+	 * 
+	 * @param pdf the loaded PDF
+	 * @param indices the indices of the page ranges taken from it
+	 * @param ranges all of the page ranges
+	 * @param scratchDoc the document the pages are cloned into
+	 * @param clonedPages where the cloned pages of each page range are stored
+	 * @param downsampler finds the images of the cloned pages, or {@code null}
+	 * @param progress told each time a page has been cloned
+	 * @return the task
+	 */
+	private Callable<Void> cloneTask(final PDFHandle pdf, final List<Integer> indices, final List<PageSelection> ranges,
+			final PDDocument scratchDoc, final COSDictionary[][] clonedPages, final ImageDownsampler downsampler,
+			final Progress progress) {
+		return new Callable<Void>() {
+			public Void call() throws IOException {
+				PDDocument doc = pdf.acquire();
+				try {
+					checkNotEncrypted(pdf, doc);
+					
+					PDFCloneUtility pdfCloner = new PDFCloneUtility(scratchDoc);
+					for (int i : indices) {
+						COSDictionary[] pages = PageTreeWalker.collect(doc, ranges.get(i));
+						for (int j = 0; j < pages.length; ++j) {
+							// Without its parent, which would bring along the rest of the loaded PDF's pages
+							pages[j] = (COSDictionary) pdfCloner.cloneForNewDocument(StreamingPDFWriter.detachPage(pages[j]));
+							if (downsampler != null) {
+								downsampler.analyze(scratchDoc, new PDPage(pages[j]));
+							}
+							progress.advance();
+						}
+						clonedPages[i] = pages;
+					}
+				} finally {
+					pdf.release();
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Create the task that decodes the images of one scratch document that are to be made smaller.
+	 * 
+	 * @param downsampler the downsampler
+	 * @param scratchDoc the scratch document
+	 * @param progress told once the document is done
+	 * @return the task
+	 */
+	private Callable<Void> downsampleTask(final ImageDownsampler downsampler, final PDDocument scratchDoc, final Progress progress) {
+		return new Callable<Void>() {
+			public Void call() throws IOException {
+				progress.checkCancelled();
+				downsampler.downsample(scratchDoc);
+				progress.advance();
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Wait for every task to finish. If one fails, the others are cancelled and its error thrown.
+	 * 
+	 * @param futures the tasks
+	 * @throws IOException if a task failed
+	 * @throws CancellationException if a task was cancelled by the progress listener
+	 */
+	private void awaitAll(List<Future<?>> futures) throws IOException {
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			for (Future<?> future : futures) {
+				future.cancel(false);
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof CancellationException) {
+				throw (CancellationException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while assembling PDF", e);
+		}
+	}
+
+	/**
+	 * Wait for the workers to stop. They are never interrupted, since that would close the
+	 * channels of loaded PDFs they are reading.
+	 * 
+	 * @param executor the workers
+	 */
+	private void awaitTermination(ExecutorService executor) {
+		boolean interrupted = false;
+		while (!executor.isTerminated()) {
+			try {
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Estimate the size of the pages taken from a loaded PDF from the share of its file they make up.
+	 * 
+	 * @param pdf the loaded PDF
+	 * @param indices the indices of the page ranges taken from it
+	 * @param ranges all of the page ranges
+	 * @return the estimated size, in bytes
+	 */
+	private long estimateSize(PDFHandle pdf, List<Integer> indices, List<PageSelection> ranges) {
+		long pages = 0;
+		for (int i : indices) {
+			pages += ranges.get(i).size();
+		}
+		return pdf.getFile().length() * Math.min(pages, pdf.getNumPages()) / Math.max(1, pdf.getNumPages());
+	}
+
+	/**
+	 * Set the most loaded PDFs cloned at once.
+	 * 
+	 * @param parallelism the number of workers, at least 1
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Set whether the new PDF is written straight to the file one page range at a time.
+	 * 
+	 * @param streaming {@code true} to keep memory bounded instead of cloning on several threads
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Returns whether the new PDF is written straight to the file one page range at a time.
+	 * 
+	 * @return {@code true} if streaming
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Set whether the new PDF packs its objects into compressed object streams, and compresses any
+	 * streams that are not compressed.
+	 * 
+	 * @param compact {@code true} to write a smaller PDF 1.5 file
+	 */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	/**
+	 * Returns whether the new PDF is written in compact mode.
+	 * 
+	 * @return {@code true} if compact
+	 */
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Set how hard compact mode compresses.
+	 * 
+	 * @param compressionLevel from 1, the fastest, to 9, the smallest, or -1 for the default
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < -1 || compressionLevel > 9) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Set the resolution images of the new PDF are brought down to, where they are above it.
+	 * 
+	 * @param targetResolution the resolution, in DPI, or 0 to leave images as they are
+	 */
+	public void setTargetResolution(float targetResolution) {
+		this.targetResolution = Math.max(0, targetResolution);
+	}
+
+	/**
+	 * Set the most bytes the images of the new PDF should take together, bringing them down to
+	 * whatever resolution is estimated to fit.
+	 * 
+	 * @param imageByteBudget the size, in bytes, or 0 for no limit
+	 */
+	public void setImageByteBudget(long imageByteBudget) {
+		this.imageByteBudget = Math.max(0, imageByteBudget);
+	}
+
+	/**
+	 * Set whether identical fonts, images and ICC profiles are only written once.
+	 * 
+	 * @param deduplicateResources {@code false} to skip hashing their contents
+	 */
+	public void setDeduplicateResources(boolean deduplicateResources) {
+		this.deduplicateResources = deduplicateResources;
+	}
+
+	/**
+	 * Set whether PDFs taken whole or in long runs of pages are copied straight from their files,
+	 * instead of being loaded. This is on by default.
+	 * 
+	 * @param bulkCopy {@code false} to always load the PDFs
+	 */
+	public void setBulkCopy(boolean bulkCopy) {
+		this.bulkCopy = bulkCopy;
+	}
+
+	/**
+	 * Returns the most loaded PDFs cloned at once.
+	 * 
+	 * @return the number of workers
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Creates the new PDF in the background with the model's {@link PDFAssembler}. The page ranges are
+ * taken when the creator is made, so edits made while it runs do not change the new PDF. The
+ * progress property is the share of the current phase that is done, as a percentage, and is also
+ * fired as {@link ModelEvent.Type#PROGRESS} events on the model's bus, noting the phase.
+ * 
+ * <p>It is cancelled with {@link #requestCancel()} rather than {@link #cancel(boolean)}. The
+ * assembly then stops before its next page, and deletes the partly written file and closes its
+ * scratch documents before the creator is done, whereas {@code cancel} would report it done while
+ * it is still cleaning up. A cancelled creator's result is {@link UIConstants#ERROR_CANCELLED}, unless
+ * the new PDF was already saved.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PDFCreator extends SwingWorker<UIConstants, Void> {
+
+	private SplicerModel model;
+	private List<PDFHandle> sources;
+	private List<PageSelection> ranges;
+	private File saveFile;
+	private volatile boolean cancelRequested;
+	private PDFAssembler.Phase lastPhase;
+	private int lastProgress;
+
+	/**
+	 * Create a new creator.
+	 * 
+	 * @param model the {@link SplicerModel} whose page ranges make up the new PDF
+	 * @param saveFile the file to save the new PDF as
+	 */
+	public PDFCreator(SplicerModel model, File saveFile) {
+		this.model = model;
+		this.saveFile = saveFile;
+		sources = model.getPageRangeSources();
+		ranges = model.getPageRanges();
+	}
+
+	/**
+	 * Stop creating the new PDF before its next page, without saving it.
+	 */
+	public void requestCancel() {
+		cancelRequested = true;
+	}
+
+	/**
+	 * Returns whether {@link #requestCancel()} has been called.
+	 * 
+	 * @return {@code true} if the new PDF is not to be saved
+	 */
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	@Override
+	protected UIConstants doInBackground() throws Exception {
+		try {
+			model.getAssembler().assemble(sources, ranges, saveFile, new PDFAssembler.ProgressListener() {
+				public void progress(PDFAssembler.Phase phase, int done, int total) {
+					report(phase, done, total);
+				}
+
+				public boolean isCancelled() {
+					return cancelRequested;
+				}
+			});
+		} catch (CancellationException e) {
+			return UIConstants.ERROR_CANCELLED;
+		} catch (IOException | RuntimeException e) {
+			return UIConstants.ERROR_CANNOT_SAVE;
+		}
+		return UIConstants.ERROR_NOERROR;
+	}
+
+	/**
+	 * Report progress, but only when the phase or its percentage changes.
+	 * 
+	 * @param phase the phase
+	 * @param done the number of steps of the phase done so far
+	 * @param total the number of steps in the phase
+	 */
+	private synchronized void report(PDFAssembler.Phase phase, int done, int total) {
+		int progress = total == 0 ? 100 : (int) (100L * done / total);
+		if (phase == lastPhase && progress == lastProgress) {
+			return;
+		}
+		lastPhase = phase;
+		lastProgress = progress;
+		setProgress(progress);
+		model.getEventBus().fire(ModelEvent.progress(this, progress, describe(phase, done, total)));
+	}
+
+	/**
+	 * Describe what a phase is working on, for the progress dialog.
+	 * 
+	 * @param phase the phase
+	 * @param done the number of steps of the phase done so far
+	 * @param total the number of steps in the phase
+	 * @return the description
+	 */
+	private static String describe(PDFAssembler.Phase phase, int done, int total) {
+		switch (phase) {
+		case CLONE:
+			return "Copying pages (" + done + " of " + total + ")";
+		case DOWNSAMPLE:
+			return "Downsampling images";
+		default:
+			return "Writing pages (" + done + " of " + total + ")";
+		}
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * A loaded PDF whose full {@link PDDocument} may be closed by its {@link PDFHandleCache} once it
+ * has not been used for a while, keeping only its file, page count and page sizes around. The
+ * document is opened when the handle is created, counting towards the cache's limit right away,
+ * and opened again by {@link #acquire()} if it was closed since.
+ * 
+ * <p>A PDDocument is not safe to use from several threads, so {@link #acquire()} also locks the
+ * handle until the matching {@link #release()}. Always release in a {@code finally} block.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PDFHandle {
+
+	private File file;
+	private int numPages;
+	private float[] pageWidths;
+	private float[] pageHeights;
+	private PDFHandleCache cache;
+	private ReentrantLock lock;
+	private volatile PDDocument pdf;
+	private MemoryPolicy.Allocation allocation;
+	private boolean closed;
+	private String contentHash;
+
+	/**
+	 * Create a new handle, opening the PDF to read its page count and page sizes. The PDF is left
+	 * open and handed to the cache, which may close it when other PDFs are used.
+	 * 
+	 * @param file the PDF file
+	 * @param cache the {@link PDFHandleCache} that decides when to close it
+	 * @throws IOException if the file cannot be read
+	 */
+	PDFHandle(File file, PDFHandleCache cache) throws IOException {
+		this.file = file;
+		this.cache = cache;
+		lock = new ReentrantLock();
+		openPDF();
+		try {
+			numPages = pdf.getNumberOfPages();
+			readPageSizes();
+		} catch (RuntimeException e) {
+			closePDF();
+			throw e;
+		}
+		cache.touch(this);
+	}
+
+	/**
+	 * Record the size of every page as it is rendered, IE its crop box turned by its rotation.
+	 */
+	private void readPageSizes() {
+		pageWidths = new float[numPages];
+		pageHeights = new float[numPages];
+		int i = 0;
+		for (PDPage page : pdf.getPages()) {
+			PDRectangle cropBox = page.getCropBox();
+			boolean turned = page.getRotation() % 180 != 0;
+			pageWidths[i] = turned ? cropBox.getHeight() : cropBox.getWidth();
+			pageHeights[i] = turned ? cropBox.getWidth() : cropBox.getHeight();
+			++i;
+		}
+	}
+
+	/**
+	 * Lock the handle and return its PDF, opening it again if it was closed.
+	 * 
+	 * @return the opened PDF, only valid until {@link #release()}
+	 * @throws IOException if the PDF cannot be opened
+	 */
+	public PDDocument acquire() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IOException("PDF has been removed: " + file.getName());
+			}
+			if (pdf == null) {
+				openPDF();
+			}
+			cache.touch(this);
+		} catch (IOException | RuntimeException e) {
+			lock.unlock();
+			throw e;
+		}
+		return pdf;
+	}
+
+	/**
+	 * Unlock the handle after a call to {@link #acquire()}.
+	 */
+	public void release() {
+		lock.unlock();
+	}
+
+	/**
+	 * Close the PDF if it is open and not in use by another thread.
+	 * 
+	 * @return {@code true} if the PDF is no longer open
+	 */
+	boolean tryEvict() {
+		if (lock.isHeldByCurrentThread() || !lock.tryLock()) {
+			return false;
+		}
+		try {
+			closePDF();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the PDF for good. Any later {@link #acquire()} fails.
+	 * 
+	 * @throws IOException if the PDF cannot be closed
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			closed = true;
+			cache.forget(this);
+			if (pdf != null) {
+				pdf.close();
+				pdf = null;
+			}
+			cache.getMemoryPolicy().release(allocation);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Open the PDF with buffers chosen by the cache's {@link MemoryPolicy}.
+	 * 
+	 * @throws IOException if the file cannot be read
+	 */
+	private void openPDF() throws IOException {
+		allocation = cache.getMemoryPolicy().allocate(file.length());
+		try {
+			pdf = cache.load(file, allocation.getSetting());
+		} catch (IOException e) {
+			cache.getMemoryPolicy().release(allocation);
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the PDF, reporting rather than throwing any error since it can be reopened later.
+	 */
+	private void closePDF() {
+		if (pdf != null) {
+			try {
+				pdf.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			pdf = null;
+			cache.getMemoryPolicy().release(allocation);
+		}
+	}
+
+	/**
+	 * Returns whether the PDF is currently open.
+	 * 
+	 * @return {@code true} if the PDF is open
+	 */
+	public boolean isOpen() {
+		return pdf != null;
+	}
+
+	/**
+	 * Returns where the PDF's buffers were kept the last time it was opened.
+	 * 
+	 * @return the mode, as a {@link MemoryPolicy.Mode}
+	 */
+	public MemoryPolicy.Mode getMemoryMode() {
+		return allocation.getMode();
+	}
+
+	/**
+	 * Returns the PDF file.
+	 * 
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the name of the PDF file.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return file.getName();
+	}
+
+	/**
+	 * Returns the number of pages in the PDF.
+	 * 
+	 * @return the number of pages
+	 */
+	public int getNumPages() {
+		return numPages;
+	}
+
+	/**
+	 * Returns a SHA-256 hash of the PDF file's content, worked out the first time it is needed.
+	 * 
+	 * @return the hash, in hexadecimal
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized String getContentHash() throws IOException {
+		if (contentHash == null) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			contentHash = hex.toString();
+		}
+		return contentHash;
+	}
+
+	/**
+	 * Returns the width of a page as it is rendered.
+	 * 
+	 * @param pageIndex the index of the page, starting at 0
+	 * @return the width, in points
+	 */
+	public float getPageWidth(int pageIndex) {
+		return pageWidths[pageIndex];
+	}
+
+	/**
+	 * Returns the height of a page as it is rendered.
+	 * 
+	 * @param pageIndex the index of the page, starting at 0
+	 * @return the height, in points
+	 */
+	public float getPageHeight(int pageIndex) {
+		return pageHeights[pageIndex];
+	}
+
+}
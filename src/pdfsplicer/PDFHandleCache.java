@@ -0,0 +1,186 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Opens PDFs for {@link PDFHandle}s, and keeps at most a fixed number of them open at once.
+ * When a handle is used and too many PDFs are open, the least recently used ones that are not
+ * currently acquired are closed. Handles in use are never closed, so the limit can be exceeded
+ * for as long as they are held.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PDFHandleCache {
+
+	public static final int DEFAULT_CAPACITY = 8;
+	public static final long DEFAULT_MAPPED_FILE_THRESHOLD = 256L << 20;
+
+	private int capacity;
+	private LinkedHashMap<PDFHandle, Boolean> openHandles;
+	private MemoryPolicy memoryPolicy;
+	private volatile long mappedFileThreshold;
+
+	/**
+	 * Create a new cache with the default capacity.
+	 */
+	public PDFHandleCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new cache.
+	 * 
+	 * @param capacity the maximum number of PDFs kept open
+	 */
+	public PDFHandleCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		openHandles = new LinkedHashMap<PDFHandle, Boolean>(16, 0.75f, true);
+		memoryPolicy = new MemoryPolicy();
+		mappedFileThreshold = DEFAULT_MAPPED_FILE_THRESHOLD;
+	}
+
+	/**
+	 * Open a PDF and create a handle for it. The PDF stays open until the cache evicts it.
+	 * 
+	 * @param file the PDF file
+	 * @return the new {@link PDFHandle}
+	 * @throws IOException if the file cannot be read
+	 */
+	public PDFHandle open(File file) throws IOException {
+		return new PDFHandle(file, this);
+	}
+
+	/**
+	 * Load the full PDF for a handle. Files at or above the mapped file threshold are read
+	 * through a {@link MappedRandomAccessRead}.
+	 * 
+	 * @param file the PDF file
+	 * @param memoryUsage where the PDF's buffers are kept
+	 * @return the opened PDF
+	 * @throws IOException if the file cannot be read
+	 */
+	PDDocument load(File file, MemoryUsageSetting memoryUsage) throws IOException {
+		if (file.length() < mappedFileThreshold) {
+			return PDDocument.load(file, memoryUsage);
+		}
+		
+		ScratchFile scratchFile = new ScratchFile(memoryUsage);
+		RandomAccessRead source = null;
+		try {
+			source = new MappedRandomAccessRead(file);
+			PDFParser parser = new PDFParser(source, "", scratchFile);
+			parser.parse();
+			return parser.getPDDocument();
+		} catch (IOException e) {
+			IOUtils.closeQuietly(source);
+			IOUtils.closeQuietly(scratchFile);
+			throw e;
+		}
+	}
+
+	/**
+	 * Mark a handle's PDF as the most recently used, and close others if over capacity.
+	 * 
+	 * @param handle the handle that was used
+	 */
+	synchronized void touch(PDFHandle handle) {
+		openHandles.put(handle, Boolean.TRUE);
+		evict();
+	}
+
+	/**
+	 * Stop tracking a handle that has been closed for good.
+	 * 
+	 * @param handle the closed handle
+	 */
+	synchronized void forget(PDFHandle handle) {
+		openHandles.remove(handle);
+	}
+
+	/**
+	 * Close least recently used PDFs until the cache is within capacity, skipping any in use.
+	 */
+	private void evict() {
+		Iterator<PDFHandle> it = openHandles.keySet().iterator();
+		while (openHandles.size() > capacity && it.hasNext()) {
+			if (it.next().tryEvict()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Set the maximum number of PDFs kept open, closing any over the new limit.
+	 * 
+	 * @param capacity the number of PDFs, at least 1
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		evict();
+	}
+
+	/**
+	 * Returns the maximum number of PDFs kept open.
+	 * 
+	 * @return the number of PDFs
+	 */
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Set the smallest file size that is memory mapped instead of read into buffers.
+	 * 
+	 * @param mappedFileThreshold the size, in bytes, or {@link Long#MAX_VALUE} to never map files
+	 */
+	public void setMappedFileThreshold(long mappedFileThreshold) {
+		this.mappedFileThreshold = mappedFileThreshold;
+	}
+
+	/**
+	 * Returns the policy deciding where opened PDFs keep their buffers.
+	 * 
+	 * @return the policy, as a {@link MemoryPolicy}
+	 */
+	public MemoryPolicy getMemoryPolicy() {
+		return memoryPolicy;
+	}
+
+	/**
+	 * Returns the number of PDFs currently open.
+	 * 
+	 * @return the number of PDFs
+	 */
+	public synchronized int getOpenCount() {
+		return openHandles.size();
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ * Loads PDFs in the background. The files are parsed several at a time on a bounded pool,
+ * and each one is added to the model on the event thread in the order the files were given,
+ * before {@link #done()} runs. The progress property counts finished files as a percentage,
+ * and is also fired as {@link ModelEvent.Type#PROGRESS} events on the model's bus.
+ * 
+ * <p>It is cancelled with {@link #requestCancel()} rather than {@link #cancel(boolean)}. Files not
+ * yet parsed are then skipped, and any PDFs not yet added to the model are closed before the
+ * loader is done, whereas {@code cancel} would report it done while they are still being closed.
+ * A cancelled loader's result is {@link UIConstants#ERROR_CANCELLED}. The same clean up happens
+ * if loading stops early for any other reason, such as being interrupted.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PDFLoader extends SwingWorker<UIConstants, Void> {
+
+	private SplicerModel model;
+	private File[] files;
+	private int parallelism;
+	private volatile UIConstants error;
+	private volatile String currentFile;
+	private volatile boolean cancelRequested;
+	private volatile boolean stopped;
+
+	/**
+	 * Create a new loader.
+	 * 
+	 * @param model the {@link SplicerModel} the PDFs are added to
+	 * @param files the files to load, in the order they should appear in the list
+	 * @param parallelism the maximum number of files parsed at once
+	 */
+	public PDFLoader(SplicerModel model, File[] files, int parallelism) {
+		this.model = model;
+		this.files = files;
+		this.parallelism = Math.max(1, Math.min(parallelism, files.length));
+		error = UIConstants.ERROR_NOERROR;
+	}
+
+	/**
+	 * Stop loading before the next file, closing any PDFs not yet added to the model.
+	 */
+	public void requestCancel() {
+		cancelRequested = true;
+	}
+
+	/**
+	 * Returns whether {@link #requestCancel()} has been called.
+	 * 
+	 * @return {@code true} if no more PDFs are to be added to the model
+	 */
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	/**
+	 * Returns the name of the file most recently added to the model.
+	 * 
+	 * @return the file name, or {@code null} if none have been added yet
+	 */
+	public String getCurrentFile() {
+		return currentFile;
+	}
+
+	@Override
+	protected UIConstants doInBackground() throws Exception {
+		if (files.length == 0) {
+			return error;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		List<Future<PDFHandle>> results = new ArrayList<Future<PDFHandle>>();
+		for (final File file : files) {
+			results.add(pool.submit(new Callable<PDFHandle>() {
+				@Override
+				public PDFHandle call() throws Exception {
+					if (cancelRequested || stopped || !file.getName().endsWith(".pdf")) {
+						return null;
+					}
+					return model.openPDF(file);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		int published = 0;
+		try {
+			while (published < files.length && !cancelRequested) {
+				String name = files[published].getName();
+				PDFHandle pdf = null;
+				try {
+					pdf = results.get(published).get();
+				} catch (ExecutionException e) {
+					error = UIConstants.ERROR_UNREADABLE;
+				}
+
+				if (pdf != null) {
+					addToModel(name, pdf);
+				} else if (!name.endsWith(".pdf")) {
+					error = UIConstants.ERROR_NOTPDF;
+				}
+				++published;
+				setProgress(100 * published / files.length);
+				model.getEventBus().fire(ModelEvent.progress(this, getProgress(), name));
+			}
+		} finally {
+			// Cancelled, interrupted or failed
+			if (published < files.length) {
+				stopped = true;
+				closeUnpublished(pool, results.subList(published, results.size()));
+			}
+		}
+
+		return cancelRequested ? UIConstants.ERROR_CANCELLED : error;
+	}
+
+	/**
+	 * Hand an opened PDF to the model on the event thread. If a cancel has been requested
+	 * by the time it runs, the PDF is closed instead.
+	 * 
+	 * @param name the name of the PDF
+	 * @param pdf the opened PDF
+	 */
+	private void addToModel(final String name, final PDFHandle pdf) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (cancelRequested) {
+					close(pdf);
+					return;
+				}
+				try {
+					model.addLoadedPDF(name, pdf);
+					currentFile = name;
+				} catch (IOException e) {
+					error = UIConstants.ERROR_UNREADABLE;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for any parses still running after loading stopped early, and close every PDF that was
+	 * not handed to the model. Files still queued see that loading stopped and are skipped without
+	 * being opened. An interrupt does not cut the wait short, since that would leave PDFs open, but
+	 * is passed on once they are closed.
+	 * 
+	 * @param pool the pool the files are parsed on
+	 * @param results the results that were not handed to the model
+	 */
+	private void closeUnpublished(ExecutorService pool, List<Future<PDFHandle>> results) {
+		boolean interrupted = false;
+		while (!pool.isTerminated()) {
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		for (Future<PDFHandle> result : results) {
+			try {
+				close(result.get());
+			} catch (ExecutionException e) {
+				// Nothing was opened
+			} catch (InterruptedException e) {
+				// Not thrown, since every parse has finished
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Close a PDF that will not be added to the model.
+	 * 
+	 * @param pdf the opened PDF, or {@code null}
+	 */
+	private void close(PDFHandle pdf) {
+		if (pdf == null) {
+			return;
+		}
+		try {
+			pdf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
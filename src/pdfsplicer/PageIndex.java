@@ -0,0 +1,140 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.util.Arrays;
+
+/**
+ * Maps page numbers of the finalized PDF to the page range they come from. The index keeps
+ * the number of pages before each range, so a page is found with a binary search instead of
+ * walking the ranges from the start.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PageIndex {
+
+	// starts[i] is the number of pages before range i, and starts[count] the total
+	private int[] starts;
+	private int count;
+
+	/**
+	 * Create a new, empty index.
+	 */
+	public PageIndex() {
+		starts = new int[16];
+		count = 0;
+	}
+
+	/**
+	 * Add a range after the last one.
+	 * 
+	 * @param size the number of pages in the range
+	 */
+	public void add(int size) {
+		if (count + 2 > starts.length) {
+			starts = Arrays.copyOf(starts, starts.length * 2);
+		}
+		starts[count + 1] = starts[count] + size;
+		++count;
+	}
+
+	/**
+	 * Remove a range, moving the ranges after it forward.
+	 * 
+	 * @param rangeIndex the index of the range
+	 */
+	public void remove(int rangeIndex) {
+		int size = getRangeSize(rangeIndex);
+		for (int i = rangeIndex + 1; i < count; ++i) {
+			starts[i] = starts[i + 1] - size;
+		}
+		--count;
+	}
+
+	/**
+	 * Remove every range.
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Find the range a page of the finalized PDF is in.
+	 * 
+	 * @param pageIndex the index of the page in the finalized PDF, starting at 0
+	 * @return the index of the range
+	 * @throws IndexOutOfBoundsException if there is no such page
+	 */
+	public int findRange(int pageIndex) {
+		if (pageIndex < 0 || pageIndex >= getTotalPages()) {
+			throw new IndexOutOfBoundsException("Page index: " + pageIndex + ", Pages: " + getTotalPages());
+		}
+		// Last range starting at or before the page, skipping any empty ranges
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= pageIndex) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of pages of the finalized PDF before a range.
+	 * 
+	 * @param rangeIndex the index of the range
+	 * @return the number of pages
+	 */
+	public int getRangeStart(int rangeIndex) {
+		return starts[rangeIndex];
+	}
+
+	/**
+	 * Returns the number of pages in a range.
+	 * 
+	 * @param rangeIndex the index of the range
+	 * @return the number of pages
+	 */
+	public int getRangeSize(int rangeIndex) {
+		return starts[rangeIndex + 1] - starts[rangeIndex];
+	}
+
+	/**
+	 * Returns the number of ranges.
+	 * 
+	 * @return the number of ranges
+	 */
+	public int getRangeCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of pages in all the ranges together.
+	 * 
+	 * @return the number of pages
+	 */
+	public int getTotalPages() {
+		return starts[count];
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * A list of pages that is worked out on demand from the state of a {@link SplicerModel},
+ * so no entry is kept per page however long the document is.
+ * 
+ * @author Abeer Ahmed
+ */
+public abstract class PageListModel extends AbstractListModel<PageLocation> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Tell the list's listeners that its pages have changed.
+	 */
+	public void refresh() {
+		fireContentsChanged(this, 0, Math.max(0, getSize() - 1));
+	}
+
+}
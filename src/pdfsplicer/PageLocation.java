@@ -0,0 +1,60 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+/**
+ * A single page of a loaded PDF.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PageLocation {
+
+	private PDFHandle pdf;
+	private int pageIndex;
+
+	/**
+	 * Create a new page location.
+	 * 
+	 * @param pdf the handle to the loaded PDF
+	 * @param pageIndex the index of the page, starting at 0
+	 */
+	public PageLocation(PDFHandle pdf, int pageIndex) {
+		this.pdf = pdf;
+		this.pageIndex = pageIndex;
+	}
+
+	/**
+	 * Returns the handle to the loaded PDF the page is in.
+	 * 
+	 * @return the handle, as a {@link PDFHandle}
+	 */
+	public PDFHandle getPDF() {
+		return pdf;
+	}
+
+	/**
+	 * Returns the index of the page.
+	 * 
+	 * @return the index, starting at 0
+	 */
+	public int getPageIndex() {
+		return pageIndex;
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Turns a page range typed by the user into a {@link PageSelection} in a single pass, without
+ * splitting the text. A page range is a comma separated list of clauses, optionally followed by
+ * {@code except} and a list of clauses whose pages are left out. A clause is one of
+ * <ul>
+ * <li>a page, IE {@code 7}, {@code last} or {@code last-5}</li>
+ * <li>a range of pages, IE {@code 2-10}, or {@code 10-2} for the same pages backwards</li>
+ * <li>{@code all}, {@code odd} or {@code even}</li>
+ * </ul>
+ * and may end with a step, IE {@code 1-100:2} for every other page.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PageRangeCompiler {
+
+	private String text;
+	private int pageLimit;
+	private int pos;
+
+	// Clauses to include, as first page, last page and step, packed 3 to a clause
+	private int[] clauses;
+	private int clauseCount;
+
+	// Where the first clause to include that selected no pages starts, or -1
+	private int emptyClausePos = -1;
+
+	private PageRangeCompiler(String text, int pageLimit) {
+		this.text = text;
+		this.pageLimit = pageLimit;
+		clauses = new int[24];
+	}
+
+	/**
+	 * Compile a page range.
+	 * 
+	 * @param text the page range
+	 * @param pageLimit the number of pages in the PDF
+	 * @return the selected pages, as a {@link PageSelection}
+	 * @throws PageRangeException if the page range is invalid, refers to pages the PDF does not have,
+	 * or selects no pages at all
+	 */
+	public static PageSelection compile(String text, int pageLimit) throws PageRangeException {
+		return new PageRangeCompiler(text, pageLimit).compile();
+	}
+
+	/**
+	 * Parse the whole page range, then add the included pages that are not excluded.
+	 * 
+	 * @return the selected pages
+	 * @throws PageRangeException if the page range is invalid, or selects no pages
+	 */
+	private PageSelection compile() throws PageRangeException {
+		parseClauses(null);
+		BitSet excluded = null;
+		int exceptPos = -1;
+		if (peekWord("except")) {
+			exceptPos = pos;
+			pos += "except".length();
+			excluded = new BitSet(pageLimit + 1);
+			parseClauses(excluded);
+		}
+		skipSpaces();
+		if (pos < text.length()) {
+			throw new PageRangeException("Expected ',' or 'except' but found '" + text.charAt(pos) + "'", pos);
+		}
+
+		PageSelection selection = new PageSelection();
+		for (int i = 0; i < clauseCount * 3; i += 3) {
+			int first = clauses[i];
+			int last = clauses[i + 1];
+			int step = clauses[i + 2];
+			if (excluded == null) {
+				selection.addRange(first, last, step);
+				continue;
+			}
+			int dir = first <= last ? step : -step;
+			for (int page = first, n = Math.abs(last - first) / step; n >= 0; page += dir, --n) {
+				if (!excluded.get(page)) {
+					selection.add(page);
+				}
+			}
+		}
+		if (selection.size() == 0) {
+			if (clauseCount == 0) {
+				throw new PageRangeException("No pages selected, the PDF only has " + pageLimit + (pageLimit == 1 ? " page" : " pages"), emptyClausePos);
+			}
+			throw new PageRangeException("No pages left after 'except'", exceptPos);
+		}
+		return selection;
+	}
+
+	/**
+	 * Parse a comma separated list of clauses.
+	 * 
+	 * @param excluded where to mark the pages if this is the list after {@code except},
+	 * or {@code null} to keep them as clauses to include
+	 * @throws PageRangeException if a clause is invalid
+	 */
+	private void parseClauses(BitSet excluded) throws PageRangeException {
+		parseClause(excluded);
+		skipSpaces();
+		while (pos < text.length() && text.charAt(pos) == ',') {
+			++pos;
+			parseClause(excluded);
+			skipSpaces();
+		}
+	}
+
+	/**
+	 * Parse a single clause.
+	 * 
+	 * @param excluded where to mark the pages, or {@code null} to keep the clause to include
+	 * @throws PageRangeException if the clause is invalid
+	 */
+	private void parseClause(BitSet excluded) throws PageRangeException {
+		skipSpaces();
+		int start = pos;
+		int first;
+		int last;
+		int step = 1;
+		if (peekWord("all")) {
+			pos += 3;
+			first = 1;
+			last = pageLimit;
+		} else if (peekWord("odd")) {
+			pos += 3;
+			first = 1;
+			last = pageLimit;
+			step = 2;
+		} else if (peekWord("even")) {
+			pos += 4;
+			first = 2;
+			last = pageLimit;
+			step = 2;
+		} else {
+			first = parsePage();
+			skipSpaces();
+			last = first;
+			if (pos < text.length() && text.charAt(pos) == '-') {
+				++pos;
+				last = parsePage();
+			}
+		}
+
+		skipSpaces();
+		if (pos < text.length() && text.charAt(pos) == ':') {
+			++pos;
+			skipSpaces();
+			int stepPos = pos;
+			int by = parseNumber();
+			if (by < 1) {
+				throw new PageRangeException("Step must be at least 1", stepPos);
+			}
+			step *= by;
+		}
+
+		if (first > pageLimit) {
+			// Even pages of a single page PDF
+			if (excluded == null && emptyClausePos < 0) {
+				emptyClausePos = start;
+			}
+			return;
+		}
+		if (excluded != null) {
+			int dir = first <= last ? step : -step;
+			for (int page = first, n = Math.abs(last - first) / step; n >= 0; page += dir, --n) {
+				excluded.set(page);
+			}
+			return;
+		}
+		if (clauseCount * 3 == clauses.length) {
+			clauses = Arrays.copyOf(clauses, clauses.length * 2);
+		}
+		clauses[clauseCount * 3] = first;
+		clauses[clauseCount * 3 + 1] = last;
+		clauses[clauseCount * 3 + 2] = step;
+		++clauseCount;
+	}
+
+	/**
+	 * Parse a page, either a number or {@code last} with an optional offset, IE {@code last-5}.
+	 * 
+	 * @return the page number
+	 * @throws PageRangeException if there is no page, or the PDF does not have it
+	 */
+	private int parsePage() throws PageRangeException {
+		skipSpaces();
+		int start = pos;
+		int page;
+		if (peekWord("last")) {
+			pos += 4;
+			page = pageLimit;
+			int save = pos;
+			skipSpaces();
+			if (pos < text.length() && text.charAt(pos) == '-') {
+				++pos;
+				skipSpaces();
+				if (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+					page -= parseNumber();
+				} else {
+					// The dash starts a range ending at another page, IE last-last
+					pos = save;
+				}
+			} else {
+				pos = save;
+			}
+		} else {
+			page = parseNumber();
+		}
+		if (page < 1 || page > pageLimit) {
+			throw new PageRangeException("Page " + page + " is not between 1 and " + pageLimit, start);
+		}
+		return page;
+	}
+
+	/**
+	 * Parse a whole number.
+	 * 
+	 * @return the number
+	 * @throws PageRangeException if there is no number
+	 */
+	private int parseNumber() throws PageRangeException {
+		int start = pos;
+		long value = 0;
+		while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+			value = Math.min(value * 10 + Character.digit(text.charAt(pos), 10), Integer.MAX_VALUE);
+			++pos;
+		}
+		if (pos == start) {
+			if (pos == text.length()) {
+				throw new PageRangeException("Expected a page number but the page range ended", pos);
+			}
+			throw new PageRangeException("Expected a page number but found '" + text.charAt(pos) + "'", pos);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Returns whether a word, ignoring case, is next in the page range, skipping spaces before it.
+	 * 
+	 * @param word the word in lower case
+	 * @return {@code true} if the word is next and is not followed by another letter
+	 */
+	private boolean peekWord(String word) {
+		skipSpaces();
+		int end = pos + word.length();
+		return text.regionMatches(true, pos, word, 0, word.length())
+				&& (end == text.length() || !Character.isLetter(text.charAt(end)));
+	}
+
+	/**
+	 * Move past any spaces.
+	 */
+	private void skipSpaces() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			++pos;
+		}
+	}
+
+}
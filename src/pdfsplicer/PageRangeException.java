@@ -0,0 +1,52 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+/**
+ * Thrown when a page range cannot be understood, with the position of the problem.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PageRangeException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private int position;
+
+	/**
+	 * Create a new exception.
+	 * 
+	 * @param message what is wrong
+	 * @param position the index of the character where the problem is, starting at 0
+	 */
+	public PageRangeException(String message, int position) {
+		super(message + " at position " + (position + 1));
+		this.position = position;
+	}
+
+	/**
+	 * Returns where in the page range the problem is.
+	 * 
+	 * @return the index of the character, starting at 0
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+}
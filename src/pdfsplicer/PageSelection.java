@@ -0,0 +1,208 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.util.Arrays;
+
+/**
+ * The pages selected from one loaded PDF, in order. Pages are stored as runs of evenly spaced
+ * page numbers, so selecting every page of a PDF takes a single run however many pages it has,
+ * and a page is looked up with a binary search over the runs.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PageSelection {
+
+	// Run i is counts[i] pages from starts[i] in steps of steps[i], after offsets[i] earlier pages
+	private int[] starts;
+	private int[] steps;
+	private int[] counts;
+	private int[] offsets;
+	private int runCount;
+
+	/**
+	 * Create a new, empty selection.
+	 */
+	public PageSelection() {
+		starts = new int[4];
+		steps = new int[4];
+		counts = new int[4];
+		offsets = new int[5];
+		runCount = 0;
+	}
+
+	/**
+	 * Add a single page after the pages already selected.
+	 * 
+	 * @param page the page number, starting at 1
+	 */
+	public void add(int page) {
+		if (runCount > 0) {
+			int last = runCount - 1;
+			if (counts[last] == 1 && page != starts[last]) {
+				steps[last] = page - starts[last];
+				extend(1);
+				return;
+			}
+			if (counts[last] > 1 && page == starts[last] + steps[last] * counts[last]) {
+				extend(1);
+				return;
+			}
+		}
+		addRun(page, 1, 1);
+	}
+
+	/**
+	 * Add every page from one page to another after the pages already selected.
+	 * 
+	 * @param first the first page number, starting at 1
+	 * @param last the last page number, which may be before the first to select them backwards
+	 */
+	public void addRange(int first, int last) {
+		addRange(first, last, 1);
+	}
+
+	/**
+	 * Add every so many pages from one page towards another after the pages already selected.
+	 * 
+	 * @param first the first page number, starting at 1
+	 * @param last the page number to stop at, which is only included if the step lands on it
+	 * @param step the number of pages between selected pages, at least 1
+	 */
+	public void addRange(int first, int last, int step) {
+		int count = Math.abs(last - first) / step + 1;
+		if (first > last) {
+			step = -step;
+		}
+		if (runCount > 0) {
+			int prev = runCount - 1;
+			if ((counts[prev] == 1 || steps[prev] == step) && first == starts[prev] + step * counts[prev]) {
+				steps[prev] = step;
+				extend(count);
+				return;
+			}
+		}
+		addRun(first, step, count);
+	}
+
+	/**
+	 * Add a new run after the last one.
+	 * 
+	 * @param start the first page number
+	 * @param step the difference between page numbers
+	 * @param count the number of pages
+	 */
+	private void addRun(int start, int step, int count) {
+		if (runCount == starts.length) {
+			int capacity = runCount * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			steps = Arrays.copyOf(steps, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+		}
+		starts[runCount] = start;
+		steps[runCount] = step;
+		counts[runCount] = count;
+		offsets[runCount + 1] = offsets[runCount] + count;
+		++runCount;
+	}
+
+	/**
+	 * Add pages to the end of the last run.
+	 * 
+	 * @param count the number of pages
+	 */
+	private void extend(int count) {
+		counts[runCount - 1] += count;
+		offsets[runCount] += count;
+	}
+
+	/**
+	 * Returns a selected page.
+	 * 
+	 * @param index the position of the page in the selection, starting at 0
+	 * @return the page number, starting at 1
+	 * @throws IndexOutOfBoundsException if there is no such page
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		int low = 0;
+		int high = runCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return starts[low] + steps[low] * (index - offsets[low]);
+	}
+
+	/**
+	 * Returns the number of pages selected.
+	 * 
+	 * @return the number of pages
+	 */
+	public int size() {
+		return offsets[runCount];
+	}
+
+	/**
+	 * Returns the number of runs the pages are stored as.
+	 * 
+	 * @return the number of runs
+	 */
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * Returns the first page number of a run.
+	 * 
+	 * @param run the index of the run
+	 * @return the page number, starting at 1
+	 */
+	public int getRunStart(int run) {
+		return starts[run];
+	}
+
+	/**
+	 * Returns the difference between the page numbers of a run.
+	 * 
+	 * @param run the index of the run
+	 * @return the step, which is 1 for pages in order
+	 */
+	public int getRunStep(int run) {
+		return steps[run];
+	}
+
+	/**
+	 * Returns the number of pages in a run.
+	 * 
+	 * @param run the index of the run
+	 * @return the number of pages
+	 */
+	public int getRunSize(int run) {
+		return counts[run];
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Finds the pages of a {@link PageSelection} in a PDF by walking its page tree once for each run
+ * of pages, instead of looking every page up from the root with {@link PDDocument#getPage(int)},
+ * which for a flat page tree takes time in proportion to the number of pages. Subtrees outside
+ * a run are skipped using their page counts, so a whole PDF or a long run of pages costs about
+ * one visit per page, and a short run only the path down to it.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PageTreeWalker {
+
+	// Deepest page tree walked, in case of one with a loop
+	private static final int MAX_DEPTH = 256;
+
+	/**
+	 * Find the pages of a selection.
+	 * 
+	 * @param doc the PDF
+	 * @param pages the pages, numbered from 1
+	 * @return the pages, in the order of the selection
+	 */
+	public static COSDictionary[] collect(PDDocument doc, PageSelection pages) {
+		COSDictionary root = doc.getPages().getCOSObject();
+		COSDictionary[] result = new COSDictionary[pages.size()];
+		int index = 0;
+		for (int run = 0; run < pages.getRunCount(); ++run) {
+			int start = pages.getRunStart(run) - 1;
+			int step = pages.getRunStep(run);
+			int count = pages.getRunSize(run);
+			if (count == 1) {
+				result[index++] = doc.getPage(start).getCOSObject();
+				continue;
+			}
+			
+			int first = Math.min(start, start + step * (count - 1));
+			COSDictionary[] span = new COSDictionary[Math.abs(step) * (count - 1) + 1];
+			walk(root, 0, first, span, 0);
+			for (int i = 0; i < count; ++i) {
+				int page = start + step * i;
+				COSDictionary dict = span[page - first];
+				// A page tree with wrong counts is left to PDFBox to make sense of
+				result[index++] = dict != null ? dict : doc.getPage(page).getCOSObject();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Collect the pages of a node of the page tree that fall in a span.
+	 * 
+	 * @param node the node
+	 * @param nodeStart the index of the node's first page
+	 * @param first the index of the first page of the span
+	 * @param span where the pages are stored, by their index from the first
+	 * @param depth how deep the node is in the page tree
+	 */
+	private static void walk(COSDictionary node, int nodeStart, int first, COSDictionary[] span, int depth) {
+		COSBase kids = node.getDictionaryObject(COSName.KIDS);
+		if (!(kids instanceof COSArray) || depth > MAX_DEPTH) {
+			return;
+		}
+		
+		int last = first + span.length - 1;
+		int index = nodeStart;
+		COSArray array = (COSArray) kids;
+		for (int i = 0; i < array.size() && index <= last; ++i) {
+			COSBase kid = array.getObject(i);
+			if (!(kid instanceof COSDictionary)) {
+				continue;
+			}
+			COSDictionary dict = (COSDictionary) kid;
+			if (dict.containsKey(COSName.KIDS)) {
+				int count = dict.getInt(COSName.COUNT, 0);
+				if (index + count > first) {
+					walk(dict, index, first, span, depth + 1);
+				}
+				index += count;
+			} else {
+				if (index >= first) {
+					span[index - first] = dict;
+				}
+				++index;
+			}
+		}
+	}
+
+}
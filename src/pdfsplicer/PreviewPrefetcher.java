@@ -0,0 +1,113 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.pdfbox.rendering.ImageType;
+
+/**
+ * Renders the pages a preview is likely to show next into a {@link RenderCache}, on a single
+ * low priority background thread. Each call to {@code prefetch} replaces the previous pages for
+ * the same preview, so renders queued for a position the user has already moved away from are
+ * cancelled before they start.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PreviewPrefetcher {
+
+	private RenderCache renderCache;
+	private ExecutorService executor;
+	private Map<UIConstants, List<Future<?>>> pending;
+
+	/**
+	 * Create a new prefetcher.
+	 * 
+	 * @param renderCache the cache rendered pages are added to
+	 */
+	public PreviewPrefetcher(RenderCache renderCache) {
+		this.renderCache = renderCache;
+		pending = new EnumMap<UIConstants, List<Future<?>>>(UIConstants.class);
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PDF-Splicer prefetch");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Render pages ahead of time for a preview, cancelling any of its earlier pages not yet started.
+	 * 
+	 * @param preview the preview the pages are for, as a {@link UIConstants}
+	 * @param targets the pages, most likely first
+	 * @param scales the scale to render each page at, where 1 is 72 DPI
+	 * @param imageType the type of image to render
+	 */
+	public synchronized void prefetch(UIConstants preview, List<PageLocation> targets, float[] scales, final ImageType imageType) {
+		cancel(preview);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < targets.size(); ++i) {
+			final PageLocation target = targets.get(i);
+			final float scale = scales[i];
+			final RenderCache.Key key = new RenderCache.Key(target.getPDF(), target.getPageIndex(), scale, imageType);
+			if (renderCache.contains(key)) {
+				continue;
+			}
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					try {
+						if (!renderCache.contains(key)) {
+							renderCache.render(target.getPDF(), target.getPageIndex(), scale, imageType);
+						}
+					} catch (IOException e) {
+						// The page is rendered again, and the error reported, if it is actually shown
+					}
+				}
+			}));
+		}
+		pending.put(preview, futures);
+	}
+
+	/**
+	 * Cancel any pages for a preview that have not started rendering yet.
+	 * 
+	 * @param preview the preview the pages are for, as a {@link UIConstants}
+	 */
+	public synchronized void cancel(UIConstants preview) {
+		List<Future<?>> futures = pending.remove(preview);
+		if (futures != null) {
+			for (Future<?> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+}
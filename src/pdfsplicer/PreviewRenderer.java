@@ -0,0 +1,305 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.rendering.ImageType;
+
+/**
+ * Renders the pages shown in the previews on a background thread, so the event thread never
+ * waits on PDFBox. Only the most recent request for each preview is kept: a new request cancels
+ * the previous one if it has not started yet, and if it has, its image is cached but never
+ * handed back.
+ * <p>
+ * Pages expected to take longer than the pane's latency budget are first rendered as a draft at
+ * a quarter of the scale, which is handed back straight away, followed by the full render. While
+ * requests for a pane arrive faster than its full renders finish, the full render is held back
+ * by the budget, so the next request can cancel it before any time is spent on it.
+ * 
+ * @author Abeer Ahmed
+ */
+public class PreviewRenderer {
+
+	/**
+	 * Receives the result of a render on the event thread.
+	 */
+	public interface Callback {
+
+		/**
+		 * Called when a draft of the page has been rendered and is still the latest request for
+		 * its preview. The full render follows, unless a newer request replaces this one.
+		 * 
+		 * @param draft the page, rendered at the scale divided by {@link PreviewRenderer#DRAFT_DIVISOR}
+		 */
+		void drafted(BufferedImage draft);
+
+		/**
+		 * Called when the page has been rendered and is still the latest request for its preview.
+		 * 
+		 * @param image the rendered page
+		 */
+		void rendered(BufferedImage image);
+
+		/**
+		 * Called when the page could not be rendered and is still the latest request for its preview.
+		 * 
+		 * @param e the error
+		 */
+		void failed(IOException e);
+
+	}
+
+	public static final int DRAFT_DIVISOR = 4;
+	public static final long DEFAULT_LATENCY_BUDGET = 200;
+
+	private RenderCache renderCache;
+	private ScheduledExecutorService executor;
+	private Map<UIConstants, Object> latest;
+	private Map<UIConstants, Future<?>> pending;
+
+	// Per pane timings, in nanoseconds
+	private long latencyBudget;
+	private Map<UIConstants, Long> lastRequest;
+	private Map<UIConstants, Long> fullRenderTime;
+
+	/**
+	 * Create a new renderer.
+	 * 
+	 * @param renderCache the cache pages are rendered through
+	 */
+	public PreviewRenderer(RenderCache renderCache) {
+		this.renderCache = renderCache;
+		latest = new EnumMap<UIConstants, Object>(UIConstants.class);
+		pending = new EnumMap<UIConstants, Future<?>>(UIConstants.class);
+		latencyBudget = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LATENCY_BUDGET);
+		lastRequest = new EnumMap<UIConstants, Long>(UIConstants.class);
+		fullRenderTime = new EnumMap<UIConstants, Long>(UIConstants.class);
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PDF-Splicer render");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Render a page for a preview, replacing any earlier request for the same preview.
+	 * 
+	 * @param preview the preview the page is for, as a {@link UIConstants}
+	 * @param page the page
+	 * @param scale the scale to render at, where 1 is 72 DPI
+	 * @param imageType the type of image to render
+	 * @param callback told about the result on the event thread, unless a newer request replaces this one
+	 */
+	public synchronized void render(final UIConstants preview, final PageLocation page, final float scale,
+			final ImageType imageType, final Callback callback) {
+		cancel(preview);
+
+		final Object request = new Object();
+		latest.put(preview, request);
+
+		long now = System.nanoTime();
+		Long estimate = fullRenderTime.get(preview);
+		Long previous = lastRequest.put(preview, now);
+		final boolean draft = (estimate == null || estimate > latencyBudget)
+				&& !renderCache.contains(new RenderCache.Key(page.getPDF(), page.getPageIndex(), scale, imageType));
+		final boolean rapid = estimate != null && previous != null && now - previous < estimate;
+
+		pending.put(preview, executor.submit(new Runnable() {
+			public void run() {
+				if (!isLatest(preview, request)) {
+					return;
+				}
+				if (draft) {
+					try {
+						BufferedImage image = renderCache.render(page.getPDF(), page.getPageIndex(), scale / DRAFT_DIVISOR, imageType);
+						publishDraft(preview, request, image, callback);
+					} catch (IOException e) {
+						publish(preview, request, null, e, callback);
+						return;
+					}
+					if (rapid) {
+						scheduleFull(preview, request, page, scale, imageType, callback);
+						return;
+					}
+				}
+				renderFull(preview, request, page, scale, imageType, callback);
+			}
+		}));
+	}
+
+	/**
+	 * Hold back the full render of a draft by the latency budget, unless a newer request replaces it first.
+	 * 
+	 * @param preview the preview
+	 * @param request the request
+	 * @param page the page
+	 * @param scale the scale to render at
+	 * @param imageType the type of image to render
+	 * @param callback the callback
+	 */
+	private synchronized void scheduleFull(final UIConstants preview, final Object request, final PageLocation page,
+			final float scale, final ImageType imageType, final Callback callback) {
+		if (latest.get(preview) != request) {
+			return;
+		}
+		pending.put(preview, executor.schedule(new Runnable() {
+			public void run() {
+				renderFull(preview, request, page, scale, imageType, callback);
+			}
+		}, latencyBudget, TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * Render a page at full scale and hand it back, timing the render for the pane's estimate.
+	 * 
+	 * @param preview the preview
+	 * @param request the request
+	 * @param page the page
+	 * @param scale the scale to render at
+	 * @param imageType the type of image to render
+	 * @param callback the callback
+	 */
+	private void renderFull(UIConstants preview, Object request, PageLocation page, float scale,
+			ImageType imageType, Callback callback) {
+		if (!isLatest(preview, request)) {
+			return;
+		}
+		BufferedImage image = null;
+		IOException error = null;
+		boolean cached = renderCache.contains(new RenderCache.Key(page.getPDF(), page.getPageIndex(), scale, imageType));
+		long start = System.nanoTime();
+		try {
+			image = renderCache.render(page.getPDF(), page.getPageIndex(), scale, imageType);
+			if (!cached) {
+				recordFullRender(preview, System.nanoTime() - start);
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+		publish(preview, request, image, error, callback);
+	}
+
+	/**
+	 * Add a full render's time to the pane's estimate, weighting recent renders most.
+	 * 
+	 * @param preview the preview
+	 * @param time the time taken, in nanoseconds
+	 */
+	private synchronized void recordFullRender(UIConstants preview, long time) {
+		Long estimate = fullRenderTime.get(preview);
+		fullRenderTime.put(preview, estimate == null ? time : (3 * estimate + time) / 4);
+	}
+
+	/**
+	 * Drop the latest request for a preview, so nothing more is handed back for it.
+	 * 
+	 * @param preview the preview, as a {@link UIConstants}
+	 */
+	public synchronized void cancel(UIConstants preview) {
+		latest.remove(preview);
+		Future<?> future = pending.remove(preview);
+		if (future != null) {
+			// Not interrupted, since that closes the channels of memory mapped PDFs
+			future.cancel(false);
+		}
+	}
+
+	/**
+	 * Returns whether a request is still the latest one for its preview.
+	 * 
+	 * @param preview the preview
+	 * @param request the request
+	 * @return {@code true} if no newer request has been made
+	 */
+	private synchronized boolean isLatest(UIConstants preview, Object request) {
+		return latest.get(preview) == request;
+	}
+
+	/**
+	 * Hand a draft to its callback on the event thread, if its request is still the latest.
+	 * 
+	 * @param preview the preview
+	 * @param request the request
+	 * @param draft the draft
+	 * @param callback the callback
+	 */
+	private void publishDraft(final UIConstants preview, final Object request, final BufferedImage draft,
+			final Callback callback) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (isLatest(preview, request)) {
+					callback.drafted(draft);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Hand a result to its callback on the event thread, if its request is still the latest.
+	 * 
+	 * @param preview the preview
+	 * @param request the request
+	 * @param image the rendered page, or {@code null} if it failed
+	 * @param error the error, or {@code null} if it succeeded
+	 * @param callback the callback
+	 */
+	private void publish(final UIConstants preview, final Object request, final BufferedImage image,
+			final IOException error, final Callback callback) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (!isLatest(preview, request)) {
+					return;
+				}
+				synchronized (PreviewRenderer.this) {
+					latest.remove(preview);
+					pending.remove(preview);
+				}
+				if (error != null) {
+					callback.failed(error);
+				} else {
+					callback.rendered(image);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Set how long a full render may take before a draft is shown first, and how long the full
+	 * render of a draft is held back while requests arrive faster than it.
+	 * 
+	 * @param latencyBudget the time, in milliseconds
+	 */
+	public synchronized void setLatencyBudget(long latencyBudget) {
+		this.latencyBudget = TimeUnit.MILLISECONDS.toNanos(latencyBudget);
+	}
+
+}
@@ -0,0 +1,880 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the objects of a PDF straight from its file, without parsing them into PDFBox objects,
+ * so a {@link StreamingPDFWriter} can copy them byte for byte. Only the objects actually used are
+ * read, and of those only the bounds, the entries of dictionaries, and where references are, are
+ * found, which is much faster than a full parse and needs no memory beyond the cross reference table.
+ * 
+ * <p>Only PDFs with classic cross reference tables that are not encrypted can be read this way.
+ * {@link #open(File)} returns {@code null} for any other PDF, which must then be read with PDFBox
+ * as usual. If an entry of the table does not point at its object, the whole file is searched for
+ * objects instead, and a stream whose length is wrong is ended at its {@code endstream}.
+ * 
+ * @author Abeer Ahmed
+ */
+public class RawPDFReader implements Closeable {
+
+	// Deepest page tree and most nested objects read, in case of a loop
+	private static final int MAX_DEPTH = 256;
+
+	/**
+	 * The bounds of one object in the file, and of the references and dictionary entries in it.
+	 */
+	static class RawObject {
+
+		int number;
+		long start;
+		long end;
+		boolean stream;
+		long dataStart;
+		long dataLength;
+
+		int refCount;
+		long[] refStarts = new long[4];
+		long[] refEnds = new long[4];
+		int[] refNumbers = new int[4];
+		int[] refGenerations = new int[4];
+
+		// Entries of the object if it is a dictionary, with the text of short values
+		int entryCount;
+		String[] keys = new String[4];
+		long[] keyStarts = new long[4];
+		long[] valueStarts = new long[4];
+		long[] valueEnds = new long[4];
+		String[] values = new String[4];
+
+		/**
+		 * Returns the index of a dictionary entry.
+		 * 
+		 * @param key the key, without the slash
+		 * @return the index, or -1 if there is no such entry
+		 */
+		int indexOf(String key) {
+			for (int i = 0; i < entryCount; ++i) {
+				if (keys[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the text of a short dictionary value, IE a name or number.
+		 * 
+		 * @param key the key, without the slash
+		 * @return the text, or {@code null} if there is no such entry or its value is long
+		 */
+		String get(String key) {
+			int i = indexOf(key);
+			return i < 0 ? null : values[i];
+		}
+
+		/**
+		 * Returns whether the object is a page or a node of the page tree.
+		 * 
+		 * @return {@code true} if it is part of the page tree
+		 */
+		boolean isPageTreeNode() {
+			String type = get("Type");
+			return "/Page".equals(type) || "/Pages".equals(type);
+		}
+
+		void addRef(long refStart, long refEnd, int refNumber, int refGeneration) {
+			if (refCount == refStarts.length) {
+				refStarts = Arrays.copyOf(refStarts, refCount * 2);
+				refEnds = Arrays.copyOf(refEnds, refCount * 2);
+				refNumbers = Arrays.copyOf(refNumbers, refCount * 2);
+				refGenerations = Arrays.copyOf(refGenerations, refCount * 2);
+			}
+			refStarts[refCount] = refStart;
+			refEnds[refCount] = refEnd;
+			refNumbers[refCount] = refNumber;
+			refGenerations[refCount] = refGeneration;
+			++refCount;
+		}
+
+		void addEntry(String key, long keyStart, long valueStart, long valueEnd, String value) {
+			if (entryCount == keys.length) {
+				keys = Arrays.copyOf(keys, entryCount * 2);
+				keyStarts = Arrays.copyOf(keyStarts, entryCount * 2);
+				valueStarts = Arrays.copyOf(valueStarts, entryCount * 2);
+				valueEnds = Arrays.copyOf(valueEnds, entryCount * 2);
+				values = Arrays.copyOf(values, entryCount * 2);
+			}
+			keys[entryCount] = key;
+			keyStarts[entryCount] = keyStart;
+			valueStarts[entryCount] = valueStart;
+			valueEnds[entryCount] = valueEnd;
+			values[entryCount] = value;
+			++entryCount;
+		}
+
+	}
+
+	/**
+	 * A page, and the nodes above it in the page tree it may inherit attributes from.
+	 */
+	static class RawPage {
+
+		final RawObject page;
+		final RawObject[] ancestors;
+
+		RawPage(RawObject page, RawObject[] ancestors) {
+			this.page = page;
+			this.ancestors = ancestors;
+		}
+
+		/**
+		 * Find the node an attribute the page does not have itself is inherited from.
+		 * 
+		 * @param key the attribute
+		 * @return the nearest ancestor with the attribute, or {@code null} if none has it
+		 */
+		RawObject inherited(String key) {
+			for (int i = ancestors.length - 1; i >= 0; --i) {
+				if (ancestors[i].indexOf(key) >= 0) {
+					return ancestors[i];
+				}
+			}
+			return null;
+		}
+
+	}
+
+	/**
+	 * Thrown when the file does not look like expected, so it cannot be read this way.
+	 */
+	private static class MalformedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		MalformedException(String message) {
+			super(message);
+		}
+
+	}
+
+	private MappedRandomAccessRead file;
+	private long length;
+	private byte[] buffer;
+	private long[] offsets;
+	private int[] generations;
+	private int pagesNumber;
+	private boolean repaired;
+
+	/**
+	 * Open a PDF to read its objects straight from the file.
+	 * 
+	 * @param pdfFile the PDF file
+	 * @return the reader, or {@code null} if the PDF cannot be read this way
+	 * @throws IOException if the file cannot be read at all
+	 */
+	public static RawPDFReader open(File pdfFile) throws IOException {
+		RawPDFReader reader = new RawPDFReader(new MappedRandomAccessRead(pdfFile));
+		try {
+			reader.readCrossReferences();
+			return reader;
+		} catch (MalformedException e) {
+			reader.close();
+			return null;
+		} catch (IOException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Create a new reader.
+	 * 
+	 * @param file the PDF file, closed along with the reader
+	 * @throws IOException if the file cannot be read
+	 */
+	private RawPDFReader(MappedRandomAccessRead file) throws IOException {
+		this.file = file;
+		length = file.length();
+		buffer = new byte[1 << 16];
+		offsets = new long[0];
+		generations = new int[0];
+	}
+
+	/**
+	 * Read every cross reference table, newest first, and check each object is where it should be.
+	 * 
+	 * @throws IOException if the PDF cannot be read this way
+	 */
+	private void readCrossReferences() throws IOException {
+		long tail = Math.max(0, length - 1024);
+		long startxref = -1;
+		for (long pos = length - 9; pos >= tail; --pos) {
+			if (matches(pos, "startxref")) {
+				startxref = pos + 9;
+				break;
+			}
+		}
+		if (startxref < 0) {
+			throw new MalformedException("No startxref");
+		}
+		long xref = parseLong(regularToken(skipSpace(startxref)));
+		
+		byte[] state = new byte[0];
+		Set<Long> seen = new HashSet<Long>();
+		int rootNumber = -1;
+		while (xref >= 0) {
+			if (!seen.add(xref)) {
+				throw new MalformedException("Loop in cross reference tables");
+			}
+			long pos = skipSpace(xref);
+			if (!"xref".equals(regularToken(pos))) {
+				// A cross reference stream, which needs a full parser
+				throw new MalformedException("No cross reference table");
+			}
+			pos = skipSpace(pos + 4);
+			while (true) {
+				String token = regularToken(pos);
+				if (token.equals("trailer")) {
+					pos += token.length();
+					break;
+				}
+				int first = (int) parseLong(token);
+				pos = skipSpace(pos + token.length());
+				String countToken = regularToken(pos);
+				int count = (int) parseLong(countToken);
+				pos = skipSpace(pos + countToken.length());
+				if (first < 0 || count < 0 || (long) first + count > 10000000) {
+					throw new MalformedException("Invalid cross reference section");
+				}
+				if (first + count > state.length) {
+					int size = Math.max(first + count, state.length * 2);
+					state = Arrays.copyOf(state, size);
+					offsets = Arrays.copyOf(offsets, size);
+					generations = Arrays.copyOf(generations, size);
+				}
+				for (int i = 0; i < count; ++i) {
+					long offsetEnd = tokenEnd(pos);
+					long offset = integerAt(pos, offsetEnd);
+					long generationPos = skipSpace(offsetEnd);
+					long generationEnd = tokenEnd(generationPos);
+					long generation = integerAt(generationPos, generationEnd);
+					long typePos = skipSpace(generationEnd);
+					int type = byteAt(typePos);
+					pos = skipSpace(tokenEnd(typePos));
+					if (offset < 0 || generation < 0 || (type != 'n' && type != 'f')) {
+						throw new MalformedException("Invalid cross reference entry");
+					}
+					int number = first + i;
+					// Older tables only fill in what newer ones do not have
+					if (state[number] == 0) {
+						boolean used = type == 'n';
+						state[number] = (byte) (used ? 1 : 2);
+						offsets[number] = used ? offset : 0;
+						generations[number] = (int) generation;
+					}
+				}
+			}
+			
+			RawObject trailer = new RawObject();
+			parseValue(trailer, skipSpace(pos), 0);
+			if (trailer.indexOf("Encrypt") >= 0 || trailer.indexOf("XRefStm") >= 0) {
+				throw new MalformedException("Encrypted or hybrid PDF");
+			}
+			if (rootNumber < 0) {
+				int root = trailer.indexOf("Root");
+				rootNumber = refIn(trailer, root);
+			}
+			String prev = trailer.get("Prev");
+			xref = prev == null ? -1 : parseLong(prev);
+		}
+		
+		// Both are checked against the cross reference tables, since the trailer or catalog can refer past them
+		if (rootNumber <= 0 || rootNumber >= offsets.length) {
+			throw new MalformedException("No catalog");
+		}
+		RawObject catalog = read(rootNumber, generations[rootNumber]);
+		pagesNumber = catalog == null ? -1 : refIn(catalog, catalog.indexOf("Pages"));
+		if (pagesNumber <= 0 || pagesNumber >= offsets.length) {
+			throw new MalformedException("No page tree");
+		}
+	}
+
+	/**
+	 * Returns the object number a dictionary entry refers to.
+	 * 
+	 * @param dict the dictionary
+	 * @param entry the index of the entry
+	 * @return the object number, or -1 if the entry is not a reference
+	 * @throws MalformedException if there is no such entry
+	 */
+	private static int refIn(RawObject dict, int entry) throws MalformedException {
+		if (entry >= 0) {
+			for (int i = 0; i < dict.refCount; ++i) {
+				if (dict.refStarts[i] == dict.valueStarts[entry]) {
+					return dict.refNumbers[i];
+				}
+			}
+		}
+		throw new MalformedException("Missing reference");
+	}
+
+	/**
+	 * Read an object.
+	 * 
+	 * @param number the object number
+	 * @param generation the generation it is referred to by
+	 * @return the object, or {@code null} if there is no such object, which means {@code null}
+	 * @throws IOException if the file cannot be read
+	 */
+	RawObject read(int number, int generation) throws IOException {
+		if (number <= 0 || number >= offsets.length || offsets[number] == 0 || generations[number] != generation) {
+			return null;
+		}
+		
+		long pos = objectStart(number);
+		if (pos < 0 && !repaired) {
+			repair();
+			pos = objectStart(number);
+		}
+		if (pos < 0) {
+			return null;
+		}
+		RawObject object = new RawObject();
+		object.number = number;
+		object.start = pos;
+		object.end = parseValue(object, pos, 0);
+		
+		pos = skipSpace(object.end);
+		if (matches(pos, "stream")) {
+			object.stream = true;
+			pos += 6;
+			if (byteAt(pos) == '\r') {
+				++pos;
+			}
+			if (byteAt(pos) == '\n') {
+				++pos;
+			}
+			object.dataStart = pos;
+			object.dataLength = streamLength(object);
+		}
+		return object;
+	}
+
+	/**
+	 * Find where an object's value starts, checking its cross reference entry points at the object.
+	 * 
+	 * @param number the object number
+	 * @return the position, or -1 if the entry points somewhere else
+	 * @throws IOException if the file cannot be read
+	 */
+	private long objectStart(int number) throws IOException {
+		long numberEnd = tokenEnd(offsets[number]);
+		long generationPos = skipSpace(numberEnd);
+		long generationEnd = tokenEnd(generationPos);
+		long keywordPos = skipSpace(generationEnd);
+		if (integerAt(offsets[number], numberEnd) != number || integerAt(generationPos, generationEnd) != generations[number]
+				|| !isKeyword(keywordPos, "obj")) {
+			return -1;
+		}
+		return skipSpace(keywordPos + 3);
+	}
+
+	/**
+	 * Find every object by looking through the whole file for where objects start, since the cross
+	 * reference table does not point at them. Later objects with the same number replace earlier
+	 * ones, as an incremental update would.
+	 * 
+	 * @throws IOException if the file cannot be read
+	 */
+	private void repair() throws IOException {
+		repaired = true;
+		for (long pos = 0; pos + 3 <= length; ++pos) {
+			if (byteAt(pos) != 'o' || !isKeyword(pos, "obj") || pos == 0 || !isSpace(byteAt(pos - 1))) {
+				continue;
+			}
+			long generationEnd = pos;
+			while (generationEnd > 0 && isSpace(byteAt(generationEnd - 1))) {
+				--generationEnd;
+			}
+			long generationPos = digitsStart(generationEnd);
+			long numberEnd = generationPos;
+			while (numberEnd > 0 && isSpace(byteAt(numberEnd - 1))) {
+				--numberEnd;
+			}
+			long numberPos = digitsStart(numberEnd);
+			long number = integerAt(numberPos, numberEnd);
+			long generation = integerAt(generationPos, generationEnd);
+			if (numberEnd == generationPos || number <= 0 || generation < 0 || number > 10000000
+					|| (numberPos > 0 && !isSpace(byteAt(numberPos - 1)) && !isDelimiter(byteAt(numberPos - 1)))) {
+				continue;
+			}
+			if (number >= offsets.length) {
+				offsets = Arrays.copyOf(offsets, (int) number + 1);
+				generations = Arrays.copyOf(generations, (int) number + 1);
+			}
+			offsets[(int) number] = numberPos;
+			generations[(int) number] = (int) generation;
+		}
+	}
+
+	/**
+	 * Returns where a run of digits ending at a position starts.
+	 * 
+	 * @param end the position after the digits
+	 * @return where the digits start, which is the same if there are none
+	 * @throws IOException if the file cannot be read
+	 */
+	private long digitsStart(long end) throws IOException {
+		long pos = end;
+		while (pos > 0 && end - pos < 18 && byteAt(pos - 1) >= '0' && byteAt(pos - 1) <= '9') {
+			--pos;
+		}
+		return pos;
+	}
+
+	/**
+	 * Work out the length of a stream's data, checking its length entry against where the stream ends.
+	 * 
+	 * @param object the stream
+	 * @return the length, in bytes
+	 * @throws IOException if the file cannot be read
+	 */
+	private long streamLength(RawObject object) throws IOException {
+		int entry = object.indexOf("Length");
+		long declared = -1;
+		if (entry >= 0) {
+			String value = object.values[entry];
+			if (value != null && isInteger(value)) {
+				declared = parseLong(value);
+			} else {
+				for (int i = 0; i < object.refCount; ++i) {
+					if (object.refStarts[i] == object.valueStarts[entry]) {
+						RawObject length = read(object.refNumbers[i], object.refGenerations[i]);
+						if (length != null && length.end - length.start < 20) {
+							String text = new String(readBytes(length.start, (int) (length.end - length.start)), StandardCharsets.US_ASCII);
+							if (isInteger(text)) {
+								declared = parseLong(text);
+							}
+						}
+						break;
+					}
+				}
+			}
+		}
+		if (declared >= 0 && object.dataStart + declared <= length && matches(skipSpace(object.dataStart + declared), "endstream")) {
+			return declared;
+		}
+		
+		// A wrong length, so look for the end of the stream instead
+		for (long pos = object.dataStart; pos + 9 <= length; ++pos) {
+			if (byteAt(pos) == 'e' && matches(pos, "endstream")) {
+				long end = pos;
+				if (end > object.dataStart && byteAt(end - 1) == '\n') {
+					--end;
+				}
+				if (end > object.dataStart && byteAt(end - 1) == '\r') {
+					--end;
+				}
+				return end - object.dataStart;
+			}
+		}
+		throw new MalformedException("Unterminated stream in object " + object.number);
+	}
+
+	/**
+	 * Find the pages of a selection by walking the page tree, skipping subtrees outside each run.
+	 * 
+	 * @param pages the pages, numbered from 1
+	 * @return the pages, in the order of the selection, or {@code null} if the page tree does not match its counts
+	 * @throws IOException if the file cannot be read
+	 */
+	RawPage[] collect(PageSelection pages) throws IOException {
+		RawObject root = read(pagesNumber, generations[pagesNumber]);
+		if (root == null) {
+			return null;
+		}
+		
+		RawPage[] result = new RawPage[pages.size()];
+		int index = 0;
+		for (int run = 0; run < pages.getRunCount(); ++run) {
+			int start = pages.getRunStart(run) - 1;
+			int step = pages.getRunStep(run);
+			int count = pages.getRunSize(run);
+			int first = Math.min(start, start + step * (count - 1));
+			RawPage[] span = new RawPage[Math.abs(step) * (count - 1) + 1];
+			walk(root, 0, first, span, new ArrayList<RawObject>());
+			for (int i = 0; i < count; ++i) {
+				RawPage page = span[start + step * i - first];
+				if (page == null) {
+					return null;
+				}
+				result[index++] = page;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Collect the pages of a node of the page tree that fall in a span.
+	 * 
+	 * @param node the node
+	 * @param nodeStart the index of the node's first page
+	 * @param first the index of the first page of the span
+	 * @param span where the pages are stored, by their index from the first
+	 * @param ancestors the nodes above this one
+	 * @throws IOException if the file cannot be read
+	 */
+	private void walk(RawObject node, int nodeStart, int first, RawPage[] span, List<RawObject> ancestors) throws IOException {
+		int kids = node.indexOf("Kids");
+		if (kids < 0 || ancestors.size() > MAX_DEPTH) {
+			return;
+		}
+		
+		ancestors.add(node);
+		int last = first + span.length - 1;
+		int index = nodeStart;
+		for (int i = 0; i < node.refCount && index <= last; ++i) {
+			if (node.refStarts[i] < node.valueStarts[kids] || node.refEnds[i] > node.valueEnds[kids]) {
+				continue;
+			}
+			RawObject kid = read(node.refNumbers[i], node.refGenerations[i]);
+			if (kid == null) {
+				continue;
+			}
+			if (kid.indexOf("Kids") >= 0) {
+				String countText = kid.get("Count");
+				int count = countText != null && isInteger(countText) ? (int) parseLong(countText) : 0;
+				if (index + count > first) {
+					walk(kid, index, first, span, ancestors);
+				}
+				index += count;
+			} else {
+				if (index >= first) {
+					span[index - first] = new RawPage(kid, ancestors.toArray(new RawObject[ancestors.size()]));
+				}
+				++index;
+			}
+		}
+		ancestors.remove(ancestors.size() - 1);
+	}
+
+	/**
+	 * Parse one value, recording the references in it, and the entries if it is a dictionary at the top.
+	 * 
+	 * @param object where the references and entries are recorded
+	 * @param pos where the value starts
+	 * @param depth how deeply nested the value is
+	 * @return where the value ends
+	 * @throws IOException if the file cannot be read
+	 */
+	private long parseValue(RawObject object, long pos, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new MalformedException("Objects nested too deeply");
+		}
+		if (pos >= length) {
+			throw new MalformedException("Unexpected end of file");
+		}
+		
+		int c = byteAt(pos);
+		if (c == '<' && byteAt(pos + 1) == '<') {
+			pos = skipSpace(pos + 2);
+			while (!(byteAt(pos) == '>' && byteAt(pos + 1) == '>')) {
+				if (byteAt(pos) != '/') {
+					throw new MalformedException("Dictionary key expected");
+				}
+				long keyStart = pos;
+				long keyEnd = nameEnd(pos);
+				long valueStart = skipSpace(keyEnd);
+				long valueEnd = parseValue(object, valueStart, depth + 1);
+				if (depth == 0) {
+					String key = new String(readBytes(keyStart + 1, (int) (keyEnd - keyStart - 1)), StandardCharsets.US_ASCII);
+					String value = valueEnd - valueStart <= 32
+							? new String(readBytes(valueStart, (int) (valueEnd - valueStart)), StandardCharsets.US_ASCII) : null;
+					object.addEntry(key, keyStart, valueStart, valueEnd, value);
+				}
+				pos = skipSpace(valueEnd);
+			}
+			return pos + 2;
+		}
+		if (c == '<') {
+			while (byteAt(pos) != '>') {
+				++pos;
+				if (pos >= length) {
+					throw new MalformedException("Unterminated string");
+				}
+			}
+			return pos + 1;
+		}
+		if (c == '[') {
+			pos = skipSpace(pos + 1);
+			while (byteAt(pos) != ']') {
+				pos = skipSpace(parseValue(object, pos, depth + 1));
+			}
+			return pos + 1;
+		}
+		if (c == '(') {
+			int nesting = 0;
+			while (true) {
+				int b = byteAt(pos++);
+				if (b == '\\') {
+					++pos;
+				} else if (b == '(') {
+					++nesting;
+				} else if (b == ')' && --nesting == 0) {
+					return pos;
+				} else if (b < 0) {
+					throw new MalformedException("Unterminated string");
+				}
+			}
+		}
+		if (c == '/') {
+			return nameEnd(pos);
+		}
+		if (isDelimiter(c)) {
+			throw new MalformedException("Unexpected delimiter");
+		}
+		
+		long end = tokenEnd(pos);
+		long number = integerAt(pos, end);
+		if (number >= 0) {
+			// Two integers followed by R are a reference
+			long generationPos = skipSpace(end);
+			long generationEnd = tokenEnd(generationPos);
+			long generation = integerAt(generationPos, generationEnd);
+			if (generation >= 0) {
+				long rPos = skipSpace(generationEnd);
+				if (isKeyword(rPos, "R")) {
+					object.addRef(pos, rPos + 1, (int) number, (int) generation);
+					return rPos + 1;
+				}
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Returns where a name ends.
+	 * 
+	 * @param pos where the name's slash is
+	 * @return the position after the name
+	 * @throws IOException if the file cannot be read
+	 */
+	private long nameEnd(long pos) throws IOException {
+		++pos;
+		while (pos < length && !isSpace(byteAt(pos)) && !isDelimiter(byteAt(pos))) {
+			++pos;
+		}
+		return pos;
+	}
+
+	/**
+	 * Returns where the run of regular characters at a position ends, IE a number or keyword.
+	 * 
+	 * @param pos the position
+	 * @return the position after the run, which is the same at a delimiter or space
+	 * @throws IOException if the file cannot be read
+	 */
+	private long tokenEnd(long pos) throws IOException {
+		while (pos < length && !isSpace(byteAt(pos)) && !isDelimiter(byteAt(pos))) {
+			++pos;
+		}
+		return pos;
+	}
+
+	/**
+	 * Returns the run of regular characters at a position, IE a number or keyword.
+	 * 
+	 * @param pos the position
+	 * @return the characters, which are empty at a delimiter or space
+	 * @throws IOException if the file cannot be read
+	 */
+	private String regularToken(long pos) throws IOException {
+		long end = Math.min(tokenEnd(pos), pos + 64);
+		return new String(readBytes(pos, (int) (end - pos)), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Returns the unsigned integer between two positions.
+	 * 
+	 * @param pos where the integer starts
+	 * @param end where it ends
+	 * @return the integer, or -1 if the text there is not one
+	 * @throws IOException if the file cannot be read
+	 */
+	private long integerAt(long pos, long end) throws IOException {
+		if (pos == end || end - pos > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (; pos < end; ++pos) {
+			int b = byteAt(pos);
+			if (b < '0' || b > '9') {
+				return -1;
+			}
+			value = value * 10 + b - '0';
+		}
+		return value;
+	}
+
+	/**
+	 * Returns whether a keyword is at a position, on its own.
+	 * 
+	 * @param pos the position
+	 * @param keyword the keyword
+	 * @return {@code true} if it is there
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean isKeyword(long pos, String keyword) throws IOException {
+		return matches(pos, keyword) && tokenEnd(pos) == pos + keyword.length();
+	}
+
+	/**
+	 * Skip spaces and comments.
+	 * 
+	 * @param pos the position to start at
+	 * @return the position of the next other character
+	 * @throws IOException if the file cannot be read
+	 */
+	private long skipSpace(long pos) throws IOException {
+		while (pos < length) {
+			int b = byteAt(pos);
+			if (b == '%') {
+				while (pos < length && byteAt(pos) != '\n' && byteAt(pos) != '\r') {
+					++pos;
+				}
+			} else if (isSpace(b)) {
+				++pos;
+			} else {
+				break;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Returns whether the file has some text at a position.
+	 * 
+	 * @param pos the position
+	 * @param text the text
+	 * @return {@code true} if it matches
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean matches(long pos, String text) throws IOException {
+		if (pos < 0 || pos + text.length() > length) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); ++i) {
+			if (byteAt(pos + i) != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSpace(int b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0;
+	}
+
+	private static boolean isDelimiter(int b) {
+		return b == '(' || b == ')' || b == '<' || b == '>' || b == '[' || b == ']' || b == '{' || b == '}' || b == '/' || b == '%';
+	}
+
+	private static boolean isInteger(String token) {
+		if (token.isEmpty() || token.length() > 18) {
+			return false;
+		}
+		for (int i = 0; i < token.length(); ++i) {
+			if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseLong(String token) throws MalformedException {
+		if (!isInteger(token)) {
+			throw new MalformedException("Integer expected: " + token);
+		}
+		return Long.parseLong(token);
+	}
+
+	/**
+	 * Returns the byte at a position.
+	 * 
+	 * @param pos the position
+	 * @return the byte, or -1 outside the file
+	 * @throws IOException if the file has been closed
+	 */
+	private int byteAt(long pos) throws IOException {
+		return file.get(pos);
+	}
+
+	/**
+	 * Read bytes of the file.
+	 * 
+	 * @param pos where to start
+	 * @param count the number of bytes
+	 * @return the bytes
+	 * @throws IOException if the file cannot be read
+	 */
+	byte[] readBytes(long pos, int count) throws IOException {
+		byte[] bytes = new byte[count];
+		for (int i = 0; i < count; ++i) {
+			bytes[i] = (byte) byteAt(pos + i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Copy bytes of the file to a stream.
+	 * 
+	 * @param pos where to start
+	 * @param count the number of bytes
+	 * @param out the stream
+	 * @throws IOException if the file cannot be read or the stream written
+	 */
+	void copy(long pos, long count, OutputStream out) throws IOException {
+		file.seek(pos);
+		while (count > 0) {
+			int n = file.read(buffer, 0, (int) Math.min(buffer.length, count));
+			if (n <= 0) {
+				throw new MalformedException("Unexpected end of file");
+			}
+			out.write(buffer, 0, n);
+			count -= n;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -0,0 +1,502 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Keeps rendered pages so navigating back to a page does not render it again. Recently used
+ * images are kept as they are on the heap, up to a byte limit. Images pushed out of the heap are
+ * compressed as PNGs into direct buffers outside the heap, up to a second byte limit, and are
+ * decoded and moved back to the heap when they are used again. A {@link DiskRenderCache} can be
+ * added as a third tier, which is checked before rendering and keeps every page rendered.
+ * 
+ * <p>Each document has a generation, bumped when it is invalidated. Images rendered, decoded or
+ * compressed outside the lock are only stored if their document's generation is unchanged, so
+ * work that was already under way when a document was removed does not put it back.
+ * 
+ * @author Abeer Ahmed
+ */
+public class RenderCache {
+
+	public static final long DEFAULT_HEAP_LIMIT = 64L << 20;
+	public static final long DEFAULT_OFF_HEAP_LIMIT = 128L << 20;
+
+	/**
+	 * Identifies one rendering of one page.
+	 */
+	public static class Key {
+
+		private Object document;
+		private int pageIndex;
+		private float scale;
+		private ImageType imageType;
+
+		/**
+		 * Create a new key.
+		 * 
+		 * @param document the document the page is from, compared by identity
+		 * @param pageIndex the index of the page, starting at 0
+		 * @param scale the scale the page is rendered at, where 1 is 72 DPI
+		 * @param imageType the type of image rendered
+		 */
+		public Key(Object document, int pageIndex, float scale, ImageType imageType) {
+			this.document = document;
+			this.pageIndex = pageIndex;
+			this.scale = scale;
+			this.imageType = imageType;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return document == other.document && pageIndex == other.pageIndex
+					&& Float.compare(scale, other.scale) == 0 && imageType == other.imageType;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(document);
+			hash = 31 * hash + pageIndex;
+			hash = 31 * hash + Float.floatToIntBits(scale);
+			return 31 * hash + imageType.hashCode();
+		}
+
+	}
+
+	private long heapLimit;
+	private long offHeapLimit;
+	private long heapBytes;
+	private long offHeapBytes;
+	private LinkedHashMap<Key, BufferedImage> heapImages;
+	private LinkedHashMap<Key, ByteBuffer> offHeapImages;
+	private volatile DiskRenderCache diskCache;
+	private WeakHashMap<Object, Integer> generations;
+
+	private long hits;
+	private long offHeapHits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create a new cache with the default limits.
+	 */
+	public RenderCache() {
+		this(DEFAULT_HEAP_LIMIT, DEFAULT_OFF_HEAP_LIMIT);
+	}
+
+	/**
+	 * Create a new cache.
+	 * 
+	 * @param heapLimit the most bytes of images kept on the heap
+	 * @param offHeapLimit the most bytes of compressed images kept outside the heap
+	 */
+	public RenderCache(long heapLimit, long offHeapLimit) {
+		this.heapLimit = heapLimit;
+		this.offHeapLimit = offHeapLimit;
+		heapImages = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+		offHeapImages = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+		generations = new WeakHashMap<Object, Integer>();
+	}
+
+	/**
+	 * Render a page of a loaded PDF, or reuse it if it is already cached in memory or on disk.
+	 * 
+	 * @param pdf the handle to the loaded PDF
+	 * @param pageIndex the index of the page, starting at 0
+	 * @param scale the scale to render at, where 1 is 72 DPI
+	 * @param imageType the type of image to render
+	 * @return the image
+	 * @throws IOException if the PDF cannot be read
+	 */
+	public BufferedImage render(PDFHandle pdf, int pageIndex, float scale, ImageType imageType) throws IOException {
+		Key key = new Key(pdf, pageIndex, scale, imageType);
+		int generation = getGeneration(pdf);
+		BufferedImage image = get(key);
+		if (image != null) {
+			return image;
+		}
+		DiskRenderCache disk = diskCache;
+		if (disk != null) {
+			image = disk.get(pdf, pageIndex, scale, imageType);
+			if (image != null) {
+				put(key, image, generation);
+				return image;
+			}
+		}
+
+		PDDocument doc = pdf.acquire();
+		try {
+			// Another thread may have rendered it while we waited for the PDF, which is not another lookup
+			image = get(key, false);
+			if (image == null) {
+				image = new PDFRenderer(doc).renderImage(pageIndex, scale, imageType);
+				put(key, image, generation);
+				if (disk != null) {
+					disk.put(pdf, pageIndex, scale, imageType, image);
+				}
+			}
+		} finally {
+			pdf.release();
+		}
+		return image;
+	}
+
+	/**
+	 * Returns whether a rendered page is cached, without counting as a hit or miss.
+	 * 
+	 * @param key the rendering
+	 * @return {@code true} if the page is cached on or off the heap
+	 */
+	public synchronized boolean contains(Key key) {
+		return heapImages.containsKey(key) || offHeapImages.containsKey(key);
+	}
+
+	/**
+	 * Look up a rendered page.
+	 * 
+	 * @param key the rendering
+	 * @return the image, or {@code null} if it is not cached
+	 */
+	public BufferedImage get(Key key) {
+		return get(key, true);
+	}
+
+	/**
+	 * Look up a rendered page, moving it back to the heap if it is found compressed.
+	 * 
+	 * @param key the rendering
+	 * @param counted whether the lookup counts as a hit or miss
+	 * @return the image, or {@code null} if it is not cached
+	 */
+	private BufferedImage get(Key key, boolean counted) {
+		ByteBuffer compressed;
+		int generation;
+		synchronized (this) {
+			BufferedImage image = heapImages.get(key);
+			if (image != null) {
+				if (counted) {
+					++hits;
+				}
+				return image;
+			}
+			compressed = offHeapImages.remove(key);
+			if (compressed == null) {
+				if (counted) {
+					++misses;
+				}
+				return null;
+			}
+			if (counted) {
+				++offHeapHits;
+			}
+			offHeapBytes -= compressed.capacity();
+			generation = getGeneration(key.document);
+		}
+
+		BufferedImage image = decompress(compressed);
+		if (image != null) {
+			put(key, image, generation);
+		}
+		return image;
+	}
+
+	/**
+	 * Add a rendered page, pushing the least recently used images off the heap if over the limit.
+	 * 
+	 * @param key the rendering
+	 * @param image the image
+	 */
+	public void put(Key key, BufferedImage image) {
+		put(key, image, getGeneration(key.document));
+	}
+
+	/**
+	 * Add a rendered page, unless its document was invalidated since the generation was taken.
+	 * 
+	 * @param key the rendering
+	 * @param image the image
+	 * @param generation the generation of the page's document when the image was made
+	 */
+	private void put(Key key, BufferedImage image, int generation) {
+		List<Map.Entry<Key, BufferedImage>> evicted = new ArrayList<Map.Entry<Key, BufferedImage>>();
+		List<Integer> evictedGenerations = new ArrayList<Integer>();
+		synchronized (this) {
+			if (getGeneration(key.document) != generation) {
+				return;
+			}
+			BufferedImage old = heapImages.put(key, image);
+			if (old != null) {
+				heapBytes -= sizeOf(old);
+			}
+			heapBytes += sizeOf(image);
+
+			Iterator<Map.Entry<Key, BufferedImage>> it = heapImages.entrySet().iterator();
+			while (heapBytes > heapLimit && it.hasNext()) {
+				Map.Entry<Key, BufferedImage> eldest = it.next();
+				if (eldest.getKey().equals(key)) {
+					continue;
+				}
+				heapBytes -= sizeOf(eldest.getValue());
+				evicted.add(new AbstractMap.SimpleEntry<Key, BufferedImage>(eldest));
+				evictedGenerations.add(getGeneration(eldest.getKey().document));
+				it.remove();
+				++evictions;
+			}
+		}
+
+		// Compress outside the lock, since it takes far longer than a lookup
+		for (int i = 0; i < evicted.size(); ++i) {
+			ByteBuffer compressed = compress(evicted.get(i).getValue());
+			if (compressed != null) {
+				putOffHeap(evicted.get(i).getKey(), compressed, evictedGenerations.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Add a compressed image outside the heap, dropping the least recently used ones if over the limit.
+	 * It is dropped instead if its document was invalidated while it was being compressed.
+	 * 
+	 * @param key the rendering
+	 * @param compressed the compressed image
+	 * @param generation the generation of the page's document when the image left the heap
+	 */
+	private synchronized void putOffHeap(Key key, ByteBuffer compressed, int generation) {
+		if (compressed.capacity() > offHeapLimit || heapImages.containsKey(key)
+				|| getGeneration(key.document) != generation) {
+			return;
+		}
+		ByteBuffer old = offHeapImages.put(key, compressed);
+		if (old != null) {
+			offHeapBytes -= old.capacity();
+		}
+		offHeapBytes += compressed.capacity();
+
+		Iterator<ByteBuffer> it = offHeapImages.values().iterator();
+		while (offHeapBytes > offHeapLimit && it.hasNext()) {
+			offHeapBytes -= it.next().capacity();
+			it.remove();
+			++evictions;
+		}
+	}
+
+	/**
+	 * Returns how many times a document has been invalidated.
+	 * 
+	 * @param document the document
+	 * @return the generation, 0 if it has never been invalidated
+	 */
+	private synchronized int getGeneration(Object document) {
+		Integer generation = generations.get(document);
+		return generation == null ? 0 : generation;
+	}
+
+	/**
+	 * Drop every rendering of a document, IE when it is removed, including any still being
+	 * rendered, decoded or compressed.
+	 * 
+	 * @param document the document
+	 */
+	public synchronized void invalidate(Object document) {
+		generations.put(document, getGeneration(document) + 1);
+		Iterator<Map.Entry<Key, BufferedImage>> heapIt = heapImages.entrySet().iterator();
+		while (heapIt.hasNext()) {
+			Map.Entry<Key, BufferedImage> entry = heapIt.next();
+			if (entry.getKey().document == document) {
+				heapBytes -= sizeOf(entry.getValue());
+				heapIt.remove();
+			}
+		}
+		Iterator<Map.Entry<Key, ByteBuffer>> offHeapIt = offHeapImages.entrySet().iterator();
+		while (offHeapIt.hasNext()) {
+			Map.Entry<Key, ByteBuffer> entry = offHeapIt.next();
+			if (entry.getKey().document == document) {
+				offHeapBytes -= entry.getValue().capacity();
+				offHeapIt.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drop every rendering.
+	 */
+	public synchronized void clear() {
+		heapImages.clear();
+		offHeapImages.clear();
+		heapBytes = 0;
+		offHeapBytes = 0;
+	}
+
+	/**
+	 * Compress an image as a PNG into a direct buffer.
+	 * 
+	 * @param image the image
+	 * @return the buffer, or {@code null} if the image cannot be compressed
+	 */
+	private static ByteBuffer compress(BufferedImage image) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (!ImageIO.write(image, "png", out)) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect(out.size());
+			buffer.put(out.toByteArray());
+			buffer.flip();
+			return buffer;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decode an image compressed by {@link #compress(BufferedImage)}.
+	 * 
+	 * @param compressed the buffer
+	 * @return the image, or {@code null} if it cannot be decoded
+	 */
+	private static BufferedImage decompress(final ByteBuffer compressed) {
+		final ByteBuffer buffer = compressed.duplicate();
+		try {
+			return ImageIO.read(new InputStream() {
+				@Override
+				public int read() {
+					return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (!buffer.hasRemaining()) {
+						return -1;
+					}
+					int n = Math.min(len, buffer.remaining());
+					buffer.get(b, off, n);
+					return n;
+				}
+			});
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns roughly how many bytes an image takes on the heap.
+	 * 
+	 * @param image the image
+	 * @return the size, in bytes
+	 */
+	private static long sizeOf(BufferedImage image) {
+		DataBuffer data = image.getRaster().getDataBuffer();
+		return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+	}
+
+	/**
+	 * Set the cache rendered pages are kept in between sessions.
+	 * 
+	 * @param diskCache the cache, or {@code null} to only keep pages in memory
+	 */
+	public void setDiskCache(DiskRenderCache diskCache) {
+		this.diskCache = diskCache;
+	}
+	
+	/**
+	 * Returns the cache rendered pages are kept in between sessions.
+	 * 
+	 * @return the cache, or {@code null} if there is none
+	 */
+	public DiskRenderCache getDiskCache() {
+		return diskCache;
+	}
+
+	/**
+	 * Set the most bytes of images kept on the heap.
+	 * 
+	 * @param heapLimit the size, in bytes
+	 */
+	public synchronized void setHeapLimit(long heapLimit) {
+		this.heapLimit = heapLimit;
+	}
+
+	/**
+	 * Set the most bytes of compressed images kept outside the heap.
+	 * 
+	 * @param offHeapLimit the size, in bytes
+	 */
+	public synchronized void setOffHeapLimit(long offHeapLimit) {
+		this.offHeapLimit = offHeapLimit;
+	}
+
+	/**
+	 * Returns the number of lookups found on the heap.
+	 * 
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups found compressed outside the heap.
+	 * 
+	 * @return the number of hits
+	 */
+	public synchronized long getOffHeapHits() {
+		return offHeapHits;
+	}
+
+	/**
+	 * Returns the number of lookups not found at all.
+	 * 
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of images pushed off the heap or dropped from outside it.
+	 * 
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the PDFSplicer from the command line without creating any Swing components.
+ * The arguments are an output file followed by pairs of source PDFs and page ranges, IE
+ * {@code -o out.pdf first.pdf 1-3 second.pdf all}. The same PDF can be named more than once, but
+ * two different PDFs with the same file name cannot be spliced together. Previews are never rendered. With
+ * {@code --stream} the new PDF is written straight to the file, see {@link PDFAssembler#setStreaming(boolean)},
+ * and with {@code --compact} or {@code --compact=<level>} it is compressed, see {@link PDFAssembler#setCompact(boolean)}.
+ * Images are made smaller with {@code --dpi=<resolution>} or {@code --image-budget=<megabytes>}, see {@link ImageDownsampler}.
+ * 
+ * @author Abeer Ahmed
+ */
+public class SplicerBatch {
+
+	// Exit codes
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_USAGE = 1;
+	public static final int EXIT_UNREADABLE = 2;
+	public static final int EXIT_INVALID_PAGENUM = 3;
+	public static final int EXIT_CANNOT_SAVE = 4;
+
+	private SplicerModel model;
+	private SplicerController controller;
+	private PrintStream err;
+
+	private File outputFile;
+	private List<File> sourceFiles;
+	private List<String> pageRanges;
+
+	/**
+	 * Create a new batch run, reporting errors to standard error.
+	 */
+	public SplicerBatch() {
+		this(System.err);
+	}
+
+	/**
+	 * Create a new batch run.
+	 * 
+	 * @param err the stream errors are reported to
+	 */
+	public SplicerBatch(PrintStream err) {
+		this.err = err;
+		model = new SplicerModel();
+		model.setRenderPreviews(false);
+		controller = new SplicerController(model);
+		sourceFiles = new ArrayList<File>();
+		pageRanges = new ArrayList<String>();
+	}
+
+	/**
+	 * Parse the arguments, splice the requested pages, and save the new PDF.
+	 * 
+	 * @param args the command line arguments
+	 * @return the exit code, {@link #EXIT_OK} on success
+	 */
+	public int run(String[] args) {
+		if (!parseArgs(args)) {
+			printUsage();
+			return EXIT_USAGE;
+		}
+
+		try {
+			return splice();
+		} finally {
+			controller.removeAllPDF();
+		}
+	}
+
+	/**
+	 * Load each source PDF, add all of the page ranges in one {@link Transaction}, and save the new PDF.
+	 * 
+	 * @return the exit code, {@link #EXIT_OK} on success
+	 */
+	private int splice() {
+		// The model knows PDFs by file name, so two different files with the same name cannot both be loaded
+		Map<String, String> loadedPaths = new HashMap<String, String>();
+		Transaction transaction = new Transaction();
+		for (int i = 0; i < sourceFiles.size(); ++i) {
+			File source = sourceFiles.get(i);
+			String path = canonicalPath(source);
+			String loadedPath = loadedPaths.put(source.getName(), path);
+			if (loadedPath != null) {
+				if (!loadedPath.equals(path)) {
+					err.println("Two different source PDFs are named " + source.getName() + ": " + loadedPath + " and " + path);
+					return EXIT_USAGE;
+				}
+				transaction.addPageRange(source.getName(), pageRanges.get(i));
+				continue;
+			}
+			if (!source.getName().endsWith(".pdf")) {
+				return reportError(UIConstants.ERROR_NOTPDF, source.getPath());
+			}
+			UIConstants error = controller.loadPDF(new File[]{source});
+			if (error != UIConstants.ERROR_NOERROR) {
+				return reportError(error, source.getPath());
+			}
+			transaction.addPageRange(source.getName(), pageRanges.get(i));
+		}
+
+		UIConstants error = controller.applyTransaction(transaction);
+		if (error != UIConstants.ERROR_NOERROR) {
+			int failed = Math.max(0, transaction.getFailedOperation());
+			PageRangeException rangeError = controller.getPageRangeError();
+			return reportError(error, sourceFiles.get(failed).getPath() + " " + pageRanges.get(failed)
+					+ (rangeError == null ? "" : " (" + rangeError.getMessage() + ")"));
+		}
+
+		error = controller.createPDF(outputFile);
+		if (error != UIConstants.ERROR_NOERROR) {
+			return reportError(error, outputFile.getPath());
+		}
+
+		return EXIT_OK;
+	}
+
+	/**
+	 * Returns the canonical path of a source PDF, so the same file named two ways is recognised.
+	 * 
+	 * @param source the source PDF
+	 * @return the canonical path, or the absolute path if it cannot be worked out
+	 */
+	private static String canonicalPath(File source) {
+		try {
+			return source.getCanonicalPath();
+		} catch (IOException e) {
+			return source.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Split the arguments into the output file and the source / page range pairs.
+	 * 
+	 * @param args the command line arguments
+	 * @return {@code true} if the arguments are well formed
+	 */
+	private boolean parseArgs(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-o") || args[i].equals("--output")) {
+				if (i + 1 >= args.length || outputFile != null) {
+					return false;
+				}
+				outputFile = new File(args[++i]);
+			} else if (args[i].equals("--stream")) {
+				model.getAssembler().setStreaming(true);
+			} else if (args[i].equals("--compact")) {
+				model.getAssembler().setCompact(true);
+			} else if (args[i].startsWith("--compact=")) {
+				try {
+					model.getAssembler().setCompressionLevel(Integer.parseInt(args[i].substring("--compact=".length())));
+				} catch (IllegalArgumentException e) {
+					return false;
+				}
+				model.getAssembler().setCompact(true);
+			} else if (args[i].startsWith("--dpi=")) {
+				try {
+					model.getAssembler().setTargetResolution(Float.parseFloat(args[i].substring("--dpi=".length())));
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			} else if (args[i].startsWith("--image-budget=")) {
+				try {
+					model.getAssembler().setImageByteBudget((long) (Double.parseDouble(args[i].substring("--image-budget=".length())) * (1 << 20)));
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			} else {
+				if (i + 1 >= args.length) {
+					return false;
+				}
+				sourceFiles.add(new File(args[i]));
+				pageRanges.add(args[++i]);
+			}
+		}
+
+		return outputFile != null && !sourceFiles.isEmpty();
+	}
+
+	/**
+	 * Print an error message for a failed step.
+	 * 
+	 * @param error the error type, represented by {@link UIConstants}
+	 * @param subject the file or page range that caused the error
+	 * @return the matching exit code
+	 */
+	private int reportError(UIConstants error, String subject) {
+		switch (error) {
+		case ERROR_NOTPDF:
+			err.println("File must be in PDF format: " + subject);
+			return EXIT_UNREADABLE;
+		case ERROR_INVALID_PAGENUM:
+			err.println("Invalid page numbers: " + subject);
+			return EXIT_INVALID_PAGENUM;
+		case ERROR_CANNOT_SAVE:
+			err.println("Cannot save PDF: " + subject);
+			return EXIT_CANNOT_SAVE;
+		default:
+			err.println("File is not readable: " + subject);
+			return EXIT_UNREADABLE;
+		}
+	}
+
+	/**
+	 * Print how the batch mode is invoked.
+	 */
+	private void printUsage() {
+		err.println("Usage: PDF-Splicer [--stream] [--compact[=<level>]] [--dpi=<dpi>] [--image-budget=<MB>] -o <output.pdf> <source.pdf> <pages> [<source.pdf> <pages> ...]");
+		err.println("  <pages> is a page range such as 1,4,9 or 2-10 or all, see the README for more");
+		err.println("  --stream writes the PDF as it goes, keeping memory use bounded for very large PDFs");
+		err.println("  --compact compresses the PDF's structure as well, at level 1 (fastest) to 9 (smallest)");
+		err.println("  --dpi brings images above that resolution down to it, and --image-budget down to whatever fits");
+	}
+
+}
@@ -20,6 +20,7 @@ package pdfsplicer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * This class acts as the controller for the MVC pattern. 
@@ -30,6 +31,8 @@ import java.io.IOException;
 public class SplicerController {
 	
 	private SplicerModel model;
+	private int loadParallelism;
+	private PageRangeException pageRangeError;
 	
 	/**
 	 * Create a new controller.
@@ -38,6 +41,7 @@ public class SplicerController {
 	 */
 	public SplicerController(SplicerModel model) {
 		this.model = model;
+		loadParallelism = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
 	}
 	
 	/**
@@ -62,7 +66,7 @@ public class SplicerController {
 		
 		for (int i = 0; i < selectedFiles.length; ++i) {
 			String fileName = selectedFiles[i].getName();
-			if (fileName.substring(fileName.length() - 4).equals(".pdf")) {
+			if (fileName.endsWith(".pdf")) {
 				try {
 					model.addPDF(selectedFiles[i]);
 				} catch (IOException e) {
@@ -76,6 +80,26 @@ public class SplicerController {
 		return error;
 	}
 	
+	/**
+	 * Create a background task that adds PDFs to the model without blocking the event thread.
+	 * The caller starts it with {@link PDFLoader#execute()}, and can follow its progress or cancel it.
+	 * 
+	 * @param selectedFiles the files to load, in the order they should be added
+	 * @return the loading task, as a {@link PDFLoader}
+	 */
+	public PDFLoader loadPDFInBackground(File[] selectedFiles) {
+		return new PDFLoader(model, selectedFiles == null ? new File[0] : selectedFiles, loadParallelism);
+	}
+	
+	/**
+	 * Set the maximum number of PDFs parsed at once by background loading.
+	 * 
+	 * @param loadParallelism the number of PDFs, at least 1
+	 */
+	public void setLoadParallelism(int loadParallelism) {
+		this.loadParallelism = Math.max(1, loadParallelism);
+	}
+	
 	/**
 	 * Tell the model to remove one or more PDFs.
 	 * 
@@ -83,23 +107,16 @@ public class SplicerController {
 	 * @return a response error, as a {@link UIConstants}
 	 */
 	public UIConstants removePDF(int[] selectedIndices) {
-		UIConstants error = UIConstants.ERROR_NOERROR;
-		
 		if (selectedIndices.length == 0) {
 			return UIConstants.ERROR_NO_SELECTEDPDF;
 		}
 		
-		try {
-			boolean removeMulti = selectedIndices.length > 1;
-			for (int i = selectedIndices.length - 1; i >= 0; --i) {
-				model.removePDF(selectedIndices[i], removeMulti);
-			}
-			if (removeMulti) model.showFinalPDFPreview();
-		} catch (IOException e) {
-			error = UIConstants.ERROR_UNREADABLE;
+		Transaction transaction = new Transaction();
+		for (int i = 0; i < selectedIndices.length; ++i) {
+			transaction.removePDF(model.getPDFListModel().get(selectedIndices[i]));
 		}
 		
-		return error;
+		return applyTransaction(transaction);
 	}
 	
 	/**
@@ -108,13 +125,12 @@ public class SplicerController {
 	 * @return a response error, as a {@link UIConstants}
 	 */
 	public UIConstants removeAllPDF() {
-		try {
-			model.removeAllPDF();
-		} catch (IOException e) {
-			return UIConstants.ERROR_UNREADABLE;
+		Transaction transaction = new Transaction();
+		for (int i = 0; i < model.getPDFListModel().size(); ++i) {
+			transaction.removePDF(model.getPDFListModel().get(i));
 		}
 		
-		return UIConstants.ERROR_NOERROR;
+		return applyTransaction(transaction);
 	}
 	
 	/**
@@ -125,25 +141,53 @@ public class SplicerController {
 	 * @return a response error, as a {@link UIConstants}
 	 */
 	public UIConstants addPageRange(int selectedIndex, String pageRange) {
-		UIConstants error = UIConstants.ERROR_NOERROR;
+		pageRangeError = null;
 		
 		if (selectedIndex == -1) {
+			return UIConstants.ERROR_NO_SELECTEDPDF;
+		}
+		
+		return applyTransaction(new Transaction().addPageRange(model.getPDFListModel().get(selectedIndex), pageRange));
+	}
+	
+	/**
+	 * Tell the model to apply a set of edits together, so the view is only updated once.
+	 * 
+	 * @param transaction the edits, as a {@link Transaction}
+	 * @return a response error, as a {@link UIConstants}
+	 */
+	public UIConstants applyTransaction(Transaction transaction) {
+		UIConstants error = UIConstants.ERROR_NOERROR;
+		
+		pageRangeError = null;
+		
+		try {
+			model.apply(transaction);
+		} catch (PageRangeException e) {
+			pageRangeError = e;
+			error = UIConstants.ERROR_INVALID_PAGENUM;
+		} catch (IllegalArgumentException e) {
+			// A PDF that is not loaded
 			error = UIConstants.ERROR_NO_SELECTEDPDF;
-		} else {
-			boolean validRange = false;
-			try {
-				validRange = model.addPageRange(selectedIndex, pageRange);
-			} catch (IOException e) {
-				error = UIConstants.ERROR_UNREADABLE;
-			}
-			if (!validRange) {
-				error = UIConstants.ERROR_INVALID_PAGENUM;
-			}
+		} catch (IndexOutOfBoundsException e) {
+			// A page range that does not exist
+			error = UIConstants.ERROR_NO_SELECTEDPAGERANGE;
+		} catch (IOException e) {
+			error = UIConstants.ERROR_UNREADABLE;
 		}
 		
 		return error;
 	}
 	
+	/**
+	 * Returns what was wrong with the last page range that could not be added.
+	 * 
+	 * @return the error, as a {@link PageRangeException}, or {@code null} if the last page range was valid
+	 */
+	public PageRangeException getPageRangeError() {
+		return pageRangeError;
+	}
+	
 	/**
 	 * Tell the model to remove one or more page ranges.
 	 * 
@@ -151,23 +195,19 @@ public class SplicerController {
 	 * @return a response error, as a {@link UIConstants}
 	 */
 	public UIConstants removePageRange(int[] selectedIndices) {
-		UIConstants error = UIConstants.ERROR_NOERROR;
-		
 		if (selectedIndices.length == 0) {
 			return UIConstants.ERROR_NO_SELECTEDPAGERANGE;
 		}
 		
-		try {
-			boolean removeMulti = selectedIndices.length > 1;
-			for (int i = selectedIndices.length - 1; i >= 0; --i) {
-				model.removePageRange(selectedIndices[i], removeMulti);
-			}
-			if (removeMulti) model.showFinalPDFPreview();
-		} catch (IOException e) {
-			error = UIConstants.ERROR_UNREADABLE;
+		// Remove the last ones first, so the earlier indices still refer to the same ranges
+		int[] indices = selectedIndices.clone();
+		Arrays.sort(indices);
+		Transaction transaction = new Transaction();
+		for (int i = indices.length - 1; i >= 0; --i) {
+			transaction.removePageRange(indices[i]);
 		}
 		
-		return error;
+		return applyTransaction(transaction);
 	}
 	
 	/**
@@ -176,15 +216,12 @@ public class SplicerController {
 	 * @return a response error, as a {@link UIConstants}
 	 */
 	public UIConstants removeAllPageRange() {
-		UIConstants error = UIConstants.ERROR_NOERROR;
-		
-		try {
-			model.removeAllPageRange();
-		} catch (IOException e) {
-			error = UIConstants.ERROR_UNREADABLE;
+		Transaction transaction = new Transaction();
+		for (int i = model.getNumPageRanges() - 1; i >= 0; --i) {
+			transaction.removePageRange(i);
 		}
 		
-		return error;
+		return applyTransaction(transaction);
 	}
 	
 	/**
@@ -235,6 +272,24 @@ public class SplicerController {
 		return error;
 	}
 
+	/**
+	 * Tell the model the size of a preview's viewport, so pages are rendered to fit it.
+	 * 
+	 * @param pdfPreview which preview, determined by {@link UIConstants}
+	 * @param width the width of the viewport, in pixels
+	 * @param height the height of the viewport, in pixels
+	 * @return a response error, as a {@link UIConstants}
+	 */
+	public UIConstants resizePDFPreview(UIConstants pdfPreview, int width, int height) {
+		try {
+			model.setPreviewViewport(pdfPreview, width, height);
+		} catch (IOException e) {
+			return UIConstants.ERROR_UNREADABLE;
+		}
+		
+		return UIConstants.ERROR_NOERROR;
+	}
+
 	/**
 	 * Finalize and create the new PDF, and save it as a selected file.
 	 * 
@@ -250,4 +305,16 @@ public class SplicerController {
 		return UIConstants.ERROR_NOERROR;
 	}
 	
+	/**
+	 * Create a background task that finalizes the new PDF and saves it as a selected file, without
+	 * blocking the event thread. The caller starts it with {@link PDFCreator#execute()}, and can
+	 * follow its progress or cancel it.
+	 * 
+	 * @param selectedFile the file to save it as
+	 * @return the task, as a {@link PDFCreator}
+	 */
+	public PDFCreator createPDFInBackground(File selectedFile) {
+		return new PDFCreator(model, selectedFile);
+	}
+	
 }
@@ -19,6 +19,8 @@
 package pdfsplicer;
 
 import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * The main class for the PDFSplicer, which initialized the model,
@@ -29,19 +31,34 @@ import java.awt.EventQueue;
 public class SplicerMain {
 
 	/**
-	 * The main method.
+	 * The main method. With no arguments the GUI is started, otherwise the arguments
+	 * are handed to a {@link SplicerBatch} and the program runs without a display.
 	 * 
-	 * @param args not used
+	 * @param args the batch mode arguments, or none to start the GUI
 	 */
 	public static void main(String[] args) {
 	    System.setProperty("sun.java2d.cmm", "sun.java2d.cmm.kcms.KcmsServiceProvider");
+		if (args.length > 0) {
+			System.setProperty("java.awt.headless", "true");
+			System.exit(new SplicerBatch().run(args));
+		}
 		EventQueue.invokeLater(new Runnable() {
 			public void run() {
 				try {
 					SplicerModel model = new SplicerModel();
+					model.setRenderInBackground(true);
+					try {
+						model.getRenderCache().setDiskCache(new DiskRenderCache(
+								new File(System.getProperty("pdfsplicer.cache.dir", DiskRenderCache.defaultDirectory().getPath())),
+								DiskRenderCache.DEFAULT_SIZE_LIMIT));
+					} catch (IOException e) {
+						// Pages are still cached in memory
+						e.printStackTrace();
+					}
 					SplicerController controller = new SplicerController(model);
 					SplicerView view = new SplicerView(model, controller);
-					model.addObserver(view);
+					model.getEventBus().addListener(view, ModelEvent.Type.RANGES_CHANGED,
+							ModelEvent.Type.LOADED_PREVIEW_READY, ModelEvent.Type.FINAL_PREVIEW_READY, ModelEvent.Type.ERROR);
 					controller.setView(view);
 				} catch (Exception e) {
 					e.printStackTrace();
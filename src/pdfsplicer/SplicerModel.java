@@ -18,35 +18,43 @@
 
 package pdfsplicer;
 
+import java.awt.Dimension;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Observable;
+import java.util.Set;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
 import javax.swing.ImageIcon;
 
-import org.apache.pdfbox.cos.COSDictionary;
-import org.apache.pdfbox.io.MemoryUsageSetting;
-import org.apache.pdfbox.multipdf.PDFCloneUtility;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.ImageType;
 
 /**
  * This class acts as a model for the MVC pattern. All of the actual information about the PDFs
- * and selected page ranges are stored here, and when manipulated by a controller, notifies the view.
+ * and selected page ranges are stored here, and when manipulated by a controller, notifies the view
+ * through its {@link ModelEventBus}.
  * 
  * @author Abeer Ahmed
  */
-public class SplicerModel extends Observable {
+public class SplicerModel {
+	
+	// Preview scales are rounded down to a power of this, so small resizes reuse the same render
+	private static final double SCALE_STEP = Math.pow(2, 0.25);
+	private static final float MIN_PREVIEW_SCALE = 1 / 16f;
+	private static final float MAX_PREVIEW_SCALE = 4;
 	
 	// PDF List
-	private Map<String, PDDocument> pdfList;
+	private Map<String, PDFHandle> pdfList;
+	private PDFHandleCache pdfCache;
 	private DefaultListModel<String> pdfListModel;
 	private DefaultComboBoxModel<String> pdfComboBoxModel;
 	private int numPDFs;
@@ -54,34 +62,83 @@ public class SplicerModel extends Observable {
 	// PDF List Viewer
 	private int curLPage;
 	private int lNumPages;
-	private PDFRenderer loadedRenderer;
+	private PDFHandle loadedPDF;
 	private ImageIcon lPDFIcon;
+	private PageListModel lThumbnailModel;
 
 	// Page Range List
 	private List<String> pageEntryPDFList;
-	private List<List<Integer>> pageRangeList;
+	private List<PageSelection> pageRangeList;
+	private PageIndex pageIndex;
 	private DefaultListModel<String> pageRangeModel;
 	private int numPageRanges;
 	
 	// Final PDF Viewer
 	private int curFPage;
 	private int fNumPages;
-	private PDFRenderer finalRenderer;
 	private ImageIcon fPDFIcon;
+	private PageListModel fThumbnailModel;
+	
+	// Whether preview images are rendered at all
+	private boolean renderPreviews;
+	private RenderCache renderCache;
+	private PreviewPrefetcher prefetcher;
+	private PreviewRenderer renderer;
+	private boolean renderInBackground;
+	private Map<UIConstants, Dimension> viewports;
+	private Map<UIConstants, Float> shownScales;
+	
+	private ModelEventBus eventBus;
+	private PDFAssembler assembler;
 	
 	/**
 	 * Create a new model.
 	 */
 	public SplicerModel() {
-		pdfList = new HashMap<String, PDDocument>();
+		pdfList = new HashMap<String, PDFHandle>();
+		pdfCache = new PDFHandleCache();
 		pdfListModel = new DefaultListModel<String>();
 		pdfComboBoxModel = new DefaultComboBoxModel<String>();
 		numPDFs = 0;
 
 		pageEntryPDFList = new ArrayList<String>();
-		pageRangeList = new ArrayList<List<Integer>>();
+		pageRangeList = new ArrayList<PageSelection>();
+		pageIndex = new PageIndex();
 		pageRangeModel = new DefaultListModel<String>();
 		numPageRanges = 0;
+		
+		lThumbnailModel = new PageListModel() {
+			private static final long serialVersionUID = 1L;
+			
+			public int getSize() {
+				return loadedPDF == null ? 0 : loadedPDF.getNumPages();
+			}
+			
+			public PageLocation getElementAt(int index) {
+				return new PageLocation(loadedPDF, index);
+			}
+		};
+		fThumbnailModel = new PageListModel() {
+			private static final long serialVersionUID = 1L;
+			
+			public int getSize() {
+				return numPageRanges == 0 ? 0 : fNumPages;
+			}
+			
+			public PageLocation getElementAt(int index) {
+				return locateFinalPage(index + 1);
+			}
+		};
+		
+		renderPreviews = true;
+		renderCache = new RenderCache();
+		prefetcher = new PreviewPrefetcher(renderCache);
+		renderer = new PreviewRenderer(renderCache);
+		renderInBackground = false;
+		viewports = new EnumMap<UIConstants, Dimension>(UIConstants.class);
+		shownScales = new EnumMap<UIConstants, Float>(UIConstants.class);
+		eventBus = new ModelEventBus();
+		assembler = new PDFAssembler(pdfCache.getMemoryPolicy());
 	}
 	
 	/**
@@ -91,154 +148,233 @@ public class SplicerModel extends Observable {
 	 * @throws IOException if the file cannot be read
 	 */
 	public void addPDF(File file) throws IOException {
-		String name = file.getName();
-		if (pdfList.containsKey(name)) {
+		if (hasPDF(file.getName())) {
+			return;
+		}
+		addLoadedPDF(file.getName(), openPDF(file));
+	}
+	
+	/**
+	 * Open a PDF without adding it to the model. This does not touch any of the model's state,
+	 * so it can be called from a background thread while the PDF list is in use.
+	 * 
+	 * @param file the PDF file
+	 * @return a handle to the opened PDF, as a {@link PDFHandle}
+	 * @throws IOException if the file cannot be read
+	 */
+	public PDFHandle openPDF(File file) throws IOException {
+		return pdfCache.open(file);
+	}
+	
+	/**
+	 * Add a PDF that has already been opened with {@link #openPDF(File)}. If a PDF with
+	 * the same name is already loaded, the new one is closed instead.
+	 * 
+	 * @param name the name of the PDF
+	 * @param pdf the handle to the opened PDF
+	 * @throws IOException if the duplicate PDF cannot be closed
+	 */
+	public void addLoadedPDF(String name, PDFHandle pdf) throws IOException {
+		if (hasPDF(name)) {
+			pdf.close();
 			return;
 		}
-		pdfList.put(name, PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly()));
+		pdfList.put(name, pdf);
 		pdfListModel.addElement(name);
 		pdfComboBoxModel.addElement(name);
 		++numPDFs;
+		eventBus.fire(ModelEvent.of(ModelEvent.Type.SOURCES_CHANGED));
 	}
 	
 	/**
-	 * Remove a PDF.
+	 * Returns whether a PDF with the given name is loaded.
 	 * 
-	 * @param index the index of the PDF in the list
-	 * @param removeMulti if true, do not re-render the finalized PDF preview
-	 * @throws IOException if the file cannot be closed
+	 * @param name the name of the PDF
+	 * @return {@code true} if the PDF is loaded
 	 */
-	public void removePDF(int index, boolean removeMulti) throws IOException {
-		String name = pdfListModel.getElementAt(index);
-		for (int i = pageEntryPDFList.size() - 1; i >= 0; --i) {
-			if (pageEntryPDFList.get(i).equals(name)) {
-				removePageRange(i, true);
+	public boolean hasPDF(String name) {
+		return pdfList.containsKey(name);
+	}
+	
+	/**
+	 * Apply a transaction's edits to the PDFs and page ranges. All of the edits are checked
+	 * before any are made, so if one of them is invalid the model is left as it was, and
+	 * {@link Transaction#getFailedOperation()} tells which one it was. Otherwise the views are
+	 * notified once, and the finalized PDF preview is only rendered again if the page it shows changed.
+	 * 
+	 * @param transaction the edits to apply
+	 * @throws PageRangeException if one of the page ranges added is invalid
+	 * @throws IllegalArgumentException if an edit names a PDF that is not loaded
+	 * @throws IndexOutOfBoundsException if an edit refers to a page range that does not exist
+	 * @throws IOException if a removed PDF cannot be closed, in which case the edits are still made in
+	 * full, or the finalized PDF preview cannot be rendered
+	 */
+	public void apply(Transaction transaction) throws PageRangeException, IOException {
+		List<String> entries = new ArrayList<String>(pageEntryPDFList);
+		List<PageSelection> ranges = new ArrayList<PageSelection>(pageRangeList);
+		List<String> labels = new ArrayList<String>();
+		for (int i = 0; i < pageRangeModel.size(); ++i) {
+			labels.add(pageRangeModel.get(i));
+		}
+		Set<String> removedPDFs = new LinkedHashSet<String>();
+		
+		List<Transaction.Operation> operations = transaction.getOperations();
+		for (int i = 0; i < operations.size(); ++i) {
+			transaction.setFailedOperation(i);
+			Transaction.Operation operation = operations.get(i);
+			switch (operation.type) {
+			case ADD_PAGE_RANGE:
+				int pageLimit = findPDF(operation.pdfName, removedPDFs).getNumPages();
+				entries.add(operation.pdfName);
+				ranges.add(PageRangeCompiler.compile(operation.pages, pageLimit));
+				labels.add(rangeLabel(operation.pdfName, operation.pages, pageLimit));
+				break;
+			case REMOVE_PAGE_RANGE:
+				entries.remove(operation.index);
+				ranges.remove(operation.index);
+				labels.remove(operation.index);
+				break;
+			case MOVE_PAGE_RANGE:
+				entries.add(operation.target, entries.remove(operation.index));
+				ranges.add(operation.target, ranges.remove(operation.index));
+				labels.add(operation.target, labels.remove(operation.index));
+				break;
+			case REMOVE_PDF:
+				findPDF(operation.pdfName, removedPDFs);
+				for (int j = entries.size() - 1; j >= 0; --j) {
+					if (entries.get(j).equals(operation.pdfName)) {
+						entries.remove(j);
+						ranges.remove(j);
+						labels.remove(j);
+					}
+				}
+				removedPDFs.add(operation.pdfName);
+				break;
 			}
 		}
-		pdfList.get(name).close();
-		pdfList.remove(name);
-		pdfComboBoxModel.removeElementAt(index);
-		pdfListModel.removeElementAt(index);
-		--numPDFs;
+		transaction.setFailedOperation(-1);
+		
+		// The removed PDFs are closed before anything else changes. One that fails to close cannot be
+		// used again either, so it is still removed along with the other edits, and the error thrown after
+		IOException closeError = null;
+		for (String name : removedPDFs) {
+			try {
+				closePDF(name);
+			} catch (IOException e) {
+				if (closeError == null) {
+					closeError = e;
+				}
+			}
+		}
+		
+		// Ranges before the first one that changed, and so their pages, stay where they were
+		int firstChangedRange = 0;
+		while (firstChangedRange < ranges.size() && firstChangedRange < pageRangeList.size()
+				&& ranges.get(firstChangedRange) == pageRangeList.get(firstChangedRange)) {
+			++firstChangedRange;
+		}
+		boolean rangesChanged = firstChangedRange < pageRangeList.size() || firstChangedRange < ranges.size();
+		int firstChangedPage = Integer.MAX_VALUE;
+		if (firstChangedRange < pageRangeList.size()) {
+			firstChangedPage = pageIndex.getRangeStart(firstChangedRange) + 1;
+		}
+		
+		while (pageIndex.getRangeCount() > firstChangedRange) {
+			pageIndex.remove(pageIndex.getRangeCount() - 1);
+		}
+		if (pageRangeModel.size() > firstChangedRange) {
+			pageRangeModel.removeRange(firstChangedRange, pageRangeModel.size() - 1);
+		}
+		for (int i = firstChangedRange; i < ranges.size(); ++i) {
+			pageIndex.add(ranges.get(i).size());
+			pageRangeModel.addElement(labels.get(i));
+		}
+		pageEntryPDFList = entries;
+		pageRangeList = ranges;
+		fNumPages = pageIndex.getTotalPages();
+		numPageRanges = ranges.size();
+		
+		for (String name : removedPDFs) {
+			dropPDF(name);
+		}
+		if (!removedPDFs.isEmpty()) {
+			eventBus.fire(ModelEvent.of(ModelEvent.Type.SOURCES_CHANGED));
+		}
+		if (rangesChanged) {
+			eventBus.fire(ModelEvent.of(ModelEvent.Type.RANGES_CHANGED));
+		}
 		
-		if (!removeMulti) showFinalPDFPreview();
+		refreshFinalPDFPreview(firstChangedPage);
+		if (closeError != null) {
+			throw closeError;
+		}
 	}
 	
 	/**
-	 * Remove all PDFs.
+	 * Look up a loaded PDF named by a transaction.
 	 * 
-	 * @throws IOException if any of the files cannot be closed
+	 * @param name the name of the PDF
+	 * @param removedPDFs the PDFs already removed earlier in the transaction
+	 * @return the handle to the PDF, as a {@link PDFHandle}
+	 * @throws IllegalArgumentException if no PDF with the name is loaded
 	 */
-	public void removeAllPDF() throws IOException {
-		for (int i = numPDFs - 1; i >= 0; --i) {
-			removePDF(i, true);
+	private PDFHandle findPDF(String name, Set<String> removedPDFs) {
+		PDFHandle pdf = removedPDFs.contains(name) ? null : pdfList.get(name);
+		if (pdf == null) {
+			throw new IllegalArgumentException("No PDF named " + name + " is loaded");
 		}
-		
-		showFinalPDFPreview();
+		return pdf;
 	}
 	
 	/**
-	 * Add a range of pages from a loaded PDF to add to the new PDF.
+	 * Returns how a page range is shown in the page range list.
 	 * 
-	 * @param pdfName the PDF from which the page range came from
-	 * @param pages a string representing the range of pages to add
-	 * @return {@code true} if the page range was successfully added
-	 * @throws IOException if the finalized PDF preview cannot be rendered
+	 * @param pdfName the name of the PDF the pages come from
+	 * @param pages the page range as it was entered
+	 * @param pageLimit the number of pages in the PDF
+	 * @return the text shown for the page range
 	 */
-	public boolean addPageRange(int pdfIndex, String pages) throws IOException {
-		String pdfName = pdfListModel.get(pdfIndex);
-		List<Integer> markedPages = new ArrayList<Integer>();
-		int pageLimit = pdfList.get(pdfName).getNumberOfPages();
-		
-		if (pages.toLowerCase().equals("all")) { // Add all pages from the PDF in order
-			for (int i = 1; i <= pageLimit; ++i) {
-				markedPages.add(i);
-				++fNumPages;
-			}
-			
+	private String rangeLabel(String pdfName, String pages, int pageLimit) {
+		if (pages.trim().equalsIgnoreCase("all")) { // Show the actual pages for the whole PDF
 			if (pageLimit == 1) {
-				pageRangeModel.addElement(pdfName + ": " + 1);
-			} else {
-				pageRangeModel.addElement(pdfName + ": " + 1 + "-" + pageLimit);
-			}
-		} else {
-			String[] pagenums = pages.split(","); // Separate pages or ranges of pages by comma, IE 1,5,6
-			for (String pagenumsPart : pagenums) {
-				pagenumsPart = pagenumsPart.trim();
-				if (pagenumsPart.contains("-")) { // Dash designates a range of pages, IE 2-5 is pages 2 to 5
-					String[] pageRange = pagenumsPart.split("-");
-					if (pageRange.length != 2) {
-						return false;
-					}
-					try {
-						int begin = Integer.parseInt(pageRange[0].trim());
-						int end = Integer.parseInt(pageRange[1].trim());
-						for (int i = begin; i <= end; ++i) {
-							if (pageLimit < i || i <= 0) {
-								return false;
-							}
-							markedPages.add(i);
-							++fNumPages;
-						}
-					} catch (NumberFormatException e) {
-						System.err.println(e.getStackTrace());
-					}
-				} else { // If a single number was entered
-					try {
-						int pnum = Integer.parseInt(pagenumsPart);
-						if (pageLimit < pnum || pnum <= 0) {
-							return false;
-						}
-						markedPages.add(pnum);
-						++fNumPages;
-					} catch (NumberFormatException e) {
-						return false;
-					}
-				}
+				return pdfName + ": " + 1;
 			}
-			
-			pageRangeModel.addElement(pdfName + ": " + pages.replaceAll("\\s+", ""));
+			return pdfName + ": " + 1 + "-" + pageLimit;
 		}
-
-		pageEntryPDFList.add(pdfName);
-		pageRangeList.add(markedPages);
-		++numPageRanges;
-		
-		showFinalPDFPreview();
-		
-		setChanged();
-		notifyObservers();
-		return true;
+		return pdfName + ": " + pages.trim().replaceAll("\\s*([,:-])\\s*", "$1").replaceAll("\\s+", " ");
 	}
 	
 	/**
-	 * Remove a page range from the new PDF.
+	 * Close a PDF that is being removed, stopping any preview of it first. The PDF is closed for
+	 * good even if this fails.
 	 * 
-	 * @param index the index of the page range to be removed
-	 * @param removeMulti if true, do not re-render the finalized PDF preview
-	 * @throws IOException if the finalized PDF preview cannot be rendered
+	 * @param name the name of the PDF
+	 * @throws IOException if the file cannot be closed
 	 */
-	public void removePageRange(int index, boolean removeMulti) throws IOException {
-		fNumPages -= pageRangeList.get(index).size();
-		pageEntryPDFList.remove(index);
-		pageRangeList.remove(index);
-		pageRangeModel.remove(index);
-		--numPageRanges;
-		
-		if (!removeMulti) showFinalPDFPreview();
+	private void closePDF(String name) throws IOException {
+		PDFHandle pdf = pdfList.get(name);
+		if (pdf == loadedPDF) {
+			renderer.cancel(UIConstants.IMAGE_LOADEDPDF);
+		}
+		renderCache.invalidate(pdf);
+		pdf.close();
 	}
 	
 	/**
-	 * Remove all page ranges from the new PDF.
+	 * Take a closed PDF whose page ranges have already been removed off the PDF list.
 	 * 
-	 * @throws IOException if the finalized PDF preview cannot be rendered
+	 * @param name the name of the PDF
 	 */
-	public void removeAllPageRange() throws IOException {
-		for (int i = numPageRanges - 1; i >= 0; --i) {
-			removePageRange(i, true);
+	private void dropPDF(String name) {
+		int index = pdfListModel.indexOf(name);
+		PDFHandle pdf = pdfList.remove(name);
+		if (pdf == loadedPDF) {
+			loadedPDF = null;
+			lThumbnailModel.refresh();
 		}
-		
-		showFinalPDFPreview();
+		pdfComboBoxModel.removeElementAt(index);
+		pdfListModel.removeElementAt(index);
+		--numPDFs;
 	}
 	
 	/**
@@ -248,20 +384,27 @@ public class SplicerModel extends Observable {
 	 * @throws IOException if the selected PDF cannot be read
 	 */
 	public void showLoadedPDFPreview(String selectedValue) throws IOException {
-		lPDFIcon = null;
+		prefetcher.cancel(UIConstants.IMAGE_LOADEDPDF);
+		renderer.cancel(UIConstants.IMAGE_LOADEDPDF);
 		curLPage = -1;
 		lNumPages = -1;
 		
+		loadedPDF = null;
+		
 		if (selectedValue != null) {
-			PDDocument pdf = pdfList.get(selectedValue);
-			loadedRenderer = new PDFRenderer(pdf);
-			lPDFIcon = new ImageIcon(loadedRenderer.renderImage(0));
+			loadedPDF = pdfList.get(selectedValue);
+		}
+		lThumbnailModel.refresh();
+		
+		if (loadedPDF != null) {
 			curLPage = 1;
-			lNumPages = pdf.getNumberOfPages();
+			lNumPages = loadedPDF.getNumPages();
+			showPage(UIConstants.IMAGE_LOADEDPDF, new PageLocation(loadedPDF, 0));
+			prefetchAround(UIConstants.IMAGE_LOADEDPDF, curLPage, lNumPages);
+			return;
 		}
 		
-		setChanged();
-		notifyObservers();
+		setPreviewImage(UIConstants.IMAGE_LOADEDPDF, null);
 	}
 	
 	/**
@@ -278,15 +421,14 @@ public class SplicerModel extends Observable {
 			pageNum = lNumPages;
 		}
 		
-		lPDFIcon = null;
-		
-		if (selectedIndex != -1) {
-			lPDFIcon = new ImageIcon(loadedRenderer.renderImage(pageNum - 1));
+		if (selectedIndex != -1 && loadedPDF != null) {
 			curLPage = pageNum;
+			showPage(UIConstants.IMAGE_LOADEDPDF, new PageLocation(loadedPDF, pageNum - 1));
+			prefetchAround(UIConstants.IMAGE_LOADEDPDF, curLPage, lNumPages);
+			return;
 		}
 		
-		setChanged();
-		notifyObservers();
+		setPreviewImage(UIConstants.IMAGE_LOADEDPDF, null);
 	}
 	
 	/**
@@ -295,18 +437,39 @@ public class SplicerModel extends Observable {
 	 * @throws IOException if the loaded PDF from where the page came from cannot be read
 	 */
 	public void showFinalPDFPreview() throws IOException {
-		fPDFIcon = null;
+		prefetcher.cancel(UIConstants.IMAGE_FINALPDF);
+		renderer.cancel(UIConstants.IMAGE_FINALPDF);
 		curFPage = -1;
+		fThumbnailModel.refresh();
 		
-		if (numPageRanges > 0) {
-			PDDocument pdf = pdfList.get(pageEntryPDFList.get(0));
-			finalRenderer = new PDFRenderer(pdf);
-			fPDFIcon = new ImageIcon(finalRenderer.renderImage(0));
+		if (fNumPages > 0 && renderPreviews) {
 			curFPage = 1;
+			showPage(UIConstants.IMAGE_FINALPDF, locateFinalPage(1));
+			prefetchAround(UIConstants.IMAGE_FINALPDF, curFPage, fNumPages);
+			return;
 		}
 		
-		setChanged();
-		notifyObservers();
+		setPreviewImage(UIConstants.IMAGE_FINALPDF, null);
+	}
+	
+	/**
+	 * Bring the finalized PDF preview up to date after the page ranges changed. The page shown
+	 * is only rendered again if the edits changed it, and is otherwise left as it is, with only
+	 * the page count updated.
+	 * 
+	 * @param firstChanged the number of the first page in the finalized PDF that changed
+	 * @throws IOException if the page shown has to be rendered again and its PDF cannot be read
+	 */
+	private void refreshFinalPDFPreview(int firstChanged) throws IOException {
+		if (fNumPages == 0 || !renderPreviews || curFPage < 1) {
+			showFinalPDFPreview();
+		} else if (curFPage < firstChanged && curFPage <= fNumPages) {
+			fThumbnailModel.refresh();
+			prefetchAround(UIConstants.IMAGE_FINALPDF, curFPage, fNumPages);
+		} else {
+			fThumbnailModel.refresh();
+			changeFinalPDFPreviewPage(curFPage);
+		}
 	}
 	
 	/**
@@ -322,63 +485,286 @@ public class SplicerModel extends Observable {
 			pageNum = fNumPages;
 		}
 		
-		fPDFIcon = null;
-		
-		int cPage = 1;
-		int rangeNum = 0;
-		int nextSize = pageRangeList.get(rangeNum).size();;
-		
-		while (cPage + nextSize <= pageNum) {
-			cPage += nextSize;
-			if (rangeNum + 1 < numPageRanges) {
-				nextSize = pageRangeList.get(++rangeNum).size();
-			}
-		}
-		
-		PDDocument pdf = pdfList.get(pageEntryPDFList.get(rangeNum));
-		int pageNumPos = pageRangeList.get(rangeNum).get(pageNum - cPage);
-		finalRenderer = new PDFRenderer(pdf);
-		fPDFIcon = new ImageIcon(finalRenderer.renderImage(pageNumPos - 1));
 		curFPage = pageNum;
-		
-		setChanged();
-		notifyObservers();
+		showPage(UIConstants.IMAGE_FINALPDF, locateFinalPage(pageNum));
+		prefetchAround(UIConstants.IMAGE_FINALPDF, curFPage, fNumPages);
 	}
 	
 	/**
-	 * Create the new PDF, and save it.
+	 * Show a page in one of the previews, and fire the event for it being ready. When rendering in the
+	 * background, the event is only fired once an image is ready, which may be a draft followed later by
+	 * the full render, and if rendering fails an {@link ModelEvent.Type#ERROR} event is fired instead.
 	 * 
-	 * @param saveFile the file to save it as
-	 * @throws IOException if it cannot save the file
+	 * @param preview which preview, determined by {@link UIConstants}
+	 * @param page the page to show
+	 * @throws IOException if rendering in the foreground and the PDF cannot be read
 	 */
-	public void makeFinalizedPDF(File saveFile) throws IOException {
-
-		PDDocument doc = null;
-		PDDocument newdoc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+	private void showPage(final UIConstants preview, PageLocation page) throws IOException {
+		float scale = previewScale(preview, page);
+		shownScales.put(preview, scale);
+		if (!renderInBackground) {
+			setPreviewImage(preview, renderPage(page.getPDF(), page.getPageIndex(), scale));
+			return;
+		}
 		
-		for (int i = 0; i < pageEntryPDFList.size(); ++i) {
-			doc = pdfList.get(pageEntryPDFList.get(i));
+		renderer.render(preview, page, scale, ImageType.RGB, new PreviewRenderer.Callback() {
+			public void drafted(BufferedImage draft) {
+				// Stretched to the full size, so the preview does not jump when the full render arrives
+				int width = draft.getWidth() * PreviewRenderer.DRAFT_DIVISOR;
+				int height = draft.getHeight() * PreviewRenderer.DRAFT_DIVISOR;
+				setPreviewImage(preview, new ImageIcon(draft.getScaledInstance(width, height, Image.SCALE_FAST)));
+			}
 			
-			if (doc.isEncrypted()) {
-				System.out.println("Error: Encrypted PDF");
-				System.exit(1);
+			public void rendered(BufferedImage image) {
+				setPreviewImage(preview, new ImageIcon(image));
 			}
 			
-			List<Integer> pRange = pageRangeList.get(i);
-			PDFCloneUtility pdfCloner = new PDFCloneUtility(newdoc);
-			for (int pNum : pRange) {
-				PDPage page = doc.getPage(pNum - 1);
-				COSDictionary clonedDict = (COSDictionary) pdfCloner.cloneForNewDocument(page);
-				newdoc.addPage(new PDPage(clonedDict));
+			public void failed(IOException e) {
+				setPreviewImage(preview, null);
+				eventBus.fire(ModelEvent.error(UIConstants.ERROR_UNREADABLE));
 			}
+		});
+	}
+	
+	/**
+	 * Returns the scale a page is rendered at in a preview: 1 if the preview's size is not known,
+	 * otherwise the largest step of {@link #SCALE_STEP} at which the whole page fits in it.
+	 * 
+	 * @param preview which preview, determined by {@link UIConstants}
+	 * @param page the page
+	 * @return the scale, where 1 is 72 DPI
+	 */
+	private float previewScale(UIConstants preview, PageLocation page) {
+		Dimension viewport = viewports.get(preview);
+		if (viewport == null) {
+			return 1;
 		}
+		double fit = Math.min(viewport.width / page.getPDF().getPageWidth(page.getPageIndex()),
+				viewport.height / page.getPDF().getPageHeight(page.getPageIndex()));
+		double scale = Math.pow(SCALE_STEP, Math.floor(Math.log(fit) / Math.log(SCALE_STEP)));
+		return (float) Math.max(MIN_PREVIEW_SCALE, Math.min(MAX_PREVIEW_SCALE, scale));
+	}
+	
+	/**
+	 * Set the size of a preview's viewport, so pages are rendered just large enough to fill it.
+	 * The page shown is only rendered again if it no longer fits, or if the viewport has grown
+	 * enough for the next larger scale step.
+	 * 
+	 * @param preview which preview, determined by {@link UIConstants}
+	 * @param width the width of the viewport, in pixels
+	 * @param height the height of the viewport, in pixels
+	 * @throws IOException if the page shown has to be rendered again and its PDF cannot be read
+	 */
+	public void setPreviewViewport(UIConstants preview, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		viewports.put(preview, new Dimension(width, height));
 		
-		newdoc.save(saveFile);
-		if (newdoc != null) {
-			newdoc.close();
+		PageLocation page = null;
+		if (preview == UIConstants.IMAGE_LOADEDPDF && loadedPDF != null && curLPage >= 1) {
+			page = new PageLocation(loadedPDF, curLPage - 1);
+		} else if (preview == UIConstants.IMAGE_FINALPDF && curFPage >= 1) {
+			page = locateFinalPage(curFPage);
+		}
+		Float shown = shownScales.get(preview);
+		if (page != null && (shown == null || shown != previewScale(preview, page))) {
+			showPage(preview, page);
+			prefetchAround(preview, preview == UIConstants.IMAGE_LOADEDPDF ? curLPage : curFPage,
+					preview == UIConstants.IMAGE_LOADEDPDF ? lNumPages : fNumPages);
+		}
+	}
+	
+	/**
+	 * Set the image shown in one of the previews, and fire the event for it being ready.
+	 * 
+	 * @param preview which preview, determined by {@link UIConstants}
+	 * @param icon the image, or {@code null} to show nothing
+	 */
+	private void setPreviewImage(UIConstants preview, ImageIcon icon) {
+		if (preview == UIConstants.IMAGE_LOADEDPDF) {
+			lPDFIcon = icon;
+			eventBus.fire(ModelEvent.of(ModelEvent.Type.LOADED_PREVIEW_READY));
+		} else {
+			fPDFIcon = icon;
+			eventBus.fire(ModelEvent.of(ModelEvent.Type.FINAL_PREVIEW_READY));
 		}
 	}
 	
+	/**
+	 * Find the loaded PDF and page that a page of the finalized PDF comes from.
+	 * 
+	 * @param pageNum the number of the page in the finalized PDF
+	 * @return the page, as a {@link PageLocation}
+	 */
+	public PageLocation locateFinalPage(int pageNum) {
+		int rangeNum = pageIndex.findRange(pageNum - 1);
+		int offset = pageNum - 1 - pageIndex.getRangeStart(rangeNum);
+		
+		PDFHandle pdf = pdfList.get(pageEntryPDFList.get(rangeNum));
+		return new PageLocation(pdf, pageRangeList.get(rangeNum).get(offset) - 1);
+	}
+	
+	/**
+	 * Render the pages the navigation buttons lead to from the current page in the background,
+	 * so that they are already cached when the user gets there.
+	 * 
+	 * @param preview which preview, determined by {@link UIConstants}
+	 * @param curPage the current page number
+	 * @param numPages the number of pages in the previewed PDF
+	 */
+	private void prefetchAround(UIConstants preview, int curPage, int numPages) {
+		List<PageLocation> pages = new ArrayList<PageLocation>();
+		for (int step : new int[]{1, -1, 10, -10}) {
+			int pageNum = curPage + step;
+			if (pageNum >= 1 && pageNum <= numPages) {
+				pages.add(preview == UIConstants.IMAGE_LOADEDPDF
+						? new PageLocation(loadedPDF, pageNum - 1) : locateFinalPage(pageNum));
+			}
+		}
+		float[] scales = new float[pages.size()];
+		for (int i = 0; i < scales.length; ++i) {
+			scales[i] = previewScale(preview, pages.get(i));
+		}
+		prefetcher.prefetch(preview, pages, scales, ImageType.RGB);
+	}
+	
+	/**
+	 * Render a page of a loaded PDF, or reuse it from the {@link RenderCache}.
+	 * 
+	 * @param pdf the handle to the loaded PDF
+	 * @param pageIndex the index of the page, starting at 0
+	 * @param scale the scale to render at, where 1 is 72 DPI
+	 * @return the image, as an {@link ImageIcon}
+	 * @throws IOException if the PDF cannot be read
+	 */
+	private ImageIcon renderPage(PDFHandle pdf, int pageIndex, float scale) throws IOException {
+		return new ImageIcon(renderCache.render(pdf, pageIndex, scale, ImageType.RGB));
+	}
+	
+	/**
+	 * Create the new PDF with the {@link PDFAssembler}, and save it.
+	 * 
+	 * @param saveFile the file to save it as
+	 * @throws IOException if it cannot save the file
+	 */
+	public void makeFinalizedPDF(File saveFile) throws IOException {
+		assembler.assemble(getPageRangeSources(), getPageRanges(), saveFile);
+	}
+	
+	/**
+	 * Returns the loaded PDF each page range of the new PDF comes from.
+	 * 
+	 * @return the loaded PDFs, in the order of the page ranges
+	 */
+	public List<PDFHandle> getPageRangeSources() {
+		List<PDFHandle> sources = new ArrayList<PDFHandle>();
+		for (String pdfName : pageEntryPDFList) {
+			sources.add(pdfList.get(pdfName));
+		}
+		return sources;
+	}
+	
+	/**
+	 * Returns the page ranges of the new PDF. Edits replace the list rather than change it, so it
+	 * stays as it is while the new PDF is created from it in the background.
+	 * 
+	 * @return the page ranges, in order
+	 */
+	public List<PageSelection> getPageRanges() {
+		return Collections.unmodifiableList(pageRangeList);
+	}
+	
+	/**
+	 * Set whether preview images should be rendered. When disabled, edits to the page ranges
+	 * skip rendering the finalized PDF preview, which is useful when running without a display.
+	 * 
+	 * @param renderPreviews {@code false} to skip rendering previews
+	 */
+	public void setRenderPreviews(boolean renderPreviews) {
+		this.renderPreviews = renderPreviews;
+	}
+	
+	/**
+	 * Set whether preview pages are rendered on a background thread. When they are, the preview
+	 * methods return straight away, and only the last page asked for in each preview is shown
+	 * once it is ready. This should only be turned on when the model is used from the event thread.
+	 * 
+	 * @param renderInBackground {@code true} to render in the background
+	 */
+	public void setRenderInBackground(boolean renderInBackground) {
+		this.renderInBackground = renderInBackground;
+	}
+	
+	/**
+	 * Set the maximum number of loaded PDFs kept open at once. Loaded PDFs beyond this are
+	 * closed when not in use, and opened again the next time they are needed.
+	 * 
+	 * @param maxOpenPDFs the number of PDFs, at least 1
+	 */
+	public void setMaxOpenPDFs(int maxOpenPDFs) {
+		pdfCache.setCapacity(maxOpenPDFs);
+	}
+	
+	/**
+	 * Set the smallest loaded PDF that is read through a memory mapping instead of buffered reads.
+	 * Mapped PDFs are parsed straight from the OS page cache, which is shared by every process
+	 * reading the same file.
+	 * 
+	 * @param mappedFileThreshold the size, in bytes, or {@link Long#MAX_VALUE} to never map files
+	 */
+	public void setMappedFileThreshold(long mappedFileThreshold) {
+		pdfCache.setMappedFileThreshold(mappedFileThreshold);
+	}
+	
+	/**
+	 * Returns the policy deciding whether loaded PDFs and the new PDF keep their buffers
+	 * in main memory, temp files, or both.
+	 * 
+	 * @return the policy, as a {@link MemoryPolicy}
+	 */
+	public MemoryPolicy getMemoryPolicy() {
+		return pdfCache.getMemoryPolicy();
+	}
+	
+	/**
+	 * Returns where a loaded PDF keeps its buffers.
+	 * 
+	 * @param name the name of the PDF
+	 * @return the mode, as a {@link MemoryPolicy.Mode}, or {@code null} if the PDF is not loaded
+	 */
+	public MemoryPolicy.Mode getMemoryMode(String name) {
+		PDFHandle pdf = pdfList.get(name);
+		return pdf == null ? null : pdf.getMemoryMode();
+	}
+	
+	/**
+	 * Returns the bus the model's change events are fired on.
+	 * 
+	 * @return the bus, as a {@link ModelEventBus}
+	 */
+	public ModelEventBus getEventBus() {
+		return eventBus;
+	}
+	
+	/**
+	 * Returns the assembler that creates the new PDF, IE to set how many loaded PDFs it clones at once.
+	 * 
+	 * @return the assembler, as a {@link PDFAssembler}
+	 */
+	public PDFAssembler getAssembler() {
+		return assembler;
+	}
+	
+	/**
+	 * Returns the cache of rendered preview pages, IE to read its hit and miss counts.
+	 * 
+	 * @return the cache, as a {@link RenderCache}
+	 */
+	public RenderCache getRenderCache() {
+		return renderCache;
+	}
+	
 	/**
 	 * Returns the PDF list model.
 	 * 
@@ -406,6 +792,24 @@ public class SplicerModel extends Observable {
 		return pageRangeModel;
 	}
 	
+	/**
+	 * Returns the pages of the selected loaded PDF, for its thumbnails.
+	 * 
+	 * @return the pages, as a {@link PageListModel}
+	 */
+	public PageListModel getLThumbnailModel() {
+		return lThumbnailModel;
+	}
+	
+	/**
+	 * Returns the pages of the finalized PDF, for its thumbnails.
+	 * 
+	 * @return the pages, as a {@link PageListModel}
+	 */
+	public PageListModel getFThumbnailModel() {
+		return fThumbnailModel;
+	}
+	
 	/**
 	 * Returns the number of page ranges.
 	 * 
@@ -23,7 +23,10 @@ import javax.swing.JFileChooser;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JLabel;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.TransferHandler;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -31,16 +34,17 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.BorderLayout;
 import java.io.File;
 import java.util.List;
-import java.util.Observable;
-import java.util.Observer;
 
 import javax.swing.JButton;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import javax.swing.JTextField;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
@@ -51,6 +55,9 @@ import java.awt.GridBagConstraints;
 import java.awt.Insets;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.border.BevelBorder;
 import javax.swing.border.SoftBevelBorder;
@@ -63,7 +70,7 @@ import java.awt.Component;
  * 
  * @author Abeer Ahmed
  */
-public class SplicerView implements Observer {
+public class SplicerView implements ModelListener {
 
 	// MVC Layout
 	private SplicerModel model;
@@ -84,9 +91,11 @@ public class SplicerView implements Observer {
 	private JList<String> lstPDFList;
 	
 	// Loaded PDF Preview
+	private JTabbedPane pnlLPreviewTabs;
 	private JScrollPane pnlLPDFPreview;
 	private JLabel lblLNumPages;
 	private JLabel lblLPDFPreview;
+	private ThumbnailGrid grdLThumbnails;
 	
 	// Loaded PDF Preview Navigation
 	private JPanel pnlLPageSelect;
@@ -116,9 +125,11 @@ public class SplicerView implements Observer {
 	private JButton btnCreateButton;
 	
 	// Final PDF Preview
+	private JTabbedPane pnlFPreviewTabs;
 	private JScrollPane pnlFPDFPreview;
 	private JLabel lblFNumPages;
 	private JLabel lblFPDFPreview;
+	private ThumbnailGrid grdFThumbnails;
 	
 	// Final PDF Preview Navigation
 	private JPanel pnlFPageSelect;
@@ -206,7 +217,8 @@ public class SplicerView implements Observer {
 
             @Override
 	        public boolean canImport(TransferHandler.TransferSupport info) {
-	            if (!info.isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
+	            // Nothing can be loaded while the new PDF is being created
+	            if (!btnLoadPDF.isEnabled() || !info.isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
 	                return false;
 	            }
 	            return true;
@@ -229,9 +241,7 @@ public class SplicerView implements Observer {
 	                data = (List<File>)t.getTransferData(DataFlavor.javaFileListFlavor);
 	            } 
 	            catch (Exception e) { return false; }
-                UIConstants error = controller.loadPDF(data.toArray(new File[0]));
-                errorMessage(error);
-                lstPDFList.setSelectedIndex(lstPDFList.getModel().getSize() - 1);
+                loadPDFInBackground(data.toArray(new File[0]));
 	            return true;
 	        }
 		});
@@ -249,12 +259,31 @@ public class SplicerView implements Observer {
 		gbc_pnlLPDFPreview.gridy = 0;
 		gbc_pnlLPDFPreview.weightx = 0.5;
 		gbc_pnlLPDFPreview.weighty = 1.0;
-		pnlPDFLoader.add(pnlLPDFPreview, gbc_pnlLPDFPreview);
+		
+		// Tabs switching between the page preview and the thumbnails
+		pnlLPreviewTabs = new JTabbedPane(JTabbedPane.BOTTOM);
+		pnlLPreviewTabs.addTab("Page", null, pnlLPDFPreview, null);
+		grdLThumbnails = new ThumbnailGrid(model.getLThumbnailModel(), model.getRenderCache(), new ThumbnailGrid.PageListener() {
+			public void pageChosen(int pageNum) {
+				UIConstants error = controller.changePDFPreviewPage(UIConstants.IMAGE_LOADEDPDF, lstPDFList.getSelectedIndex(), pageNum);
+				errorMessage(error);
+				pnlLPreviewTabs.setSelectedComponent(pnlLPDFPreview);
+			}
+		});
+		pnlLPreviewTabs.addTab("Thumbnails", null, grdLThumbnails, null);
+		pnlPDFLoader.add(pnlLPreviewTabs, gbc_pnlLPDFPreview);
 		
 		lblLNumPages = new JLabel("");
 		lblLNumPages.setHorizontalAlignment(SwingConstants.CENTER);
 		pnlLPDFPreview.setColumnHeaderView(lblLNumPages);
 		
+		pnlLPDFPreview.getViewport().addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				resizePDFPreview(UIConstants.IMAGE_LOADEDPDF, pnlLPDFPreview, lblLPDFPreview);
+			}
+		});
+		
 		// Panel for buttons related to loading / removing PDFs
 		pnlLoadingOptions = new JPanel();
 		GridBagLayout gbl_pnlLoadingOptions = new GridBagLayout();
@@ -287,9 +316,7 @@ public class SplicerView implements Observer {
 			public void actionPerformed(ActionEvent arg0) {
 				fileChooser.setDialogTitle("Load PDF");
 				if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
-					UIConstants error = controller.loadPDF(fileChooser.getSelectedFiles());
-					errorMessage(error);
-					lstPDFList.setSelectedIndex(lstPDFList.getModel().getSize() - 1);
+					loadPDFInBackground(fileChooser.getSelectedFiles());
 				}
 			}
 		});
@@ -540,6 +567,9 @@ public class SplicerView implements Observer {
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
 				UIConstants error = controller.addPageRange(cmboBxPDFSelector1.getSelectedIndex(), txtfldPageRange.getText());
+				if (error == UIConstants.ERROR_NOERROR) {
+					txtfldPageRange.setText("");
+				}
 				errorMessage(error);
 			}
 		});
@@ -596,8 +626,7 @@ public class SplicerView implements Observer {
 			            if (!selectedFile.getName().substring(selectedFile.getName().length() - 4).equals(".pdf")) {
 			                selectedFile = new File(selectedFile.getAbsolutePath() + ".pdf");
 			            }
-						UIConstants error = controller.createPDF(selectedFile);
-						errorMessage(error);
+						createPDFInBackground(selectedFile);
 					}
 				}
 			}
@@ -612,7 +641,19 @@ public class SplicerView implements Observer {
 		gbc_pnlFPDFPreview.fill = GridBagConstraints.BOTH;
 		gbc_pnlFPDFPreview.gridx = 0;
 		gbc_pnlFPDFPreview.gridy = 1;
-		pnlFinalize.add(pnlFPDFPreview, gbc_pnlFPDFPreview);
+		
+		// Tabs switching between the page preview and the thumbnails
+		pnlFPreviewTabs = new JTabbedPane(JTabbedPane.BOTTOM);
+		pnlFPreviewTabs.addTab("Page", null, pnlFPDFPreview, null);
+		grdFThumbnails = new ThumbnailGrid(model.getFThumbnailModel(), model.getRenderCache(), new ThumbnailGrid.PageListener() {
+			public void pageChosen(int pageNum) {
+				UIConstants error = controller.changePDFPreviewPage(UIConstants.IMAGE_FINALPDF, -1, pageNum);
+				errorMessage(error);
+				pnlFPreviewTabs.setSelectedComponent(pnlFPDFPreview);
+			}
+		});
+		pnlFPreviewTabs.addTab("Thumbnails", null, grdFThumbnails, null);
+		pnlFinalize.add(pnlFPreviewTabs, gbc_pnlFPDFPreview);
 		
 		lblFPDFPreview = new JLabel("");
 		pnlFPDFPreview.setViewportView(lblFPDFPreview);
@@ -623,6 +664,13 @@ public class SplicerView implements Observer {
 		lblFNumPages.setHorizontalAlignment(SwingConstants.CENTER);
 		pnlFPDFPreview.setColumnHeaderView(lblFNumPages);
 		
+		pnlFPDFPreview.getViewport().addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				resizePDFPreview(UIConstants.IMAGE_FINALPDF, pnlFPDFPreview, lblFPDFPreview);
+			}
+		});
+		
 		pnlFPageSelect = new JPanel();
 		GridBagConstraints gbc_pnlFPageSelect = new GridBagConstraints();
 		gbc_pnlFPageSelect.fill = GridBagConstraints.HORIZONTAL;
@@ -739,6 +787,140 @@ public class SplicerView implements Observer {
 		frame.getContentPane().add(pnlTabs, BorderLayout.CENTER);
 	}
 	
+	/**
+	 * Load PDFs in the background, showing a cancellable progress dialog while they are parsed.
+	 * 
+	 * @param files the files to load
+	 */
+	private void loadPDFInBackground(File[] files) {
+		final PDFLoader loader = controller.loadPDFInBackground(files);
+		final ProgressMonitor monitor = new ProgressMonitor(frame, "Loading PDFs", "", 0, 100);
+		monitor.setMillisToDecideToPopup(250);
+		
+		// The monitor's cancel button does not notify anyone, so poll it
+		final Timer cancelPoll = new Timer(200, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (monitor.isCanceled()) {
+					loader.requestCancel();
+				}
+			}
+		});
+		
+		final ModelListener progressListener = new ModelListener() {
+			public void modelChanged(ModelEvent event) {
+				if (event.getSource() != loader) {
+					return;
+				}
+				monitor.setNote(event.getNote());
+				monitor.setProgress(event.getProgress());
+			}
+		};
+		model.getEventBus().addListener(progressListener, ModelEvent.Type.PROGRESS);
+		
+		loader.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getNewValue() == SwingWorker.StateValue.DONE) {
+					model.getEventBus().removeListener(progressListener);
+					cancelPoll.stop();
+					monitor.close();
+					try {
+						errorMessage(loader.get());
+					} catch (InterruptedException | ExecutionException e) {
+						errorMessage(UIConstants.ERROR_UNREADABLE);
+					}
+					lstPDFList.setSelectedIndex(lstPDFList.getModel().getSize() - 1);
+				}
+			}
+		});
+		
+		cancelPoll.start();
+		loader.execute();
+	}
+	
+	/**
+	 * Create the new PDF in the background, showing a cancellable progress dialog with the phase
+	 * and page it is on. Everything that edits the loaded PDFs or page ranges is disabled until it
+	 * is saved, or cancelled and cleaned up, so none of the PDFs it is reading are closed under it.
+	 * 
+	 * @param file the file to save it as
+	 */
+	private void createPDFInBackground(File file) {
+		final PDFCreator creator = controller.createPDFInBackground(file);
+		final ProgressMonitor monitor = new ProgressMonitor(frame, "Creating PDF", "", 0, 100);
+		monitor.setMillisToDecideToPopup(250);
+		setEditingEnabled(false);
+		
+		// The monitor's cancel button does not notify anyone, so poll it
+		final Timer cancelPoll = new Timer(200, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (monitor.isCanceled()) {
+					creator.requestCancel();
+				}
+			}
+		});
+		
+		final ModelListener progressListener = new ModelListener() {
+			public void modelChanged(ModelEvent event) {
+				if (event.getSource() != creator) {
+					return;
+				}
+				monitor.setNote(event.getNote());
+				monitor.setProgress(event.getProgress());
+			}
+		};
+		model.getEventBus().addListener(progressListener, ModelEvent.Type.PROGRESS);
+		
+		creator.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getNewValue() == SwingWorker.StateValue.DONE) {
+					model.getEventBus().removeListener(progressListener);
+					cancelPoll.stop();
+					monitor.close();
+					setEditingEnabled(true);
+					try {
+						errorMessage(creator.get());
+					} catch (InterruptedException | ExecutionException e) {
+						errorMessage(UIConstants.ERROR_CANNOT_SAVE);
+					}
+				}
+			}
+		});
+		
+		cancelPoll.start();
+		creator.execute();
+	}
+	
+	/**
+	 * Enable or disable every control that loads or removes PDFs, edits the page ranges or creates
+	 * the new PDF.
+	 * 
+	 * @param enabled {@code true} to enable the controls
+	 */
+	private void setEditingEnabled(boolean enabled) {
+		btnLoadPDF.setEnabled(enabled);
+		btnRemovePDF.setEnabled(enabled);
+		btnRemoveAll.setEnabled(enabled);
+		txtfldPageRange.setEnabled(enabled);
+		btnRemovePageR.setEnabled(enabled);
+		btnRemoveAllPageR.setEnabled(enabled);
+		btnCreateButton.setEnabled(enabled);
+	}
+	
+	/**
+	 * Tell the controller how much room a preview has, so its pages are rendered to fit.
+	 * 
+	 * @param preview which preview, determined by {@link UIConstants}
+	 * @param pane the scroll pane holding the preview
+	 * @param label the label showing the preview
+	 */
+	private void resizePDFPreview(UIConstants preview, JScrollPane pane, JLabel label) {
+		Dimension size = pane.getViewport().getExtentSize();
+		Insets insets = label.getInsets();
+		UIConstants error = controller.resizePDFPreview(preview,
+				size.width - insets.left - insets.right, size.height - insets.top - insets.bottom);
+		errorMessage(error);
+	}
+	
 	/**
 	 * Display a message dialog with an error.
 	 * 
@@ -756,7 +938,9 @@ public class SplicerView implements Observer {
 			JOptionPane.showMessageDialog(frame, "Please select a PDF.", "Error No PDF", JOptionPane.ERROR_MESSAGE);
 			break;
 		case ERROR_INVALID_PAGENUM:
-			JOptionPane.showMessageDialog(frame, "Invalid Page Numbers.", "Error Entering Page Numbers", JOptionPane.ERROR_MESSAGE);
+			PageRangeException rangeError = controller.getPageRangeError();
+			JOptionPane.showMessageDialog(frame, "Invalid Page Numbers." + (rangeError == null ? "" : "\n" + rangeError.getMessage()),
+					"Error Entering Page Numbers", JOptionPane.ERROR_MESSAGE);
 			break;
 		case ERROR_NO_SELECTEDPAGERANGE:
 			JOptionPane.showMessageDialog(frame, "No Page Range Selected.", "Error Removing Page Range", JOptionPane.ERROR_MESSAGE);
@@ -764,37 +948,59 @@ public class SplicerView implements Observer {
 		case ERROR_CANNOT_SAVE:
 			JOptionPane.showMessageDialog(frame, "Cannot save PDF.", "Error Saving PDF", JOptionPane.ERROR_MESSAGE);
 			break;
+		case ERROR_CANCELLED:
+			// The user cancelled it themselves, so there is nothing to tell them
+			break;
 		default:
 			break;
 		}
 	}
 	
 	/**
-	 * Update the PDF preview windows.
+	 * Update the loaded PDF preview window and its page count.
 	 */
-	private void updatePDFPreviews() {
+	private void updateLoadedPreview() {
 		int curLPage = model.getCurLPage();
-		int curFPage = model.getCurFPage();
+		int lNumPages = model.getLNumPages();
 		lblLPDFPreview.setIcon(model.getLPDFImage());
-		lblFPDFPreview.setIcon(model.getFPDFImage());
 		txtfldLPage.setText(curLPage == -1 ? "" : Integer.toString(curLPage));
+		lblLNumPages.setText(lNumPages >= 1 ? "Pages: " + Integer.toString(lNumPages) : "");
+	}
+	
+	/**
+	 * Update the finalized PDF preview window.
+	 */
+	private void updateFinalPreview() {
+		int curFPage = model.getCurFPage();
+		lblFPDFPreview.setIcon(model.getFPDFImage());
 		txtfldFPage.setText(curFPage == -1 ? "" : Integer.toString(curFPage));
 	}
 	
 	/**
-	 * Update the page counts.
+	 * Update the finalized PDF's page count.
 	 */
-	private void updatePageCounts() {
-		int lNumPages = model.getLNumPages();
+	private void updateFinalPageCount() {
 		int fNumPages = model.getFNumPages();
-		lblLNumPages.setText(lNumPages >= 1 ? "Pages: " + Integer.toString(lNumPages) : "");
 		lblFNumPages.setText(fNumPages >= 1 ? "Pages: " + Integer.toString(fNumPages) : "");
 	}
 	
 	@Override
-	public void update(Observable arg0, Object arg1) {
-		updatePDFPreviews();
-		updatePageCounts();
-		txtfldPageRange.setText("");
+	public void modelChanged(ModelEvent event) {
+		switch (event.getType()) {
+		case LOADED_PREVIEW_READY:
+			updateLoadedPreview();
+			break;
+		case FINAL_PREVIEW_READY:
+			updateFinalPreview();
+			break;
+		case RANGES_CHANGED:
+			updateFinalPageCount();
+			break;
+		case ERROR:
+			errorMessage(event.getError());
+			break;
+		default:
+			break;
+		}
 	}
 }
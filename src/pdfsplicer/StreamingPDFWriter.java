@@ -0,0 +1,1515 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import pdfsplicer.RawPDFReader.RawObject;
+import pdfsplicer.RawPDFReader.RawPage;
+
+/**
+ * Writes a PDF made of pages from other PDFs straight to a file, one page range at a time,
+ * without building the whole new document in memory first. Each page is written along with
+ * every object it uses that has not been written yet, and the page tree, catalog and cross
+ * reference table follow once {@link #finish()} is called. Besides the file itself, only the
+ * offset of each object, the number of each page, and which objects of the loaded PDFs still
+ * in use have been written are kept, so memory stays bounded however large the new PDF gets.
+ * 
+ * <p>Objects are copied as they are, IE streams keep their filters and are not decoded.
+ * References to pages that are not in the new PDF, and to the loaded PDFs' own page trees,
+ * are written as {@code null}. Fonts, images and ICC profiles are also matched by a hash of
+ * their contents, so identical ones, even from different PDFs, are only written once.
+ * 
+ * <p>In compact mode, set with {@link #setCompact(boolean)}, every object other than a stream is
+ * packed into Flate compressed object streams of up to 100 objects, the cross reference table is
+ * written as a compressed cross reference stream, and streams that are not compressed at all are
+ * compressed with Flate. This needs PDF 1.5. Compression can run on several threads, in which case
+ * a few compressed objects are held in memory until they can be written in turn.
+ * 
+ * @author Abeer Ahmed
+ */
+public class StreamingPDFWriter implements Closeable {
+
+	// Most kids of one node of the page tree
+	private static final int PAGE_TREE_FANOUT = 64;
+
+	// Attributes a page inherits from its ancestors if it does not have them itself
+	private static final COSName[] INHERITABLE = {COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE};
+
+	// Largest offset a cross reference table can hold in its 10 digits
+	static final long MAX_TABLE_OFFSET = 9999999999L;
+
+	// Most objects packed into one object stream in compact mode, and most bytes before it is started early
+	private static final int OBJECTS_PER_STREAM = 100;
+	private static final int OBJECT_STREAM_SIZE = 1 << 16;
+
+	// Subtypes of compact font programs
+	private static final COSName TYPE1C = COSName.getPDFName("Type1C");
+	private static final COSName CID_FONT_TYPE0C = COSName.getPDFName("CIDFontType0C");
+
+	/**
+	 * Told each time a page has been written, IE to show progress.
+	 */
+	public interface PageListener {
+
+		/**
+		 * Called after a page and every object it uses have been written. Throwing an unchecked
+		 * exception stops writing, leaving the PDF unfinished.
+		 * 
+		 * @param pageCount the number of pages written so far
+		 */
+		void pageWritten(int pageCount);
+
+	}
+
+	/**
+	 * What has been written from one loaded PDF.
+	 */
+	private static class Source {
+
+		PDDocument doc;
+		Map<COSBase, Integer> written = new IdentityHashMap<COSBase, Integer>();
+		Map<COSBase, Integer> pages = new IdentityHashMap<COSBase, Integer>();
+
+		// Objects copied straight from the file, by their object number
+		RawPDFReader raw;
+		Map<Integer, Integer> rawWritten = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> rawPages = new HashMap<Integer, Integer>();
+		Set<Integer> rawHashing = new HashSet<Integer>();
+
+	}
+
+	/**
+	 * An object that has been numbered but not written yet.
+	 */
+	private static class Pending {
+
+		final COSBase object;
+		final RawObject raw;
+		final int number;
+		final Source source;
+
+		Pending(COSBase object, int number, Source source) {
+			this.object = object;
+			this.raw = null;
+			this.number = number;
+			this.source = source;
+		}
+
+		Pending(RawObject raw, int number, Source source) {
+			this.object = null;
+			this.raw = raw;
+			this.number = number;
+			this.source = source;
+		}
+
+	}
+
+	/**
+	 * An object being compressed, to be written once it is done.
+	 */
+	private static class Chunk {
+
+		final int number;
+		final Future<byte[]> data;
+
+		Chunk(int number, Future<byte[]> data) {
+			this.number = number;
+			this.data = data;
+		}
+
+	}
+
+	/**
+	 * Throws away everything written to it.
+	 */
+	private static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+	/**
+	 * Counts the bytes written, so each object's offset is known.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+	}
+
+	private CountingOutputStream file;
+	private CountingOutputStream out;
+	private boolean started;
+	private long[] offsets;
+	private int[] objectStreams;
+	private int objectCount;
+	private int[] pageNumbers;
+	private int[] leafNumbers;
+	private int pageCount;
+	private Map<Object, Source> sources;
+	private Deque<Pending> pending;
+	private byte[] buffer;
+	private Map<ByteBuffer, Integer> resourcesByHash;
+	private Set<COSBase> hashing;
+	private boolean hashingContents;
+	private Map<COSBase, COSStream> replacements;
+	private PageListener pageListener;
+
+	// Only lowered by tests, so the cross reference stream used for large files can be checked on a small one
+	long maxTableOffset = MAX_TABLE_OFFSET;
+
+	private boolean compact;
+	private int compressionLevel;
+	private int compressionThreads;
+	private ExecutorService compressor;
+	private Deque<Chunk> chunks;
+	private ByteArrayOutputStream batchData;
+	private CountingOutputStream batchOut;
+	private int[] batchNumbers;
+	private int[] batchOffsets;
+	private int batchSize;
+
+	/**
+	 * Create a new writer. The PDF header is written along with the first object.
+	 * 
+	 * @param file the file to write the PDF to
+	 * @throws IOException if the file cannot be written
+	 */
+	public StreamingPDFWriter(File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+
+	/**
+	 * Create a new writer. The PDF header is written along with the first object.
+	 * 
+	 * @param output the stream to write the PDF to, closed along with the writer
+	 */
+	public StreamingPDFWriter(OutputStream output) {
+		out = file = new CountingOutputStream(new BufferedOutputStream(output, 1 << 16));
+		offsets = new long[1024];
+		objectStreams = new int[1024];
+		pageNumbers = new int[1024];
+		leafNumbers = new int[16];
+		sources = new HashMap<Object, Source>();
+		pending = new ArrayDeque<Pending>();
+		buffer = new byte[1 << 16];
+		resourcesByHash = new HashMap<ByteBuffer, Integer>();
+		hashing = Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+		compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		compressionThreads = 1;
+		chunks = new ArrayDeque<Chunk>();
+	}
+
+	/**
+	 * Set whether objects are packed into compressed object streams, with a cross reference stream,
+	 * and uncompressed streams are compressed. This can only be changed before any pages are written.
+	 * 
+	 * @param compact {@code true} to write a smaller PDF 1.5 file
+	 */
+	public void setCompact(boolean compact) {
+		checkNotStarted();
+		this.compact = compact;
+	}
+
+	/**
+	 * Set how hard Flate compression tries in compact mode.
+	 * 
+	 * @param compressionLevel from 1, the fastest, to 9, the smallest, or -1 for the default
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < -1 || compressionLevel > 9) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Set how many threads compress objects in compact mode. This can only be changed before any
+	 * pages are written.
+	 * 
+	 * @param compressionThreads the number of threads, where 1 compresses on the calling thread
+	 */
+	public void setCompressionThreads(int compressionThreads) {
+		checkNotStarted();
+		this.compressionThreads = Math.max(1, compressionThreads);
+	}
+
+	/**
+	 * Make sure nothing has been written yet.
+	 */
+	private void checkNotStarted() {
+		if (started) {
+			throw new IllegalStateException("StreamingPDFWriter already started");
+		}
+	}
+
+	/**
+	 * Write the PDF header, and get ready to compress objects, before the first object is written.
+	 * 
+	 * @throws IOException if the file cannot be written
+	 */
+	private void start() throws IOException {
+		if (started) {
+			return;
+		}
+		started = true;
+		
+		file.write((compact ? "%PDF-1.5\n" : "%PDF-1.4\n").getBytes(StandardCharsets.US_ASCII));
+		// A comment with bytes above 127, so the file is treated as binary
+		file.write(new byte[]{'%', (byte) 0xe2, (byte) 0xe3, (byte) 0xcf, (byte) 0xd3, '\n'});
+		
+		if (compact) {
+			batchData = new ByteArrayOutputStream(OBJECT_STREAM_SIZE + (OBJECT_STREAM_SIZE >> 2));
+			batchOut = new CountingOutputStream(batchData);
+			batchNumbers = new int[OBJECTS_PER_STREAM];
+			batchOffsets = new int[OBJECTS_PER_STREAM];
+			if (compressionThreads > 1) {
+				compressor = Executors.newFixedThreadPool(compressionThreads, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "PDF-Splicer compress");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Write a range of pages from a loaded PDF, and every object they use that has not been
+	 * written yet. Pages and objects already written from the same PDF are shared, not written again.
+	 * 
+	 * @param key identifies the loaded PDF, IE its {@link PDFHandle}
+	 * @param doc the loaded PDF, only used during this call
+	 * @param pages the pages to write, in order
+	 * @throws IOException if the loaded PDF cannot be read or the file cannot be written
+	 */
+	public void writePages(Object key, PDDocument doc, PageSelection pages) throws IOException {
+		Source source = sources.get(key);
+		if (source == null || source.doc != doc) {
+			// The PDF was closed and opened again since, so none of its objects are the same any more
+			source = new Source();
+			source.doc = doc;
+			sources.put(key, source);
+		}
+		
+		writePages(source, PageTreeWalker.collect(doc, pages));
+	}
+
+	/**
+	 * Write pages that were already copied out of a loaded PDF, IE by a {@link org.apache.pdfbox.multipdf.PDFCloneUtility},
+	 * and every object they use that has not been written yet.
+	 * 
+	 * @param key identifies where the pages came from, so objects they share are only written once
+	 * @param pages the pages to write, in order
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writePages(Object key, COSDictionary[] pages) throws IOException {
+		Source source = sources.get(key);
+		if (source == null) {
+			source = new Source();
+			sources.put(key, source);
+		}
+		writePages(source, pages);
+	}
+
+	/**
+	 * Write pages found by a {@link RawPDFReader}, and every object they use that has not been
+	 * written yet, copying each of them straight from the file. Objects already written from the
+	 * same reader are shared, not written again.
+	 * 
+	 * @param pdf the reader, which also identifies where the pages came from
+	 * @param pages the pages to write, in order, as found by {@link RawPDFReader#collect(PageSelection)}
+	 * @throws IOException if the PDF cannot be read or the file cannot be written
+	 */
+	void writePages(RawPDFReader pdf, RawPage[] pages) throws IOException {
+		Source source = sources.get(pdf);
+		if (source == null) {
+			source = new Source();
+			source.raw = pdf;
+			sources.put(pdf, source);
+		}
+		
+		int[] numbers = new int[pages.length];
+		for (int i = 0; i < pages.length; ++i) {
+			numbers[i] = allocate();
+			if (!source.rawPages.containsKey(pages[i].page.number)) {
+				source.rawPages.put(pages[i].page.number, numbers[i]);
+			}
+		}
+		
+		for (int i = 0; i < pages.length; ++i) {
+			writeRawPage(pages[i], numbers[i], source);
+			writePending();
+			pageWritten();
+		}
+	}
+
+	/**
+	 * Write pages, and every object they use that has not been written yet.
+	 * 
+	 * @param source what has been written from the loaded PDF the pages come from
+	 * @param dicts the pages
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writePages(Source source, COSDictionary[] dicts) throws IOException {
+		// Number every page first, so links between pages of the range point at the right objects
+		int[] numbers = new int[dicts.length];
+		for (int i = 0; i < dicts.length; ++i) {
+			numbers[i] = allocate();
+			if (!source.pages.containsKey(dicts[i])) {
+				source.pages.put(dicts[i], numbers[i]);
+			}
+		}
+		
+		for (int i = 0; i < dicts.length; ++i) {
+			writePage(dicts[i], numbers[i], source);
+			writePending();
+			pageWritten();
+		}
+	}
+
+	/**
+	 * Tell the page listener, if any, that another page has been written.
+	 */
+	private void pageWritten() {
+		if (pageListener != null) {
+			pageListener.pageWritten(pageCount);
+		}
+	}
+
+	/**
+	 * Set the listener told each time a page has been written.
+	 * 
+	 * @param pageListener the listener, or {@code null} for none
+	 */
+	public void setPageListener(PageListener pageListener) {
+		this.pageListener = pageListener;
+	}
+
+	/**
+	 * Set whether fonts, images and ICC profiles are matched by their contents, so identical ones
+	 * are only written once. This is on by default, and costs reading each of them twice.
+	 * 
+	 * @param deduplicate {@code false} to only share objects that are the same object in a loaded PDF
+	 */
+	public void setDeduplicateResources(boolean deduplicate) {
+		resourcesByHash = deduplicate ? new HashMap<ByteBuffer, Integer>() : null;
+	}
+
+	/**
+	 * Set streams to write in place of streams of the loaded PDFs, IE images made smaller by an
+	 * {@link ImageDownsampler}. The map may still be added to while pages are written.
+	 * 
+	 * @param replacements the new streams, keyed by the stream each replaces, or {@code null} for none
+	 */
+	public void setReplacements(Map<COSBase, COSStream> replacements) {
+		this.replacements = replacements;
+	}
+
+	/**
+	 * Forget which objects of a loaded PDF have been written, once none of its pages are left to write.
+	 * 
+	 * @param key identifies the loaded PDF, as passed to {@link #writePages(Object, PDDocument, PageSelection)}
+	 */
+	public void releaseSource(Object key) {
+		sources.remove(key);
+	}
+
+	/**
+	 * Write the page tree, catalog, cross reference table and trailer, ending the PDF.
+	 * 
+	 * @throws IOException if the file cannot be written
+	 */
+	public void finish() throws IOException {
+		start();
+		sources.clear();
+		
+		// Each level of the page tree has a node for every PAGE_TREE_FANOUT nodes of the level below,
+		// and the leaves were already numbered when their first page was written
+		int[] kids = pageNumbers;
+		int[] kidPages = null;
+		int kidCount = pageCount;
+		int[] nodes = pageCount == 0 ? new int[]{allocate()} : leafNumbers;
+		int nodeCount = Math.max(1, (pageCount + PAGE_TREE_FANOUT - 1) / PAGE_TREE_FANOUT);
+		while (true) {
+			int[] parents = new int[(nodeCount + PAGE_TREE_FANOUT - 1) / PAGE_TREE_FANOUT];
+			for (int i = 0; i < parents.length && nodeCount > 1; ++i) {
+				parents[i] = allocate();
+			}
+			int[] nodePages = new int[nodeCount];
+			for (int i = 0; i < nodeCount; ++i) {
+				int first = i * PAGE_TREE_FANOUT;
+				int last = Math.min(kidCount, first + PAGE_TREE_FANOUT);
+				StringBuilder kidRefs = new StringBuilder();
+				for (int j = first; j < last; ++j) {
+					nodePages[i] += kidPages == null ? 1 : kidPages[j];
+					kidRefs.append(j == first ? "" : " ").append(kids[j]).append(" 0 R");
+				}
+				beginObject(nodes[i]);
+				write("<<\n/Type /Pages\n");
+				if (nodeCount > 1) {
+					write("/Parent " + parents[i / PAGE_TREE_FANOUT] + " 0 R\n");
+				}
+				write("/Count " + nodePages[i] + "\n/Kids [" + kidRefs + "]\n>>");
+				endObject();
+			}
+			if (nodeCount == 1) {
+				break;
+			}
+			kids = nodes;
+			kidPages = nodePages;
+			kidCount = nodeCount;
+			nodes = parents;
+			nodeCount = parents.length;
+		}
+		
+		// The catalog is the last object, so if it starts past what a cross reference table can hold,
+		// a cross reference stream is written instead and the catalog raises the version to match
+		int catalog = allocate();
+		boolean tooLarge = !compact && file.count > maxTableOffset;
+		beginObject(catalog);
+		write("<<\n/Type /Catalog\n" + (tooLarge ? "/Version /1.5\n" : "") + "/Pages " + nodes[0] + " 0 R\n>>");
+		endObject();
+		
+		if (compact) {
+			writeObjectStream();
+			while (!chunks.isEmpty()) {
+				writeChunk(chunks.poll());
+			}
+		}
+		if (compact || tooLarge) {
+			writeCrossReferenceStream(catalog);
+			return;
+		}
+		
+		long xref = file.count;
+		write("xref\n0 " + (objectCount + 1) + "\n0000000000 65535 f\r\n");
+		byte[] entry = "0000000000 00000 n\r\n".getBytes(StandardCharsets.US_ASCII);
+		for (int i = 1; i <= objectCount; ++i) {
+			long offset = offsets[i];
+			for (int j = 9; j >= 0; --j) {
+				entry[j] = (byte) ('0' + offset % 10);
+				offset /= 10;
+			}
+			out.write(entry);
+		}
+		write("trailer\n<<\n/Size " + (objectCount + 1) + "\n/Root " + catalog + " 0 R\n>>\nstartxref\n" + xref + "\n%%EOF\n");
+		out.flush();
+	}
+
+	/**
+	 * Write a compressed cross reference stream and the end of the file, in compact mode or when
+	 * the file is too large for a cross reference table.
+	 * 
+	 * @param catalog the object number of the catalog
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeCrossReferenceStream(int catalog) throws IOException {
+		int number = allocate();
+		long xref = file.count;
+		offsets[number] = xref;
+		
+		// Each entry is its type, then the offset or object stream, then the index in the object stream
+		int width = 1;
+		while (width < 8 && (Math.max(xref, objectCount) >>> (8 * width)) != 0) {
+			++width;
+		}
+		ByteArrayOutputStream entries = new ByteArrayOutputStream((objectCount + 1) * (width + 3));
+		writeField(entries, 0, 1);
+		writeField(entries, 0, width);
+		writeField(entries, 0xffff, 2);
+		for (int i = 1; i <= objectCount; ++i) {
+			if (objectStreams[i] != 0) {
+				writeField(entries, 2, 1);
+				writeField(entries, objectStreams[i], width);
+				writeField(entries, offsets[i], 2);
+			} else {
+				writeField(entries, 1, 1);
+				writeField(entries, offsets[i], width);
+				writeField(entries, 0, 2);
+			}
+		}
+		byte[] data = deflate(entries.toByteArray(), compressionLevel);
+		
+		write(number + " 0 obj\n<<\n/Type /XRef\n/Size " + (objectCount + 1) + "\n/W [1 " + width + " 2]\n/Root " + catalog
+				+ " 0 R\n/Filter /FlateDecode\n/Length " + data.length + "\n>>\nstream\n");
+		out.write(data);
+		write("\nendstream\nendobj\nstartxref\n" + xref + "\n%%EOF\n");
+		out.flush();
+	}
+
+	/**
+	 * Write one field of a cross reference stream entry, most significant byte first.
+	 * 
+	 * @param entries the entries
+	 * @param value the value of the field
+	 * @param width the width of the field, in bytes
+	 */
+	private static void writeField(ByteArrayOutputStream entries, long value, int width) {
+		for (int i = width - 1; i >= 0; --i) {
+			entries.write((int) (value >>> (8 * i)));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (compressor != null) {
+			compressor.shutdownNow();
+		}
+		file.close();
+	}
+
+	/**
+	 * Returns the number of bytes written so far.
+	 * 
+	 * @return the size of the PDF, in bytes
+	 */
+	public long getBytesWritten() {
+		return file.count;
+	}
+
+	/**
+	 * Returns the number of pages written so far.
+	 * 
+	 * @return the number of pages
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Write a page, pointing it at its node of the new page tree and giving it any attributes it
+	 * inherited from the loaded PDF's page tree.
+	 * 
+	 * @param dict the page in the loaded PDF
+	 * @param number the object number of the page
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writePage(COSDictionary dict, int number, Source source) throws IOException {
+		int parent = addPage(number);
+		beginObject(number);
+		write("<<\n/Parent " + parent + " 0 R");
+		for (Map.Entry<COSName, COSBase> entry : detachPage(dict).entrySet()) {
+			writeEntry(entry.getKey(), entry.getValue(), source);
+		}
+		write("\n>>");
+		endObject();
+	}
+
+	/**
+	 * Write a page copied straight from the file, pointing it at its node of the new page tree and
+	 * giving it any attributes it inherited from the PDF's page tree.
+	 * 
+	 * @param page the page in the PDF
+	 * @param number the object number of the page
+	 * @param source what has been written from the PDF
+	 * @throws IOException if the PDF cannot be read or the file cannot be written
+	 */
+	private void writeRawPage(RawPage page, int number, Source source) throws IOException {
+		int parent = addPage(number);
+		beginObject(number);
+		write("<<\n/Parent " + parent + " 0 R");
+		RawObject dict = page.page;
+		for (int i = 0; i < dict.entryCount; ++i) {
+			if (!dict.keys[i].equals("Parent")) {
+				writeRawEntry(dict, i, source);
+			}
+		}
+		for (COSName key : INHERITABLE) {
+			if (dict.indexOf(key.getName()) < 0) {
+				RawObject ancestor = page.inherited(key.getName());
+				if (ancestor != null) {
+					writeRawEntry(ancestor, ancestor.indexOf(key.getName()), source);
+				}
+			}
+		}
+		write("\n>>");
+		endObject();
+	}
+
+	/**
+	 * Add a page to the new page tree, numbering a new leaf node for it if the last one is full.
+	 * 
+	 * @param number the object number of the page
+	 * @return the object number of the page's leaf node
+	 */
+	private int addPage(int number) {
+		if (pageCount % PAGE_TREE_FANOUT == 0) {
+			int leaf = pageCount / PAGE_TREE_FANOUT;
+			if (leaf == leafNumbers.length) {
+				leafNumbers = Arrays.copyOf(leafNumbers, leaf * 2);
+			}
+			leafNumbers[leaf] = allocate();
+		}
+		if (pageCount == pageNumbers.length) {
+			pageNumbers = Arrays.copyOf(pageNumbers, pageCount * 2);
+		}
+		pageNumbers[pageCount] = number;
+		int parent = leafNumbers[pageCount / PAGE_TREE_FANOUT];
+		++pageCount;
+		return parent;
+	}
+
+	/**
+	 * Copy a page without its parent, giving it any attributes it inherited from its ancestors.
+	 * The copy shares all of its values with the page.
+	 * 
+	 * @param dict the page
+	 * @return the copy
+	 */
+	static COSDictionary detachPage(COSDictionary dict) {
+		COSDictionary copy = new COSDictionary();
+		for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+			if (!entry.getKey().equals(COSName.PARENT)) {
+				copy.setItem(entry.getKey(), entry.getValue());
+			}
+		}
+		for (COSName key : INHERITABLE) {
+			if (!copy.containsKey(key)) {
+				COSBase value = inheritedAttribute(dict, key);
+				if (value != null) {
+					copy.setItem(key, value);
+				}
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Look up an attribute a page inherits from its ancestors.
+	 * 
+	 * @param dict the page
+	 * @param key the attribute
+	 * @return the attribute's value, or {@code null} if no ancestor has it
+	 */
+	private static COSBase inheritedAttribute(COSDictionary dict, COSName key) {
+		COSBase parent = dict.getDictionaryObject(COSName.PARENT);
+		// Bounded, in case of a page tree with a loop
+		for (int depth = 0; parent instanceof COSDictionary && depth < 256; ++depth) {
+			COSBase value = ((COSDictionary) parent).getItem(key);
+			if (value != null) {
+				return value;
+			}
+			parent = ((COSDictionary) parent).getDictionaryObject(COSName.PARENT);
+		}
+		return null;
+	}
+
+	/**
+	 * Write every object that has been numbered but not written yet, along with those they use in turn.
+	 * 
+	 * @throws IOException if the loaded PDF cannot be read or the file cannot be written
+	 */
+	private void writePending() throws IOException {
+		while (!pending.isEmpty()) {
+			Pending next = pending.poll();
+			if (next.raw != null) {
+				if (next.raw.stream) {
+					writeRawStreamObject(next.raw, next.number, next.source);
+				} else {
+					beginObject(next.number);
+					writeRawSpan(next.raw, next.raw.start, next.raw.end, next.source);
+					endObject();
+				}
+			} else if (next.object instanceof COSStream) {
+				writeStreamObject((COSStream) next.object, next.number, next.source);
+			} else {
+				beginObject(next.number);
+				writeValue(next.object, next.source);
+				endObject();
+			}
+		}
+	}
+
+	/**
+	 * Write a stream as an object of its own, since streams cannot go in an object stream. In compact
+	 * mode a stream that is not compressed at all is compressed first, possibly on another thread.
+	 * 
+	 * @param stream the stream
+	 * @param number the object number of the stream
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the loaded PDF cannot be read or the file cannot be written
+	 */
+	private void writeStreamObject(COSStream stream, int number, Source source) throws IOException {
+		start();
+		if (compact && !stream.containsKey(COSName.FILTER)) {
+			ByteArrayOutputStream dict = new ByteArrayOutputStream();
+			CountingOutputStream saved = out;
+			out = new CountingOutputStream(dict);
+			try {
+				write(number + " 0 obj\n<<");
+				for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+					COSName key = entry.getKey();
+					if (!key.equals(COSName.LENGTH) && !key.equals(COSName.DECODE_PARMS) && !key.equals(COSName.DL)) {
+						writeEntry(key, entry.getValue(), source);
+					}
+				}
+			} finally {
+				out = saved;
+			}
+			
+			ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.min(stream.getLength(), Integer.MAX_VALUE - 8));
+			InputStream raw = stream.createRawInputStream();
+			try {
+				int n;
+				while ((n = raw.read(buffer)) != -1) {
+					data.write(buffer, 0, n);
+				}
+			} finally {
+				raw.close();
+			}
+			compress(number, dict.toByteArray(), data.toByteArray(), true);
+			return;
+		}
+		
+		offsets[number] = file.count;
+		write(number + " 0 obj\n");
+		writeStream(stream, source);
+		write("\nendobj\n");
+	}
+
+	/**
+	 * Write a stream copied straight from the file as an object of its own, compressing it first
+	 * in compact mode if it is not compressed at all.
+	 * 
+	 * @param stream the stream
+	 * @param number the object number of the stream
+	 * @param source what has been written from the PDF
+	 * @throws IOException if the PDF cannot be read or the file cannot be written
+	 */
+	private void writeRawStreamObject(RawObject stream, int number, Source source) throws IOException {
+		start();
+		boolean recompress = compact && stream.indexOf("Filter") < 0;
+		ByteArrayOutputStream dict = new ByteArrayOutputStream();
+		CountingOutputStream saved = out;
+		if (recompress) {
+			out = new CountingOutputStream(dict);
+		} else {
+			offsets[number] = file.count;
+		}
+		try {
+			write(number + " 0 obj\n<<");
+			for (int i = 0; i < stream.entryCount; ++i) {
+				String key = stream.keys[i];
+				if (!key.equals("Length") && !(recompress && (key.equals("DecodeParms") || key.equals("DL")))) {
+					writeRawEntry(stream, i, source);
+				}
+			}
+		} finally {
+			out = saved;
+		}
+		
+		if (recompress) {
+			ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.min(stream.dataLength, Integer.MAX_VALUE - 8));
+			source.raw.copy(stream.dataStart, stream.dataLength, data);
+			compress(number, dict.toByteArray(), data.toByteArray(), true);
+			return;
+		}
+		write("\n/Length " + stream.dataLength + "\n>>\nstream\n");
+		source.raw.copy(stream.dataStart, stream.dataLength, out);
+		write("\nendstream\nendobj\n");
+	}
+
+	/**
+	 * Compress a stream and queue it to be written, writing any queued streams that are done.
+	 * 
+	 * @param number the object number of the stream
+	 * @param dict the start of the object, up to the stream's dictionary entries other than its length and filter
+	 * @param data the stream's data
+	 * @param optional whether to leave the data as it is if compressing does not make it smaller
+	 * @throws IOException if the file cannot be written
+	 */
+	private void compress(int number, final byte[] dict, final byte[] data, final boolean optional) throws IOException {
+		final int level = compressionLevel;
+		Callable<byte[]> task = new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				byte[] compressed = deflate(data, level);
+				boolean keep = !optional || compressed.length < data.length;
+				byte[] body = keep ? compressed : data;
+				ByteArrayOutputStream object = new ByteArrayOutputStream(dict.length + body.length + 64);
+				object.write(dict);
+				object.write(((keep ? "\n/Filter /FlateDecode" : "") + "\n/Length " + body.length + "\n>>\nstream\n")
+						.getBytes(StandardCharsets.US_ASCII));
+				object.write(body);
+				object.write("\nendstream\nendobj\n".getBytes(StandardCharsets.US_ASCII));
+				return object.toByteArray();
+			}
+		};
+		
+		Future<byte[]> future;
+		if (compressor == null) {
+			FutureTask<byte[]> inline = new FutureTask<byte[]>(task);
+			inline.run();
+			future = inline;
+		} else {
+			future = compressor.submit(task);
+		}
+		chunks.add(new Chunk(number, future));
+		
+		// Only a few compressed objects wait in memory at once
+		while (!chunks.isEmpty() && (chunks.peek().data.isDone() || chunks.size() > 2 * compressionThreads)) {
+			writeChunk(chunks.poll());
+		}
+	}
+
+	/**
+	 * Write a compressed object once it is done.
+	 * 
+	 * @param chunk the object
+	 * @throws IOException if it could not be compressed or the file cannot be written
+	 */
+	private void writeChunk(Chunk chunk) throws IOException {
+		byte[] data;
+		try {
+			data = chunk.data.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		offsets[chunk.number] = file.count;
+		file.write(data);
+	}
+
+	/**
+	 * Compress data with Flate.
+	 * 
+	 * @param data the data
+	 * @param level the compression level
+	 * @return the compressed data
+	 */
+	private static byte[] deflate(byte[] data, int level) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] chunk = new byte[1 << 14];
+			while (!deflater.finished()) {
+				compressed.write(chunk, 0, deflater.deflate(chunk));
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Queue the objects packed so far as a compressed object stream, in compact mode.
+	 * 
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeObjectStream() throws IOException {
+		if (batchSize == 0) {
+			return;
+		}
+		
+		int number = allocate();
+		StringBuilder index = new StringBuilder();
+		for (int i = 0; i < batchSize; ++i) {
+			// Objects in an object stream are found by the object stream and their index in it
+			objectStreams[batchNumbers[i]] = number;
+			offsets[batchNumbers[i]] = i;
+			index.append(batchNumbers[i]).append(' ').append(batchOffsets[i]).append(' ');
+		}
+		byte[] header = index.toString().getBytes(StandardCharsets.US_ASCII);
+		ByteArrayOutputStream data = new ByteArrayOutputStream(header.length + batchData.size());
+		data.write(header);
+		batchData.writeTo(data);
+		
+		byte[] dict = (number + " 0 obj\n<<\n/Type /ObjStm\n/N " + batchSize + "\n/First " + header.length)
+				.getBytes(StandardCharsets.US_ASCII);
+		batchData.reset();
+		batchOut.count = 0;
+		batchSize = 0;
+		compress(number, dict, data.toByteArray(), false);
+	}
+
+	/**
+	 * Write a stream's dictionary and its data exactly as they are stored, IE without decoding it.
+	 * 
+	 * @param stream the stream
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the loaded PDF cannot be read or the file cannot be written
+	 */
+	private void writeStream(COSStream stream, Source source) throws IOException {
+		write("<<");
+		for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+			if (!entry.getKey().equals(COSName.LENGTH)) {
+				writeEntry(entry.getKey(), entry.getValue(), source);
+			}
+		}
+		write("\n/Length " + stream.getLength() + "\n>>\nstream\n");
+		InputStream data = stream.createRawInputStream();
+		try {
+			int n;
+			while ((n = data.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			data.close();
+		}
+		write("\nendstream");
+	}
+
+	/**
+	 * Write one entry of a dictionary.
+	 * 
+	 * @param key the key
+	 * @param value the value
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeEntry(COSName key, COSBase value, Source source) throws IOException {
+		write("\n");
+		key.writePDF(out);
+		write(" ");
+		writeValue(value, source);
+	}
+
+	/**
+	 * Write a value directly, or a reference to it if it is an object of its own.
+	 * 
+	 * @param value the value
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeValue(COSBase value, Source source) throws IOException {
+		if (value instanceof COSObject) {
+			writeReference(((COSObject) value).getObject(), source);
+		} else if (value instanceof COSStream) {
+			// Streams can only be stored as objects of their own
+			writeReference(value, source);
+		} else if (value instanceof COSDictionary) {
+			write("<<");
+			for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) value).entrySet()) {
+				writeEntry(entry.getKey(), entry.getValue(), source);
+			}
+			write("\n>>");
+		} else if (value instanceof COSArray) {
+			COSArray array = (COSArray) value;
+			write("[");
+			for (int i = 0; i < array.size(); ++i) {
+				if (i > 0) {
+					write(" ");
+				}
+				writeValue(array.get(i), source);
+			}
+			write("]");
+		} else if (value instanceof COSString) {
+			COSWriter.writeString((COSString) value, out);
+		} else if (value instanceof COSName) {
+			((COSName) value).writePDF(out);
+		} else if (value instanceof COSInteger) {
+			((COSInteger) value).writePDF(out);
+		} else if (value instanceof COSFloat) {
+			((COSFloat) value).writePDF(out);
+		} else if (value instanceof COSBoolean) {
+			((COSBoolean) value).writePDF(out);
+		} else {
+			write("null");
+		}
+	}
+
+	/**
+	 * Write a reference to an object, numbering it to be written later if it has not been yet.
+	 * 
+	 * @param target the object
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeReference(COSBase target, Source source) throws IOException {
+		if (target == null) {
+			write("null");
+			return;
+		}
+		if (replacements != null) {
+			COSStream replacement = replacements.get(target);
+			if (replacement != null) {
+				target = replacement;
+			}
+		}
+		if (hashingContents) {
+			hashReference(target, source);
+			return;
+		}
+		
+		Integer number = source.written.get(target);
+		if (number == null) {
+			if (isPageTreeNode(target)) {
+				// Only pages that are in the new PDF can be pointed at
+				number = source.pages.get(target);
+				write(number == null ? "null" : number + " 0 R");
+				return;
+			}
+			
+			ByteBuffer hash = null;
+			if (resourcesByHash != null && isSharedResource(target)) {
+				hash = contentHash((COSStream) target, source);
+				number = resourcesByHash.get(hash);
+			}
+			if (number == null) {
+				number = allocate();
+				pending.add(new Pending(target, number, source));
+				if (hash != null) {
+					resourcesByHash.put(hash, number);
+				}
+			}
+			source.written.put(target, number);
+		}
+		write(number + " 0 R");
+	}
+
+	/**
+	 * Write the contents of an object a resource being hashed points at in place of a reference to
+	 * it, so nothing is numbered. A reference back to an object already being hashed, and to a page,
+	 * is written as a marker instead.
+	 * 
+	 * @param target the object
+	 * @param source what has been written from the loaded PDF
+	 * @throws IOException if the loaded PDF cannot be read
+	 */
+	private void hashReference(COSBase target, Source source) throws IOException {
+		if (isPageTreeNode(target)) {
+			write("page");
+			return;
+		}
+		if (!hashing.add(target)) {
+			write("back");
+			return;
+		}
+		try {
+			if (!(target instanceof COSStream)) {
+				write("obj ");
+				writeValue(target, source);
+				return;
+			}
+			COSStream stream = (COSStream) target;
+			write("stream <<");
+			for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+				if (!entry.getKey().equals(COSName.LENGTH)) {
+					writeEntry(entry.getKey(), entry.getValue(), source);
+				}
+			}
+			write("\n>> " + stream.getLength() + " ");
+			InputStream data = stream.createRawInputStream();
+			try {
+				byte[] chunk = new byte[1 << 16];
+				int n;
+				while ((n = data.read(chunk)) != -1) {
+					out.write(chunk, 0, n);
+				}
+			} finally {
+				data.close();
+			}
+		} finally {
+			hashing.remove(target);
+		}
+	}
+
+	/**
+	 * Write one entry of a dictionary copied straight from the file.
+	 * 
+	 * @param dict the dictionary
+	 * @param entry the index of the entry
+	 * @param source what has been written from the PDF
+	 * @throws IOException if the PDF cannot be read or the file cannot be written
+	 */
+	private void writeRawEntry(RawObject dict, int entry, Source source) throws IOException {
+		write("\n");
+		writeRawSpan(dict, dict.keyStarts[entry], dict.valueEnds[entry], source);
+	}
+
+	/**
+	 * Copy part of an object straight from the file, renumbering the references in it.
+	 * 
+	 * @param object the object
+	 * @param from where the part starts in the file
+	 * @param to where the part ends in the file
+	 * @param source what has been written from the PDF
+	 * @throws IOException if the PDF cannot be read or the file cannot be written
+	 */
+	private void writeRawSpan(RawObject object, long from, long to, Source source) throws IOException {
+		long pos = from;
+		for (int i = 0; i < object.refCount; ++i) {
+			if (object.refStarts[i] >= from && object.refEnds[i] <= to) {
+				source.raw.copy(pos, object.refStarts[i] - pos, out);
+				writeRawReference(object.refNumbers[i], object.refGenerations[i], source);
+				pos = object.refEnds[i];
+			}
+		}
+		source.raw.copy(pos, to - pos, out);
+	}
+
+	/**
+	 * Write a reference to an object of a PDF read by a {@link RawPDFReader}, numbering it to be
+	 * written later if it has not been yet.
+	 * 
+	 * @param target the object number in the PDF
+	 * @param generation the generation the object is referred to by
+	 * @param source what has been written from the PDF
+	 * @throws IOException if the PDF cannot be read or the file cannot be written
+	 */
+	private void writeRawReference(int target, int generation, Source source) throws IOException {
+		if (hashingContents) {
+			hashRawReference(target, generation, source);
+			return;
+		}
+		Integer number = source.rawWritten.get(target);
+		if (number == null) {
+			RawObject object = source.raw.read(target, generation);
+			if (object == null) {
+				write("null");
+				return;
+			}
+			if (!object.stream && object.isPageTreeNode()) {
+				number = source.rawPages.get(target);
+				write(number == null ? "null" : number + " 0 R");
+				return;
+			}
+			
+			ByteBuffer hash = null;
+			if (resourcesByHash != null && isSharedResource(object)) {
+				source.rawHashing.add(target);
+				try {
+					hash = contentHash(object, source);
+				} finally {
+					source.rawHashing.remove(target);
+				}
+				number = resourcesByHash.get(hash);
+			}
+			if (number == null) {
+				number = allocate();
+				pending.add(new Pending(object, number, source));
+				if (hash != null) {
+					resourcesByHash.put(hash, number);
+				}
+			}
+			source.rawWritten.put(target, number);
+		}
+		write(number + " 0 R");
+	}
+
+	/**
+	 * Write the contents of an object a resource copied straight from the file points at, in place
+	 * of a reference to it, as {@link #hashReference(COSBase, Source)} does.
+	 * 
+	 * @param target the object number in the PDF
+	 * @param generation the generation the object is referred to by
+	 * @param source what has been written from the PDF
+	 * @throws IOException if the PDF cannot be read
+	 */
+	private void hashRawReference(int target, int generation, Source source) throws IOException {
+		RawObject object = source.raw.read(target, generation);
+		if (object == null) {
+			write("null");
+			return;
+		}
+		if (!object.stream && object.isPageTreeNode()) {
+			write("page");
+			return;
+		}
+		if (!source.rawHashing.add(target)) {
+			write("back");
+			return;
+		}
+		try {
+			if (!object.stream) {
+				write("obj ");
+				writeRawSpan(object, object.start, object.end, source);
+				return;
+			}
+			write("stream <<");
+			for (int i = 0; i < object.entryCount; ++i) {
+				if (!object.keys[i].equals("Length")) {
+					writeRawEntry(object, i, source);
+				}
+			}
+			write("\n>> " + object.dataLength + " ");
+			source.raw.copy(object.dataStart, object.dataLength, out);
+		} finally {
+			source.rawHashing.remove(target);
+		}
+	}
+
+	/**
+	 * Returns whether an object is a font program, image or ICC profile, which are often the
+	 * same in several PDFs and so are worth matching by their contents.
+	 * 
+	 * @param object the object
+	 * @return {@code true} if it should be matched by its contents
+	 */
+	private boolean isSharedResource(COSBase object) {
+		if (!(object instanceof COSStream)) {
+			return false;
+		}
+		COSStream stream = (COSStream) object;
+		COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+		return COSName.IMAGE.equals(subtype)
+				|| stream.containsKey(COSName.LENGTH1) || stream.containsKey(COSName.LENGTH2)
+				|| TYPE1C.equals(subtype) || CID_FONT_TYPE0C.equals(subtype) || COSName.OPEN_TYPE.equals(subtype)
+				|| (subtype == null && stream.containsKey(COSName.N) && !stream.containsKey(COSName.TYPE));
+	}
+
+	/**
+	 * Returns whether an object copied straight from the file is a font program, image or ICC profile.
+	 * 
+	 * @param object the object
+	 * @return {@code true} if it should be matched by its contents
+	 */
+	private boolean isSharedResource(RawObject object) {
+		if (!object.stream) {
+			return false;
+		}
+		String subtype = object.get("Subtype");
+		return "/Image".equals(subtype)
+				|| object.indexOf("Length1") >= 0 || object.indexOf("Length2") >= 0
+				|| "/Type1C".equals(subtype) || "/CIDFontType0C".equals(subtype) || "/OpenType".equals(subtype)
+				|| (subtype == null && object.indexOf("N") >= 0 && object.indexOf("Type") < 0);
+	}
+
+	/**
+	 * Hash a stream copied straight from the file, as {@link #contentHash(COSStream, Source)} does.
+	 * 
+	 * @param stream the stream
+	 * @param source what has been written from the PDF
+	 * @return the hash
+	 * @throws IOException if the PDF cannot be read
+	 */
+	private ByteBuffer contentHash(RawObject stream, Source source) throws IOException {
+		MessageDigest digest = newDigest();
+		CountingOutputStream saved = out;
+		out = new CountingOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+		hashingContents = true;
+		try {
+			for (int i = 0; i < stream.entryCount; ++i) {
+				if (!stream.keys[i].equals("Length")) {
+					writeRawEntry(stream, i, source);
+				}
+			}
+			out.write(0);
+			source.raw.copy(stream.dataStart, stream.dataLength, out);
+		} finally {
+			out = saved;
+			hashingContents = false;
+		}
+		return ByteBuffer.wrap(digest.digest());
+	}
+
+	/**
+	 * Create the digest resources are hashed with.
+	 * 
+	 * @return the digest
+	 * @throws IOException if it is not available
+	 */
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Hash a stream's dictionary and its data. Objects the dictionary points at are hashed by their
+	 * contents in place of references, so two streams only match if they point at matching objects
+	 * too, and nothing is numbered for a stream that turns out to have been written already.
+	 * 
+	 * @param stream the stream
+	 * @param source what has been written from the loaded PDF
+	 * @return the hash
+	 * @throws IOException if the loaded PDF cannot be read
+	 */
+	private ByteBuffer contentHash(COSStream stream, Source source) throws IOException {
+		MessageDigest digest = newDigest();
+		CountingOutputStream saved = out;
+		out = new CountingOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+		hashingContents = true;
+		hashing.add(stream);
+		try {
+			for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+				if (!entry.getKey().equals(COSName.LENGTH)) {
+					writeEntry(entry.getKey(), entry.getValue(), source);
+				}
+			}
+		} finally {
+			out = saved;
+			hashingContents = false;
+			hashing.remove(stream);
+		}
+		
+		digest.update((byte) 0);
+		InputStream data = stream.createRawInputStream();
+		try {
+			byte[] chunk = new byte[1 << 16];
+			int n;
+			while ((n = data.read(chunk)) != -1) {
+				digest.update(chunk, 0, n);
+			}
+		} finally {
+			data.close();
+		}
+		return ByteBuffer.wrap(digest.digest());
+	}
+
+	/**
+	 * Returns whether an object is a page or a node of a loaded PDF's page tree.
+	 * 
+	 * @param object the object
+	 * @return {@code true} if it is part of a page tree
+	 */
+	private boolean isPageTreeNode(COSBase object) {
+		if (!(object instanceof COSDictionary) || object instanceof COSStream) {
+			return false;
+		}
+		COSName type = ((COSDictionary) object).getCOSName(COSName.TYPE);
+		return COSName.PAGE.equals(type) || COSName.PAGES.equals(type);
+	}
+
+	/**
+	 * Give out the next object number.
+	 * 
+	 * @return the object number
+	 */
+	private int allocate() {
+		++objectCount;
+		if (objectCount == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			objectStreams = Arrays.copyOf(objectStreams, objectStreams.length * 2);
+		}
+		return objectCount;
+	}
+
+	/**
+	 * Start writing an object other than a stream, recording where it starts. In compact mode it
+	 * is added to the object stream being packed instead.
+	 * 
+	 * @param number the object number
+	 * @throws IOException if the file cannot be written
+	 */
+	private void beginObject(int number) throws IOException {
+		start();
+		if (compact) {
+			batchNumbers[batchSize] = number;
+			batchOffsets[batchSize] = (int) batchOut.count;
+			out = batchOut;
+		} else {
+			offsets[number] = file.count;
+			write(number + " 0 obj\n");
+		}
+	}
+
+	/**
+	 * Finish writing an object other than a stream.
+	 * 
+	 * @throws IOException if the file cannot be written
+	 */
+	private void endObject() throws IOException {
+		if (out == batchOut) {
+			write("\n");
+			out = file;
+			if (++batchSize == OBJECTS_PER_STREAM || batchOut.count >= OBJECT_STREAM_SIZE) {
+				writeObjectStream();
+			}
+		} else {
+			write("\nendobj\n");
+		}
+	}
+
+	/**
+	 * Write text made only of ASCII characters.
+	 * 
+	 * @param text the text
+	 * @throws IOException if the file cannot be written
+	 */
+	private void write(String text) throws IOException {
+		out.write(text.getBytes(StandardCharsets.US_ASCII));
+	}
+
+}
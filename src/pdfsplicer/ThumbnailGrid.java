@@ -0,0 +1,116 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.Component;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingConstants;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * A scrollable grid of page thumbnails. Only the cells in view are painted, so only their
+ * thumbnails are ever rendered, by a {@link ThumbnailLoader}.
+ * 
+ * @author Abeer Ahmed
+ */
+public class ThumbnailGrid extends JScrollPane {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int THUMBNAIL_SIZE = 96;
+
+	/**
+	 * Told when a thumbnail is double clicked.
+	 */
+	public interface PageListener {
+
+		/**
+		 * Called when a thumbnail is double clicked.
+		 * 
+		 * @param pageNum the number of the page, starting at 1
+		 */
+		void pageChosen(int pageNum);
+
+	}
+
+	private JList<PageLocation> lstThumbnails;
+	private ThumbnailLoader loader;
+
+	/**
+	 * Create a new grid.
+	 * 
+	 * @param pages the pages to show
+	 * @param renderCache the cache whose disk tier the thumbnails are kept in
+	 * @param listener told when a thumbnail is double clicked
+	 */
+	public ThumbnailGrid(PageListModel pages, RenderCache renderCache, final PageListener listener) {
+		lstThumbnails = new JList<PageLocation>(pages);
+		lstThumbnails.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+		lstThumbnails.setVisibleRowCount(-1);
+		lstThumbnails.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		lstThumbnails.setFixedCellWidth(THUMBNAIL_SIZE + 16);
+		lstThumbnails.setFixedCellHeight(THUMBNAIL_SIZE + 32);
+		setViewportView(lstThumbnails);
+
+		loader = new ThumbnailLoader(THUMBNAIL_SIZE, ThumbnailLoader.DEFAULT_CAPACITY, renderCache, new Runnable() {
+			public void run() {
+				lstThumbnails.repaint();
+			}
+		});
+
+		lstThumbnails.setCellRenderer(new DefaultListCellRenderer() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+					boolean isSelected, boolean cellHasFocus) {
+				super.getListCellRendererComponent(list, Integer.toString(index + 1), index, isSelected, cellHasFocus);
+				setIcon(loader.get(index, (PageLocation) value));
+				setHorizontalAlignment(SwingConstants.CENTER);
+				setVerticalTextPosition(SwingConstants.BOTTOM);
+				setHorizontalTextPosition(SwingConstants.CENTER);
+				return this;
+			}
+		});
+
+		getViewport().addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				loader.setVisibleRange(lstThumbnails.getFirstVisibleIndex(), lstThumbnails.getLastVisibleIndex());
+			}
+		});
+
+		lstThumbnails.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int index = lstThumbnails.locationToIndex(e.getPoint());
+				if (e.getClickCount() == 2 && index != -1) {
+					listener.pageChosen(index + 1);
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Renders page thumbnails for a {@link ThumbnailGrid} on demand. Thumbnails are rendered on
+ * background threads only when a visible cell asks for one, and are kept in a fixed size
+ * least recently used cache, so the thumbnails of cells scrolled out of view are dropped and
+ * heap use does not grow with the length of the document. Thumbnails are kept out of the
+ * memory tiers of the {@link RenderCache} so they do not push out previews, but share its disk tier.
+ * 
+ * @author Abeer Ahmed
+ */
+public class ThumbnailLoader {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private int size;
+	private int capacity;
+	private RenderCache renderCache;
+	private Runnable onLoaded;
+	private ExecutorService executor;
+	private LinkedHashMap<RenderCache.Key, ImageIcon> thumbnails;
+	private Set<RenderCache.Key> queued;
+
+	// Range of cells in view, updated from the event thread
+	private volatile int firstVisible;
+	private volatile int lastVisible;
+
+	/**
+	 * Create a new loader.
+	 * 
+	 * @param size the width and height of the box each thumbnail is fitted into, in pixels
+	 * @param capacity the most thumbnails kept
+	 * @param renderCache the cache whose disk tier is checked before rendering
+	 * @param onLoaded run on the event thread whenever a thumbnail is ready
+	 */
+	public ThumbnailLoader(int size, int capacity, RenderCache renderCache, Runnable onLoaded) {
+		this.size = size;
+		this.capacity = capacity;
+		this.renderCache = renderCache;
+		this.onLoaded = onLoaded;
+		thumbnails = new LinkedHashMap<RenderCache.Key, ImageIcon>(16, 0.75f, true);
+		queued = new HashSet<RenderCache.Key>();
+		lastVisible = Integer.MAX_VALUE;
+		executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PDF-Splicer thumbnails");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the thumbnail of a page, or starts rendering it in the background if it is not ready.
+	 * 
+	 * @param index the index of the cell showing the page
+	 * @param page the page
+	 * @return the thumbnail, or {@code null} if it is not ready yet
+	 */
+	public synchronized ImageIcon get(final int index, final PageLocation page) {
+		final float scale = Math.min(size / page.getPDF().getPageWidth(page.getPageIndex()),
+				size / page.getPDF().getPageHeight(page.getPageIndex()));
+		final RenderCache.Key key = new RenderCache.Key(page.getPDF(), page.getPageIndex(), scale, ImageType.RGB);
+		ImageIcon thumbnail = thumbnails.get(key);
+		if (thumbnail != null || !queued.add(key)) {
+			return thumbnail;
+		}
+
+		executor.execute(new Runnable() {
+			public void run() {
+				ImageIcon thumbnail = null;
+				// Cells scrolled out of view before their turn are skipped, and asked for again if shown
+				if (index >= firstVisible && index <= lastVisible) {
+					try {
+						thumbnail = render(page, scale);
+					} catch (IOException e) {
+						// The PDF was removed, or cannot be read, so the cell stays blank
+					}
+				}
+				loaded(key, thumbnail);
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * Render a thumbnail, or read it from the disk cache.
+	 * 
+	 * @param page the page
+	 * @param scale the scale to render at
+	 * @return the thumbnail
+	 * @throws IOException if the PDF cannot be read
+	 */
+	private ImageIcon render(PageLocation page, float scale) throws IOException {
+		DiskRenderCache disk = renderCache.getDiskCache();
+		BufferedImage image = disk == null ? null : disk.get(page.getPDF(), page.getPageIndex(), scale, ImageType.RGB);
+		if (image == null) {
+			PDDocument doc = page.getPDF().acquire();
+			try {
+				image = new PDFRenderer(doc).renderImage(page.getPageIndex(), scale, ImageType.RGB);
+			} finally {
+				page.getPDF().release();
+			}
+			if (disk != null) {
+				disk.put(page.getPDF(), page.getPageIndex(), scale, ImageType.RGB, image);
+			}
+		}
+		return new ImageIcon(image);
+	}
+
+	/**
+	 * Keep a finished thumbnail, dropping the least recently used ones if over capacity.
+	 * 
+	 * @param key the rendering
+	 * @param thumbnail the thumbnail, or {@code null} if it was not rendered
+	 */
+	private void loaded(RenderCache.Key key, ImageIcon thumbnail) {
+		synchronized (this) {
+			queued.remove(key);
+			if (thumbnail == null) {
+				return;
+			}
+			thumbnails.put(key, thumbnail);
+			while (thumbnails.size() > capacity) {
+				thumbnails.remove(thumbnails.keySet().iterator().next());
+			}
+		}
+		SwingUtilities.invokeLater(onLoaded);
+	}
+
+	/**
+	 * Set the range of cells currently in view. Only thumbnails for these are rendered.
+	 * 
+	 * @param firstVisible the index of the first cell in view
+	 * @param lastVisible the index of the last cell in view
+	 */
+	public void setVisibleRange(int firstVisible, int lastVisible) {
+		this.firstVisible = firstVisible;
+		this.lastVisible = lastVisible;
+	}
+
+	/**
+	 * Returns the number of thumbnails kept.
+	 * 
+	 * @return the number of thumbnails
+	 */
+	public synchronized int getCachedCount() {
+		return thumbnails.size();
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * PDFSplicer is a way to create a custom PDF from selected pages from several different existing PDFs.
+ * Copyright (C) 2016  Abeer Ahmed
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pdfsplicer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of edits to a {@link SplicerModel}'s PDFs and page ranges that are applied together by
+ * {@link SplicerModel#apply(Transaction)}. Every edit is checked against the state left by the
+ * ones before it before any of them are made, so either all of them are applied or none are,
+ * and the views are only notified, and the finalized PDF preview only rendered, once at the end.
+ * PDFs are named rather than indexed, so removing one does not move the others.
+ * 
+ * @author Abeer Ahmed
+ */
+public class Transaction {
+
+	/**
+	 * The kinds of edit.
+	 */
+	enum Type {
+		ADD_PAGE_RANGE, REMOVE_PAGE_RANGE, MOVE_PAGE_RANGE, REMOVE_PDF
+	}
+
+	/**
+	 * A single edit.
+	 */
+	static class Operation {
+
+		final Type type;
+		final String pdfName;
+		final String pages;
+		final int index;
+		final int target;
+
+		private Operation(Type type, String pdfName, String pages, int index, int target) {
+			this.type = type;
+			this.pdfName = pdfName;
+			this.pages = pages;
+			this.index = index;
+			this.target = target;
+		}
+
+	}
+
+	private List<Operation> operations;
+	private int failedOperation;
+
+	/**
+	 * Create a new, empty transaction.
+	 */
+	public Transaction() {
+		operations = new ArrayList<Operation>();
+		failedOperation = -1;
+	}
+
+	/**
+	 * Add a range of pages from a loaded PDF to the end of the new PDF.
+	 * 
+	 * @param pdfName the name of the PDF the pages come from
+	 * @param pages the range of pages, in the syntax of {@link PageRangeCompiler}
+	 * @return this transaction
+	 */
+	public Transaction addPageRange(String pdfName, String pages) {
+		operations.add(new Operation(Type.ADD_PAGE_RANGE, pdfName, pages, -1, -1));
+		return this;
+	}
+
+	/**
+	 * Remove a page range from the new PDF.
+	 * 
+	 * @param index the index of the page range, after the edits before this one
+	 * @return this transaction
+	 */
+	public Transaction removePageRange(int index) {
+		operations.add(new Operation(Type.REMOVE_PAGE_RANGE, null, null, index, -1));
+		return this;
+	}
+
+	/**
+	 * Move a page range to another place in the new PDF.
+	 * 
+	 * @param index the index of the page range, after the edits before this one
+	 * @param target the index the page range ends up at
+	 * @return this transaction
+	 */
+	public Transaction movePageRange(int index, int target) {
+		operations.add(new Operation(Type.MOVE_PAGE_RANGE, null, null, index, target));
+		return this;
+	}
+
+	/**
+	 * Remove a loaded PDF, along with all of the page ranges taken from it.
+	 * 
+	 * @param pdfName the name of the PDF
+	 * @return this transaction
+	 */
+	public Transaction removePDF(String pdfName) {
+		operations.add(new Operation(Type.REMOVE_PDF, pdfName, null, -1, -1));
+		return this;
+	}
+
+	/**
+	 * Returns the edits, in the order they are applied.
+	 * 
+	 * @return the edits
+	 */
+	List<Operation> getOperations() {
+		return operations;
+	}
+
+	/**
+	 * Record which edit could not be applied.
+	 * 
+	 * @param failedOperation the index of the edit, or -1
+	 */
+	void setFailedOperation(int failedOperation) {
+		this.failedOperation = failedOperation;
+	}
+
+	/**
+	 * Returns which edit stopped the last attempt to apply this transaction.
+	 * 
+	 * @return the index of the edit, in the order they were added, or -1 if it was applied
+	 */
+	public int getFailedOperation() {
+		return failedOperation;
+	}
+
+	/**
+	 * Returns the number of edits.
+	 * 
+	 * @return the number of edits
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * Returns whether there are no edits.
+	 * 
+	 * @return {@code true} if there are no edits
+	 */
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+
+}
@@ -27,5 +27,5 @@ public enum UIConstants {
 	IMAGE_LOADEDPDF, IMAGE_FINALPDF,							  	  // Different preview images
 	ERROR_NOERROR, ERROR_NOTPDF, ERROR_UNREADABLE, // Different error types
 	ERROR_NO_SELECTEDPDF, ERROR_INVALID_PAGENUM, ERROR_NO_SELECTEDPAGERANGE,
-	ERROR_CANNOT_SAVE
+	ERROR_CANNOT_SAVE, ERROR_CANCELLED
 }
@@ -0,0 +1,97 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing the headless command line mode.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestBatch {
+
+	PDDocument doc;
+	File[] files;
+	File output;
+	PrintStream err;
+	
+	@Before
+	public void before() throws Exception {
+		doc = new PDDocument();
+		for (int i = 0; i < 3; ++i) {
+			doc.addPage(new PDPage());
+		}
+		files = new File[2];
+		for (int i = 0; i < 2; ++i) {
+			doc.save(files[i] = new File("test" + i + ".pdf"));
+		}
+		output = new File("testbatch.pdf");
+		err = new PrintStream(new ByteArrayOutputStream());
+	}
+	
+	@Test
+	public void testSplice() throws Exception {
+		int exit = new SplicerBatch(err).run(new String[]{"-o", output.getPath(), "test0.pdf", "1,3", "test1.pdf", "all"});
+		assertEquals("Exit code is EXIT_OK", SplicerBatch.EXIT_OK, exit);
+		
+		PDDocument result = PDDocument.load(output);
+		assertEquals("Output has 5 pages", 5, result.getNumberOfPages());
+		result.close();
+	}
+	
+	@Test
+	public void testMissingOutput() {
+		int exit = new SplicerBatch(err).run(new String[]{"test0.pdf", "1"});
+		assertEquals("Exit code is EXIT_USAGE", SplicerBatch.EXIT_USAGE, exit);
+	}
+	
+	@Test
+	public void testInvalidPageRange() {
+		int exit = new SplicerBatch(err).run(new String[]{"-o", output.getPath(), "test0.pdf", "4"});
+		assertEquals("Exit code is EXIT_INVALID_PAGENUM", SplicerBatch.EXIT_INVALID_PAGENUM, exit);
+	}
+	
+	@Test
+	public void testShortSourceName() {
+		int exit = new SplicerBatch(err).run(new String[]{"-o", output.getPath(), "ab", "1"});
+		assertEquals("Exit code is EXIT_UNREADABLE", SplicerBatch.EXIT_UNREADABLE, exit);
+	}
+	
+	@Test
+	public void testSameNameDifferentFiles() throws Exception {
+		File directory = new File("testbatchdir");
+		directory.mkdir();
+		File other = new File(directory, "test0.pdf");
+		doc.save(other);
+		try {
+			int exit = new SplicerBatch(err).run(new String[]{"-o", output.getPath(), "test0.pdf", "1", other.getPath(), "1"});
+			assertEquals("Exit code is EXIT_USAGE", SplicerBatch.EXIT_USAGE, exit);
+			assertFalse("Nothing saved", output.exists());
+			
+			exit = new SplicerBatch(err).run(new String[]{"-o", output.getPath(), "test0.pdf", "1", "./test0.pdf", "2"});
+			assertEquals("Same file twice is fine", SplicerBatch.EXIT_OK, exit);
+		} finally {
+			other.delete();
+			directory.delete();
+		}
+	}
+	
+	@After
+	public void after() throws Exception {
+		doc.close();
+		doc = null;
+		output.delete();
+		files = null;
+		assertNull(doc);
+		assertNull(files);
+	}
+}
@@ -0,0 +1,117 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing that rendered pages are kept on disk between sessions.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestDiskRenderCache {
+
+	File directory;
+	PDFHandleCache pdfCache;
+	PDFHandle pdf;
+	
+	@Before
+	public void before() throws Exception {
+		directory = Files.createTempDirectory("pdfsplicer").toFile();
+		PDDocument doc = new PDDocument();
+		doc.addPage(new PDPage());
+		doc.save(new File("test0.pdf"));
+		doc.save(new File("test1.pdf"));
+		doc.close();
+		pdfCache = new PDFHandleCache();
+		pdf = pdfCache.open(new File("test0.pdf"));
+	}
+	
+	@After
+	public void after() throws Exception {
+		pdf.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		pdf = null;
+		pdfCache = null;
+	}
+	
+	@Test
+	public void testFoundInLaterSession() throws Exception {
+		DiskRenderCache cache = new DiskRenderCache(directory, 1 << 20);
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(3, 4, 0xff0000);
+		cache.put(pdf, 0, 1, ImageType.RGB, image);
+		cache.flush();
+		
+		DiskRenderCache later = new DiskRenderCache(directory, 1 << 20);
+		PDFHandle copy = pdfCache.open(new File("test1.pdf"));
+		BufferedImage restored = later.get(copy, 0, 1, ImageType.RGB);
+		copy.close();
+		assertNotNull("Found through a copy of the PDF", restored);
+		assertEquals("Pixels survive", restored.getRGB(3, 4) & 0xffffff, 0xff0000);
+		assertNull("Other scale not found", later.get(pdf, 0, 2, ImageType.RGB));
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedDeleted() throws Exception {
+		DiskRenderCache cache = new DiskRenderCache(directory, 1 << 20);
+		for (int i = 0; i < 3; ++i) {
+			cache.put(pdf, i, 1, ImageType.RGB, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		}
+		cache.flush();
+		long imageSize = cache.getSize() / 3;
+		
+		cache.get(pdf, 0, 1, ImageType.RGB);
+		cache.setSizeLimit(2 * imageSize);
+		assertEquals("2 images left", directory.listFiles().length, 2);
+		assertNotNull("Recently used image kept", cache.get(pdf, 0, 1, ImageType.RGB));
+		assertNull("Least recently used image deleted", cache.get(pdf, 1, 1, ImageType.RGB));
+	}
+	
+	@Test
+	public void testOtherFilesLeftAlone() throws Exception {
+		File other = new File(directory, "notes.txt");
+		File otherImage = new File(directory, "photo.png");
+		File otherTemp = new File(directory, "download.tmp");
+		for (File file : new File[]{other, otherImage, otherTemp}) {
+			Files.write(file.toPath(), new byte[1000]);
+		}
+		
+		DiskRenderCache cache = new DiskRenderCache(directory, 1 << 20);
+		assertEquals("Other files not counted", cache.getSize(), 0);
+		cache.put(pdf, 0, 1, ImageType.RGB, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		cache.flush();
+		cache.setSizeLimit(0);
+		assertNull("Own image deleted", cache.get(pdf, 0, 1, ImageType.RGB));
+		assertTrue("Other file kept", other.exists());
+		assertTrue("Other image kept", otherImage.exists());
+		assertTrue("Other temporary file kept", otherTemp.exists());
+	}
+	
+	@Test
+	public void testRenderCacheUsesDisk() throws Exception {
+		RenderCache first = new RenderCache();
+		first.setDiskCache(new DiskRenderCache(directory, 1 << 20));
+		first.render(pdf, 0, 0.5f, ImageType.RGB);
+		first.getDiskCache().flush();
+		
+		RenderCache second = new RenderCache();
+		second.setDiskCache(new DiskRenderCache(directory, 1 << 20));
+		pdf.close();
+		pdf = pdfCache.open(new File("test0.pdf"));
+		pdfCache.setCapacity(1);
+		assertNotNull("Rendered from disk", second.render(pdf, 0, 0.5f, ImageType.RGB));
+	}
+}
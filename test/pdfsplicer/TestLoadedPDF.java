@@ -3,6 +3,10 @@ package pdfsplicer;
 import static org.junit.Assert.*;
 
 import java.io.File;
+
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.junit.After;
@@ -57,6 +61,69 @@ public class TestLoadedPDF {
 		}
 	}
 	
+	@Test
+	public void testLoadPDFInBackground() throws Exception {
+		PDFLoader loader = controller.loadPDFInBackground(new File[]{files[2], files[0], files[1]});
+		loader.execute();
+		assertEquals("No error loading", loader.get(), UIConstants.ERROR_NOERROR);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		
+		assertEquals("List model size == 3", model.getPDFListModel().getSize(), 3);
+		assertEquals("List model contains test2.pdf first", model.getPDFListModel().getElementAt(0), "test2.pdf");
+		assertEquals("List model contains test0.pdf second", model.getPDFListModel().getElementAt(1), "test0.pdf");
+		assertEquals("List model contains test1.pdf third", model.getPDFListModel().getElementAt(2), "test1.pdf");
+	}
+	
+	@Test
+	public void testLoadPDFInBackgroundCancelled() throws Exception {
+		PDFLoader loader = controller.loadPDFInBackground(files);
+		loader.requestCancel();
+		loader.execute();
+		assertEquals("Reported as cancelled", loader.get(), UIConstants.ERROR_CANCELLED);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		
+		assertEquals("Nothing added", model.getPDFListModel().getSize(), 0);
+	}
+	
+	@Test
+	public void testLoadPDFInBackgroundInterrupted() throws Exception {
+		PDFLoader loader = controller.loadPDFInBackground(files);
+		Thread.currentThread().interrupt();
+		try {
+			loader.doInBackground();
+			fail("Interrupt not thrown");
+		} catch (InterruptedException e) {
+		}
+		Thread.interrupted();
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		
+		assertEquals("Only PDFs added to the model are open", model.getMemoryPolicy().getUsed(),
+				model.getPDFListModel().getSize() * files[0].length());
+	}
+	
+	@Test
+	public void testPreviewFitsViewport() throws Exception {
+		controller.loadPDF(new File[]{files[0]});
+		model.showLoadedPDFPreview("test0.pdf");
+		assertEquals("Rendered at 72 DPI without a viewport", model.getLPDFImage().getIconWidth(), 612);
+		
+		controller.resizePDFPreview(UIConstants.IMAGE_LOADEDPDF, 310, 400);
+		ImageIcon fitted = model.getLPDFImage();
+		assertEquals("Rendered at half scale to fit", fitted.getIconWidth(), 306);
+		
+		controller.resizePDFPreview(UIConstants.IMAGE_LOADEDPDF, 320, 410);
+		assertSame("Not rendered again for a small resize", model.getLPDFImage(), fitted);
+	}
+	
 	@Test
 	public void testRemoveSinglePDF() {
 		controller.loadPDF(files);
@@ -0,0 +1,50 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing how buffers are chosen for each PDF.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestMemoryPolicy {
+
+	MemoryPolicy policy;
+	
+	@Before
+	public void before() {
+		policy = new MemoryPolicy(1000, 5000, 8000);
+	}
+	
+	@Test
+	public void testSmallFileInMainMemory() {
+		MemoryPolicy.Allocation allocation = policy.allocate(500);
+		assertEquals("Small file uses main memory", allocation.getMode(), MemoryPolicy.Mode.MAIN_MEMORY);
+		assertEquals("500 bytes used", policy.getUsed(), 500);
+		policy.release(allocation);
+		assertEquals("Nothing used after release", policy.getUsed(), 0);
+	}
+	
+	@Test
+	public void testLargeFileMixed() {
+		MemoryPolicy.Allocation allocation = policy.allocate(100000);
+		assertEquals("Large file uses mixed", allocation.getMode(), MemoryPolicy.Mode.MIXED);
+		assertEquals("Heap capped at 5000 bytes", allocation.getSetting().getMaxMainMemoryBytes(), 5000);
+	}
+	
+	@Test
+	public void testBudgetExhausted() {
+		policy.allocate(100000);
+		MemoryPolicy.Allocation second = policy.allocate(100000);
+		assertEquals("Second file gets the rest of the budget", second.getSetting().getMaxMainMemoryBytes(), 3000);
+		MemoryPolicy.Allocation third = policy.allocate(500);
+		assertEquals("Third file uses a temp file", third.getMode(), MemoryPolicy.Mode.TEMP_FILE);
+		
+		policy.release(second);
+		policy.release(second);
+		assertEquals("Releasing twice only counts once", policy.getUsed(), 5000);
+	}
+}
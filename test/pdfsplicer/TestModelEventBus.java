@@ -0,0 +1,89 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+
+/**
+ * JUnits testing that model events are coalesced and only reach subscribed listeners.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestModelEventBus {
+
+	@Test
+	public void testEventsCoalesced() {
+		ModelEventBus bus = new ModelEventBus();
+		final List<ModelEvent> received = new ArrayList<ModelEvent>();
+		bus.addListener(new ModelListener() {
+			public void modelChanged(ModelEvent event) {
+				received.add(event);
+			}
+		}, ModelEvent.Type.PROGRESS, ModelEvent.Type.RANGES_CHANGED);
+		
+		for (int i = 1; i <= 10; ++i) {
+			bus.fire(ModelEvent.progress(this, i * 10, "file" + i));
+			bus.fire(ModelEvent.of(ModelEvent.Type.RANGES_CHANGED));
+		}
+		bus.fire(ModelEvent.of(ModelEvent.Type.FINAL_PREVIEW_READY));
+		
+		assertEquals("2 events delivered", bus.flush(), 2);
+		assertEquals("One call per type", received.size(), 2);
+		assertEquals("Ranges first", received.get(0).getType(), ModelEvent.Type.RANGES_CHANGED);
+		assertEquals("Latest progress kept", received.get(1).getProgress(), 100);
+		assertEquals("Latest note kept", received.get(1).getNote(), "file10");
+	}
+	
+	@Test
+	public void testProgressKeptPerSource() {
+		ModelEventBus bus = new ModelEventBus();
+		final List<ModelEvent> received = new ArrayList<ModelEvent>();
+		bus.addListener(new ModelListener() {
+			public void modelChanged(ModelEvent event) {
+				received.add(event);
+			}
+		}, ModelEvent.Type.PROGRESS);
+		
+		Object loader = new Object();
+		Object creator = new Object();
+		bus.fire(ModelEvent.progress(loader, 10, "file1"));
+		bus.fire(ModelEvent.progress(creator, 50, "page 5"));
+		bus.fire(ModelEvent.progress(loader, 20, "file2"));
+		
+		assertEquals("One event per source", bus.flush(), 2);
+		assertSame("Loader first", received.get(0).getSource(), loader);
+		assertEquals("Latest loader progress kept", received.get(0).getProgress(), 20);
+		assertSame("Creator not hidden", received.get(1).getSource(), creator);
+		assertEquals("Creator progress", received.get(1).getProgress(), 50);
+	}
+	
+	@Test
+	public void testDeliveredOnEventThread() throws Exception {
+		ModelEventBus bus = new ModelEventBus();
+		final List<Boolean> received = new ArrayList<Boolean>();
+		bus.addListener(new ModelListener() {
+			public void modelChanged(ModelEvent event) {
+				received.add(SwingUtilities.isEventDispatchThread());
+			}
+		}, ModelEvent.Type.ERROR);
+		
+		bus.fire(ModelEvent.error(UIConstants.ERROR_UNREADABLE));
+		bus.fire(ModelEvent.error(UIConstants.ERROR_UNREADABLE));
+		for (int i = 0; i < 100 && received.isEmpty(); ++i) {
+			Thread.sleep(10);
+		}
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		
+		assertEquals("Delivered once", received.size(), 1);
+		assertTrue("On the event thread", received.get(0));
+	}
+	
+}
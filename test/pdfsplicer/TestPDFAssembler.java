@@ -0,0 +1,519 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing that the new PDF is assembled correctly from several loaded PDFs.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestPDFAssembler {
+
+	SplicerModel model;
+	SplicerController controller;
+	File[] files;
+	File output;
+	
+	@Before
+	public void before() throws Exception {
+		model = new SplicerModel();
+		model.setRenderPreviews(false);
+		controller = new SplicerController(model);
+		
+		// Page j of PDF i is 100 * i + j + 1 points wide, so each page can be told apart
+		files = new File[3];
+		for (int i = 0; i < 3; ++i) {
+			PDDocument doc = new PDDocument();
+			for (int j = 0; j < 4; ++j) {
+				doc.addPage(new PDPage(new PDRectangle(100 * i + j + 1, 100)));
+			}
+			doc.save(files[i] = new File("test" + i + ".pdf"));
+			doc.close();
+		}
+		controller.loadPDF(files);
+		output = new File("testassembler.pdf");
+	}
+	
+	@Test
+	public void testPagesInRangeOrder() throws Exception {
+		model.getAssembler().setParallelism(3);
+		controller.applyTransaction(new Transaction().addPageRange("test0.pdf", "2,1").addPageRange("test1.pdf", "4")
+				.addPageRange("test0.pdf", "3").addPageRange("test2.pdf", "all").addPageRange("test1.pdf", "1"));
+		assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+		
+		int[] widths = {2, 1, 104, 3, 201, 202, 203, 204, 101};
+		PDDocument result = PDDocument.load(output);
+		assertEquals("Output has 9 pages", result.getNumberOfPages(), widths.length);
+		for (int i = 0; i < widths.length; ++i) {
+			assertEquals("Page " + (i + 1), (int) result.getPage(i).getMediaBox().getWidth(), widths[i]);
+		}
+		result.close();
+	}
+	
+	@Test
+	public void testSerialAssembly() throws Exception {
+		model.getAssembler().setParallelism(1);
+		controller.applyTransaction(new Transaction().addPageRange("test2.pdf", "4-1").addPageRange("test0.pdf", "1"));
+		assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+		
+		PDDocument result = PDDocument.load(output);
+		assertEquals("Output has 5 pages", result.getNumberOfPages(), 5);
+		assertEquals("First page", (int) result.getPage(0).getMediaBox().getWidth(), 204);
+		assertEquals("Last page", (int) result.getPage(4).getMediaBox().getWidth(), 1);
+		result.close();
+	}
+	
+	@Test
+	public void testStreamingAssembly() throws Exception {
+		// 200 pages sharing one content stream, and inheriting their media box from the page tree
+		PDDocument doc = new PDDocument();
+		PDStream content = new PDStream(doc);
+		OutputStream contentOut = content.createOutputStream();
+		contentOut.write("0 0 m 10 10 l S".getBytes("US-ASCII"));
+		contentOut.close();
+		doc.getPages().getCOSObject().setItem(COSName.MEDIA_BOX, new PDRectangle(500, 100).getCOSArray());
+		for (int i = 0; i < 200; ++i) {
+			PDPage page = new PDPage();
+			page.getCOSObject().removeItem(COSName.MEDIA_BOX);
+			page.setContents(content);
+			doc.addPage(page);
+		}
+		File large = new File("testlarge.pdf");
+		doc.save(large);
+		doc.close();
+		controller.loadPDF(new File[]{large});
+		
+		model.getAssembler().setStreaming(true);
+		controller.applyTransaction(new Transaction().addPageRange("test1.pdf", "2").addPageRange("testlarge.pdf", "all")
+				.addPageRange("test0.pdf", "4-3"));
+		assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+		
+		PDDocument result = PDDocument.load(output);
+		assertEquals("Output has 203 pages", result.getNumberOfPages(), 203);
+		assertEquals("First page", (int) result.getPage(0).getMediaBox().getWidth(), 102);
+		assertEquals("Inherited media box", (int) result.getPage(100).getMediaBox().getWidth(), 500);
+		assertEquals("Last page", (int) result.getPage(202).getMediaBox().getWidth(), 3);
+		assertSame("Content stream shared", result.getPage(1).getContentStreams().next().getCOSObject(),
+				result.getPage(200).getContentStreams().next().getCOSObject());
+		result.close();
+		large.delete();
+	}
+	
+	@Test
+	public void testBulkCopy() throws Exception {
+		// 100 pages in two subtrees, where the first 50 inherit their media box and the rest are 400 + i points wide
+		PDDocument doc = new PDDocument();
+		PDStream content = new PDStream(doc);
+		OutputStream contentOut = content.createOutputStream();
+		contentOut.write("0 0 m 10 10 l S".getBytes("US-ASCII"));
+		contentOut.close();
+		COSDictionary root = doc.getPages().getCOSObject();
+		COSArray rootKids = new COSArray();
+		for (int n = 0; n < 2; ++n) {
+			COSDictionary node = new COSDictionary();
+			node.setItem(COSName.TYPE, COSName.PAGES);
+			node.setItem(COSName.PARENT, root);
+			node.setInt(COSName.COUNT, 50);
+			if (n == 0) {
+				node.setItem(COSName.MEDIA_BOX, new PDRectangle(300, 100).getCOSArray());
+			}
+			COSArray kids = new COSArray();
+			for (int j = 0; j < 50; ++j) {
+				PDPage page = new PDPage(new PDRectangle(400 + 50 * n + j, 100));
+				if (n == 0) {
+					page.getCOSObject().removeItem(COSName.MEDIA_BOX);
+				}
+				page.getCOSObject().setItem(COSName.PARENT, node);
+				page.setContents(content);
+				kids.add(page.getCOSObject());
+			}
+			node.setItem(COSName.KIDS, kids);
+			rootKids.add(node);
+		}
+		root.setItem(COSName.KIDS, rootKids);
+		root.setInt(COSName.COUNT, 100);
+		File tree = new File("testtree.pdf");
+		doc.save(tree);
+		doc.close();
+		controller.loadPDF(new File[]{tree});
+		controller.applyTransaction(new Transaction().addPageRange("testtree.pdf", "1-40").addPageRange("test0.pdf", "2")
+				.addPageRange("testtree.pdf", "100-51"));
+		
+		for (boolean compact : new boolean[]{false, true}) {
+			for (boolean streaming : new boolean[]{false, true}) {
+				model.getAssembler().setCompact(compact);
+				model.getAssembler().setStreaming(streaming);
+				assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+				
+				PDDocument result = PDDocument.load(output);
+				assertEquals("Output has 91 pages", result.getNumberOfPages(), 91);
+				for (int i = 0; i < 40; ++i) {
+					assertEquals("Inherited media box " + (i + 1), (int) result.getPage(i).getMediaBox().getWidth(), 300);
+				}
+				assertEquals("Loaded page", (int) result.getPage(40).getMediaBox().getWidth(), 2);
+				for (int i = 0; i < 50; ++i) {
+					assertEquals("Page " + (i + 42), (int) result.getPage(41 + i).getMediaBox().getWidth(), 499 - i);
+				}
+				PDStream first = result.getPage(0).getContentStreams().next();
+				assertSame("Content stream shared", first.getCOSObject(), result.getPage(90).getContentStreams().next().getCOSObject());
+				assertEquals("Content unchanged", new String(first.toByteArray(), "US-ASCII"), "0 0 m 10 10 l S");
+				result.close();
+			}
+		}
+		tree.delete();
+	}
+	
+	@Test
+	public void testMalformedTrailerNotCopiedRaw() throws Exception {
+		// A trailer whose catalog is past the end of the cross reference table
+		byte[] data = Files.readAllBytes(files[0].toPath());
+		String text = new String(data, StandardCharsets.ISO_8859_1);
+		int root = text.lastIndexOf("/Root ");
+		assertTrue("Trailer has a catalog", root >= 0);
+		File malformed = new File("testtrailer.pdf");
+		Files.write(malformed.toPath(), (text.substring(0, root) + "/Root 9999" + text.substring(text.indexOf(" 0 R", root)))
+				.getBytes(StandardCharsets.ISO_8859_1));
+		try {
+			assertNull("Left to PDFBox", RawPDFReader.open(malformed));
+		} finally {
+			malformed.delete();
+		}
+	}
+	
+	@Test
+	public void testCompactAssembly() throws Exception {
+		// A page with an uncompressed content stream
+		PDDocument doc = new PDDocument();
+		PDPage page = new PDPage(new PDRectangle(700, 100));
+		PDStream content = new PDStream(doc);
+		OutputStream contentOut = content.createOutputStream();
+		for (int i = 0; i < 100; ++i) {
+			contentOut.write("0 0 m 10 10 l S\n".getBytes("US-ASCII"));
+		}
+		contentOut.close();
+		page.setContents(content);
+		doc.addPage(page);
+		File contentFile = new File("testcontent.pdf");
+		doc.save(contentFile);
+		doc.close();
+		controller.loadPDF(new File[]{contentFile});
+		controller.applyTransaction(new Transaction().addPageRange("test2.pdf", "all").addPageRange("testcontent.pdf", "1")
+				.addPageRange("test0.pdf", "4-1").addPageRange("test1.pdf", "all"));
+		
+		assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+		long plainSize = output.length();
+		
+		model.getAssembler().setCompact(true);
+		model.getAssembler().setCompressionLevel(9);
+		for (boolean streaming : new boolean[]{false, true}) {
+			model.getAssembler().setStreaming(streaming);
+			assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+			assertTrue("Compact output is smaller", output.length() < plainSize);
+			
+			PDDocument result = PDDocument.load(output);
+			assertEquals("PDF 1.5", result.getVersion(), 1.5f, 0);
+			int[] widths = {201, 202, 203, 204, 700, 4, 3, 2, 1, 101, 102, 103, 104};
+			assertEquals("Output has 13 pages", result.getNumberOfPages(), widths.length);
+			for (int i = 0; i < widths.length; ++i) {
+				assertEquals("Page " + (i + 1), (int) result.getPage(i).getMediaBox().getWidth(), widths[i]);
+			}
+			PDStream resultContent = result.getPage(4).getContentStreams().next();
+			assertEquals("Content compressed", resultContent.getFilters(), Arrays.asList(COSName.FLATE_DECODE));
+			assertEquals("Content unchanged", resultContent.toByteArray().length, 1600);
+			result.close();
+		}
+		contentFile.delete();
+	}
+	
+	@Test
+	public void testLargeFileCrossReference() throws Exception {
+		// A file whose objects start past what a cross reference table can hold, faked by lowering the limit
+		PDDocument doc = PDDocument.load(files[1]);
+		StreamingPDFWriter writer = new StreamingPDFWriter(output);
+		writer.maxTableOffset = 100;
+		COSDictionary[] pages = new COSDictionary[doc.getNumberOfPages()];
+		for (int i = 0; i < pages.length; ++i) {
+			pages[i] = doc.getPage(i).getCOSObject();
+		}
+		writer.writePages(doc, pages);
+		writer.finish();
+		writer.close();
+		doc.close();
+		
+		PDDocument result = PDDocument.load(output);
+		assertEquals("Cross reference stream needs PDF 1.5", result.getVersion(), 1.5f, 0);
+		assertEquals("Output has 4 pages", result.getNumberOfPages(), 4);
+		for (int i = 0; i < 4; ++i) {
+			assertEquals("Page " + (i + 1), (int) result.getPage(i).getMediaBox().getWidth(), 101 + i);
+		}
+		result.close();
+	}
+	
+	@Test
+	public void testImagesDownsampled() throws Exception {
+		// A 600 DPI image and a 100 DPI image, both shown an inch wide
+		Random random = new Random(42);
+		PDDocument doc = new PDDocument();
+		PDPage page = new PDPage();
+		doc.addPage(page);
+		PDPageContentStream contents = new PDPageContentStream(doc, page);
+		int[] sizes = {600, 100};
+		for (int i = 0; i < sizes.length; ++i) {
+			BufferedImage image = new BufferedImage(sizes[i], sizes[i], BufferedImage.TYPE_INT_RGB);
+			for (int y = 0; y < sizes[i]; ++y) {
+				for (int x = 0; x < sizes[i]; ++x) {
+					image.setRGB(x, y, random.nextInt(0x1000000));
+				}
+			}
+			contents.drawImage(LosslessFactory.createFromImage(doc, image), 100 * i, 0, 72, 72);
+		}
+		contents.close();
+		File imageFile = new File("testscan.pdf");
+		doc.save(imageFile);
+		doc.close();
+		controller.loadPDF(new File[]{imageFile});
+		controller.applyTransaction(new Transaction().addPageRange("testscan.pdf", "1").addPageRange("test0.pdf", "1"));
+		
+		model.getAssembler().setTargetResolution(150);
+		for (boolean streaming : new boolean[]{false, true}) {
+			model.getAssembler().setStreaming(streaming);
+			assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+			assertEquals("Downsampled to 150 DPI", imageWidths(output), Arrays.asList(100, 150));
+		}
+		
+		model.getAssembler().setTargetResolution(0);
+		model.getAssembler().setImageByteBudget(imageFile.length() / 10);
+		assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+		List<Integer> widths = imageWidths(output);
+		assertTrue("Downsampled to fit the budget", widths.get(1) < 600 && widths.get(1) >= ImageDownsampler.MIN_RESOLUTION);
+		imageFile.delete();
+	}
+	
+	@Test
+	public void testSpotColorImageKept() throws Exception {
+		// A 600 DPI image in a spot color, which would turn gray if it were encoded again
+		PDDocument doc = new PDDocument();
+		PDPage page = new PDPage();
+		doc.addPage(page);
+		Random random = new Random(42);
+		BufferedImage image = new BufferedImage(600, 600, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < 600; ++y) {
+			for (int x = 0; x < 600; ++x) {
+				image.getRaster().setSample(x, y, 0, random.nextInt(256));
+			}
+		}
+		PDImageXObject spot = LosslessFactory.createFromImage(doc, image);
+		COSDictionary tint = new COSDictionary();
+		tint.setInt(COSName.FUNCTION_TYPE, 2);
+		tint.setItem(COSName.DOMAIN, floats(0, 1));
+		tint.setItem(COSName.C0, floats(0, 0, 0, 0));
+		tint.setItem(COSName.C1, floats(1, 0, 0, 0));
+		tint.setInt(COSName.N, 1);
+		COSArray separation = new COSArray();
+		separation.add(COSName.SEPARATION);
+		separation.add(COSName.getPDFName("Spot"));
+		separation.add(COSName.DEVICECMYK);
+		separation.add(tint);
+		spot.getCOSObject().setItem(COSName.COLORSPACE, separation);
+		PDPageContentStream contents = new PDPageContentStream(doc, page);
+		contents.drawImage(spot, 0, 0, 72, 72);
+		contents.close();
+		File spotFile = new File("testspot.pdf");
+		doc.save(spotFile);
+		doc.close();
+		controller.loadPDF(new File[]{spotFile});
+		controller.applyTransaction(new Transaction().addPageRange("testspot.pdf", "1"));
+		
+		model.getAssembler().setTargetResolution(150);
+		assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+		assertEquals("Spot color image kept as it is", imageWidths(output), Arrays.asList(600));
+		spotFile.delete();
+	}
+	
+	/**
+	 * Returns an array of numbers, for building PDF objects by hand.
+	 * 
+	 * @param values the numbers
+	 * @return the array
+	 */
+	private static COSArray floats(float... values) {
+		COSArray array = new COSArray();
+		array.setFloatArray(values);
+		return array;
+	}
+	
+	/**
+	 * Returns the widths of the images on the first page of a PDF, smallest first.
+	 * 
+	 * @param file the PDF
+	 * @return the widths
+	 * @throws IOException if the PDF cannot be read
+	 */
+	private List<Integer> imageWidths(File file) throws IOException {
+		List<Integer> widths = new ArrayList<Integer>();
+		PDDocument result = PDDocument.load(file);
+		PDResources resources = result.getPage(0).getResources();
+		for (COSName name : resources.getXObjectNames()) {
+			widths.add(((PDImageXObject) resources.getXObject(name)).getWidth());
+		}
+		result.close();
+		Collections.sort(widths);
+		return widths;
+	}
+	
+	@Test
+	public void testSharedImagesWrittenOnce() throws Exception {
+		// Two PDFs embedding the same image with the same soft mask, each in a file of its own, and each
+		// pointing at a dictionary of its own that is not a resource
+		BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(3, 5, 0x80ff0000);
+		File[] imageFiles = new File[2];
+		for (int i = 0; i < 2; ++i) {
+			PDDocument doc = new PDDocument();
+			PDPage page = new PDPage();
+			page.setResources(new PDResources());
+			PDImageXObject embedded = LosslessFactory.createFromImage(doc, image);
+			COSDictionary info = new COSDictionary();
+			info.setString(COSName.TITLE, "Scan");
+			info.setDirect(false);
+			embedded.getCOSObject().setItem(COSName.INFO, info);
+			page.getResources().add(embedded);
+			doc.addPage(page);
+			doc.save(imageFiles[i] = new File("testimage" + i + ".pdf"));
+			doc.close();
+		}
+		controller.loadPDF(imageFiles);
+		controller.applyTransaction(new Transaction().addPageRange("testimage0.pdf", "1").addPageRange("test0.pdf", "1")
+				.addPageRange("testimage1.pdf", "1"));
+		
+		for (boolean streaming : new boolean[]{false, true}) {
+			model.getAssembler().setStreaming(streaming);
+			assertEquals("No error", controller.createPDF(output), UIConstants.ERROR_NOERROR);
+			
+			PDDocument result = PDDocument.load(output);
+			COSName name = result.getPage(0).getResources().getXObjectNames().iterator().next();
+			assertSame("Image shared", result.getPage(0).getResources().getXObject(name).getCOSObject(),
+					result.getPage(2).getResources().getXObject(name).getCOSObject());
+			assertEquals("One image and one soft mask written", result.getDocument().getObjectsByType(COSName.XOBJECT).size(), 2);
+			String written = new String(Files.readAllBytes(output.toPath()), StandardCharsets.ISO_8859_1);
+			assertEquals("Image information written once", written.split("\\(Scan\\)", -1).length - 1, 1);
+			result.close();
+		}
+		imageFiles[0].delete();
+		imageFiles[1].delete();
+	}
+	
+	@Test
+	public void testProgressAndCancel() throws Exception {
+		controller.applyTransaction(new Transaction().addPageRange("test0.pdf", "all").addPageRange("test1.pdf", "4-1")
+				.addPageRange("test2.pdf", "2"));
+		
+		for (boolean streaming : new boolean[]{false, true}) {
+			model.getAssembler().setStreaming(streaming);
+			final List<String> steps = Collections.synchronizedList(new ArrayList<String>());
+			model.getAssembler().assemble(model.getPageRangeSources(), model.getPageRanges(), output,
+					new PDFAssembler.ProgressListener() {
+				public void progress(PDFAssembler.Phase phase, int done, int total) {
+					steps.add(phase + " " + done + "/" + total);
+				}
+				
+				public boolean isCancelled() {
+					return false;
+				}
+			});
+			assertTrue("Every page written", steps.contains("WRITE 9/9"));
+			assertEquals("Every page cloned", steps.contains("CLONE 9/9"), !streaming);
+			
+			// Cancelled once two pages have been written, over the file just saved
+			byte[] saved = Files.readAllBytes(output.toPath());
+			long used = model.getMemoryPolicy().getUsed();
+			final AtomicBoolean cancelled = new AtomicBoolean();
+			try {
+				model.getAssembler().assemble(model.getPageRangeSources(), model.getPageRanges(), output,
+						new PDFAssembler.ProgressListener() {
+					public void progress(PDFAssembler.Phase phase, int done, int total) {
+						if (phase == PDFAssembler.Phase.WRITE && done == 2) {
+							cancelled.set(true);
+						}
+					}
+					
+					public boolean isCancelled() {
+						return cancelled.get();
+					}
+				});
+				fail("Assembly cancelled");
+			} catch (CancellationException e) {
+				// Expected
+			}
+			assertTrue("File already saved kept", Arrays.equals(Files.readAllBytes(output.toPath()), saved));
+			assertEquals("Partly written file deleted", output.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String name) {
+					return name.endsWith(".tmp");
+				}
+			}).length, 0);
+			assertEquals("Scratch buffers released", model.getMemoryPolicy().getUsed(), used);
+			output.delete();
+		}
+	}
+	
+	@Test
+	public void testCreatePDFInBackground() throws Exception {
+		controller.applyTransaction(new Transaction().addPageRange("test2.pdf", "all").addPageRange("test0.pdf", "1"));
+		PDFCreator creator = controller.createPDFInBackground(output);
+		creator.execute();
+		assertEquals("No error", creator.get(), UIConstants.ERROR_NOERROR);
+		assertEquals("Progress complete", creator.getProgress(), 100);
+		PDDocument result = PDDocument.load(output);
+		assertEquals("Output has 5 pages", result.getNumberOfPages(), 5);
+		result.close();
+		output.delete();
+		
+		creator = controller.createPDFInBackground(output);
+		creator.requestCancel();
+		creator.execute();
+		assertEquals("Reported as cancelled", creator.get(), UIConstants.ERROR_CANCELLED);
+		assertFalse("Nothing saved", output.exists());
+	}
+	
+	@After
+	public void after() throws Exception {
+		controller.removeAllPDF();
+		output.delete();
+		model = null;
+		controller = null;
+		files = null;
+		assertNull(model);
+		assertNull(controller);
+		assertNull(files);
+	}
+}
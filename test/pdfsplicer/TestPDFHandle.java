@@ -0,0 +1,119 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing that loaded PDFs are opened lazily and closed when least recently used.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestPDFHandle {
+
+	PDFHandleCache cache;
+	PDDocument doc;
+	File[] files;
+	
+	@Before
+	public void before() throws Exception {
+		cache = new PDFHandleCache(2);
+		doc = new PDDocument();
+		doc.addPage(new PDPage());
+		doc.addPage(new PDPage());
+		files = new File[3];
+		for (int i = 0; i < 3; ++i) {
+			doc.save(files[i] = new File("test" + i + ".pdf"));
+		}
+	}
+	
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		PDFHandle first = cache.open(files[0]);
+		PDFHandle second = cache.open(files[1]);
+		PDFHandle third = cache.open(files[2]);
+		
+		assertEquals("Only 2 PDFs open", cache.getOpenCount(), 2);
+		assertFalse("First PDF was closed", first.isOpen());
+		assertTrue("Second PDF is open", second.isOpen());
+		assertTrue("Third PDF is open", third.isOpen());
+		assertEquals("Page count kept after closing", first.getNumPages(), 2);
+		
+		first.acquire();
+		first.release();
+		assertTrue("First PDF was reopened", first.isOpen());
+		assertFalse("Second PDF was closed", second.isOpen());
+		
+		first.close();
+		second.close();
+		third.close();
+		assertEquals("No PDFs open", cache.getOpenCount(), 0);
+	}
+	
+	@Test
+	public void testAcquiredPDFNotEvicted() throws Exception {
+		PDFHandle first = cache.open(files[0]);
+		first.acquire();
+		try {
+			cache.open(files[1]).close();
+			cache.open(files[2]).close();
+			cache.setCapacity(1);
+			assertTrue("Acquired PDF stays open", first.isOpen());
+		} finally {
+			first.release();
+		}
+		first.close();
+	}
+	
+	@Test
+	public void testMappedLoad() throws Exception {
+		cache.setMappedFileThreshold(0);
+		PDFHandle first = cache.open(files[0]);
+		assertEquals("Page count read through mapping", first.getNumPages(), 2);
+		
+		PDDocument pdf = first.acquire();
+		try {
+			assertNotNull("Page readable through mapping", pdf.getPage(1).getMediaBox());
+		} finally {
+			first.release();
+		}
+		first.close();
+	}
+	
+	@Test
+	public void testMappedRead() throws Exception {
+		MappedRandomAccessRead source = new MappedRandomAccessRead(files[0]);
+		assertEquals("Length matches the file", source.length(), files[0].length());
+		assertEquals("Starts with the PDF header", new String(source.readFully(5), "US-ASCII"), "%PDF-");
+		assertEquals("Peek does not move", source.peek(), source.read());
+		source.seek(source.length());
+		assertTrue("At end of file", source.isEOF());
+		assertEquals("Nothing left to read", source.read(new byte[4]), -1);
+		source.close();
+		assertTrue("Closed", source.isClosed());
+	}
+	
+	@Test(expected = java.io.IOException.class)
+	public void testAcquireAfterClose() throws Exception {
+		PDFHandle first = cache.open(files[0]);
+		first.close();
+		first.acquire();
+	}
+	
+	@After
+	public void after() throws Exception {
+		cache = null;
+		doc.close();
+		doc = null;
+		files = null;
+		assertNull(cache);
+		assertNull(doc);
+		assertNull(files);
+	}
+}
@@ -4,6 +4,8 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 
+import javax.swing.ImageIcon;
+
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.junit.After;
@@ -58,6 +60,43 @@ public class TestPageRange {
 		assertEquals("List model contains page 1, 3", model.getPageRangeModel().getElementAt(0), "test0.pdf: 1-3");
 	}
 	
+	@Test
+	public void testLocateFinalPage() {
+		controller.addPageRange(0, "2");
+		controller.addPageRange(1, "3,1");
+		controller.addPageRange(2, "1-3");
+		
+		PageLocation page = model.locateFinalPage(3);
+		assertEquals("Page 3 comes from test1.pdf", page.getPDF().getName(), "test1.pdf");
+		assertEquals("Page 3 is page 1 of test1.pdf", page.getPageIndex(), 0);
+		
+		controller.removePageRange(new int[]{1});
+		page = model.locateFinalPage(3);
+		assertEquals("Page 3 now comes from test2.pdf", page.getPDF().getName(), "test2.pdf");
+		assertEquals("Page 3 is page 2 of test2.pdf", page.getPageIndex(), 1);
+	}
+	
+	@Test
+	public void testFinalPreviewOnlyRenderedWhenChanged() {
+		controller.addPageRange(0, "1");
+		ImageIcon first = model.getFPDFImage();
+		assertNotNull("First page rendered", first);
+		
+		controller.addPageRange(1, "1-3");
+		controller.changePDFPreviewPage(UIConstants.IMAGE_FINALPDF, -1, 2);
+		ImageIcon second = model.getFPDFImage();
+		controller.addPageRange(2, "2");
+		assertSame("Appending a range does not render again", model.getFPDFImage(), second);
+		
+		controller.removePageRange(new int[]{2});
+		assertSame("Removing a later range does not render again", model.getFPDFImage(), second);
+		assertEquals("Page count updated", model.getFNumPages(), 4);
+		
+		controller.removePageRange(new int[]{0});
+		assertNotSame("Removing an earlier range renders again", model.getFPDFImage(), second);
+		assertEquals("Same page number still shown", model.getCurFPage(), 2);
+	}
+	
 	@Test
 	public void testRemoveSinglePageRange() {
 		controller.addPageRange(0, "1");
@@ -89,6 +128,57 @@ public class TestPageRange {
 		assertEquals("List model size == 0", model.getPageRangeModel().size(), 0);
 	}
 	
+	@Test
+	public void testTransactionNotifiesOnce() {
+		final int[] notifications = new int[1];
+		model.getEventBus().addListener(new ModelListener() {
+			public void modelChanged(ModelEvent event) {
+				++notifications[0];
+			}
+		}, ModelEvent.Type.RANGES_CHANGED);
+		
+		Transaction transaction = new Transaction();
+		transaction.addPageRange("test0.pdf", "1").addPageRange("test1.pdf", "2-3").addPageRange("test2.pdf", "all");
+		transaction.movePageRange(2, 0).removePageRange(1);
+		assertEquals("No error", controller.applyTransaction(transaction), UIConstants.ERROR_NOERROR);
+		model.getEventBus().flush();
+		assertEquals("Notified once", notifications[0], 1);
+		assertEquals("Two ranges left", model.getPageRangeModel().size(), 2);
+		assertEquals("Moved range first", model.getPageRangeModel().getElementAt(0), "test2.pdf: 1-3");
+		assertEquals("Page count", model.getFNumPages(), 5);
+		assertEquals("Fourth page comes from test1.pdf", model.locateFinalPage(4).getPageIndex(), 1);
+	}
+	
+	@Test
+	public void testInvalidTransactionChangesNothing() {
+		controller.addPageRange(0, "1");
+		
+		Transaction transaction = new Transaction();
+		transaction.removePageRange(0).addPageRange("test1.pdf", "1-3").addPageRange("test2.pdf", "4");
+		assertEquals("Invalid page number", controller.applyTransaction(transaction), UIConstants.ERROR_INVALID_PAGENUM);
+		assertEquals("Third edit failed", transaction.getFailedOperation(), 2);
+		assertEquals("List model size == 1", model.getPageRangeModel().size(), 1);
+		assertEquals("Range kept", model.getPageRangeModel().getElementAt(0), "test0.pdf: 1");
+		assertEquals("Page count kept", model.getFNumPages(), 1);
+	}
+	
+	@Test
+	public void testMissingPDFOrRangeChangesNothing() {
+		controller.addPageRange(0, "1");
+		
+		Transaction transaction = new Transaction();
+		transaction.removePDF("test0.pdf").addPageRange("missing.pdf", "1");
+		assertEquals("No such PDF", controller.applyTransaction(transaction), UIConstants.ERROR_NO_SELECTEDPDF);
+		assertEquals("Second edit failed", transaction.getFailedOperation(), 1);
+		assertTrue("PDF kept", model.hasPDF("test0.pdf"));
+		
+		transaction = new Transaction();
+		transaction.addPageRange("test1.pdf", "1").removePageRange(5);
+		assertEquals("No such page range", controller.applyTransaction(transaction), UIConstants.ERROR_NO_SELECTEDPAGERANGE);
+		assertEquals("List model size == 1", model.getPageRangeModel().size(), 1);
+		assertEquals("Page count kept", model.getFNumPages(), 1);
+	}
+	
 	@After
 	public void after() throws Exception {
 		model = null;
@@ -0,0 +1,86 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnits testing the page range syntax.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestPageRangeCompiler {
+
+	@Test
+	public void testListsAndRanges() throws Exception {
+		assertPages("1, 4,9", 10, 1, 4, 9);
+		assertPages("2-4", 10, 2, 3, 4);
+		assertPages("4-2", 10, 4, 3, 2);
+		assertPages("1-10:3", 10, 1, 4, 7, 10);
+		assertPages("10-1:4", 10, 10, 6, 2);
+	}
+	
+	@Test
+	public void testWords() throws Exception {
+		assertPages("ALL", 3, 1, 2, 3);
+		assertPages("odd", 5, 1, 3, 5);
+		assertPages("even", 5, 2, 4);
+		assertPages("last", 7, 7);
+		assertPages("last-2", 7, 5);
+		assertPages("last-2-last", 7, 5, 6, 7);
+		assertPages("3-last", 5, 3, 4, 5);
+	}
+	
+	@Test
+	public void testExcept() throws Exception {
+		assertPages("1-6 except 2,4-5", 10, 1, 3, 6);
+		assertPages("all except odd", 6, 2, 4, 6);
+	}
+	
+	@Test
+	public void testErrorPositions() {
+		assertError("1,,3", 10, 2);
+		assertError("1-12", 10, 2);
+		assertError("1-3 x", 10, 4);
+		assertError("1-3:0", 10, 4);
+		assertError("last-10", 5, 0);
+		assertError("", 5, 0);
+	}
+	
+	@Test
+	public void testNoPagesSelected() {
+		assertError("even", 1, 0);
+		assertError(" even, even", 1, 1);
+		assertError("1 except 1", 10, 2);
+		assertError("even except 2", 3, 5);
+	}
+	
+	@Test
+	public void testManyClauses() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 1; i <= 5000; ++i) {
+			text.append(i).append(',');
+		}
+		text.append("5001");
+		PageSelection selection = PageRangeCompiler.compile(text.toString(), 5001);
+		assertEquals("5001 pages selected", selection.size(), 5001);
+		assertEquals("Merged into 1 run", selection.getRunCount(), 1);
+	}
+	
+	private void assertPages(String text, int pageLimit, int... expected) throws PageRangeException {
+		PageSelection selection = PageRangeCompiler.compile(text, pageLimit);
+		assertEquals(text + " selects " + expected.length + " pages", selection.size(), expected.length);
+		for (int i = 0; i < expected.length; ++i) {
+			assertEquals(text + " page " + i, selection.get(i), expected[i]);
+		}
+	}
+	
+	private void assertError(String text, int pageLimit, int position) {
+		try {
+			PageRangeCompiler.compile(text, pageLimit);
+			fail(text + " is invalid");
+		} catch (PageRangeException e) {
+			assertEquals(text + " fails at " + position, e.getPosition(), position);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnits testing that selected pages are stored as runs.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestPageSelection {
+
+	@Test
+	public void testWholeDocumentIsOneRun() {
+		PageSelection selection = new PageSelection();
+		selection.addRange(1, 50000);
+		assertEquals("50000 pages selected", selection.size(), 50000);
+		assertEquals("Stored as 1 run", selection.getRunCount(), 1);
+		assertEquals("Last page is 50000", selection.get(49999), 50000);
+	}
+	
+	@Test
+	public void testSinglePagesMerged() {
+		PageSelection selection = new PageSelection();
+		selection.add(1);
+		selection.add(3);
+		selection.add(5);
+		selection.addRange(7, 9);
+		assertEquals("6 pages selected", selection.size(), 6);
+		assertEquals("Stored as 2 runs", selection.getRunCount(), 2);
+		assertEquals("Third page is 5", selection.get(2), 5);
+		assertEquals("Fifth page is 8", selection.get(4), 8);
+	}
+	
+	@Test
+	public void testBackwardsAndRepeatedPages() {
+		PageSelection selection = new PageSelection();
+		selection.addRange(3, 1);
+		selection.add(1);
+		selection.add(2);
+		int[] expected = {3, 2, 1, 1, 2};
+		assertEquals("5 pages selected", selection.size(), expected.length);
+		for (int i = 0; i < expected.length; ++i) {
+			assertEquals("Page " + i + " in order", selection.get(i), expected[i]);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing the two tiers of the rendered page cache.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestRenderCache {
+
+	RenderCache cache;
+	Object document;
+	
+	@Before
+	public void before() {
+		// Room for two 10x10 RGB images on the heap
+		cache = new RenderCache(800, 1 << 20);
+		document = new Object();
+	}
+	
+	@Test
+	public void testHeapHit() {
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		cache.put(key(0), image);
+		assertSame("Same image returned", cache.get(key(0)), image);
+		assertNull("Other page not cached", cache.get(key(1)));
+		assertEquals("1 hit", cache.getHits(), 1);
+		assertEquals("1 miss", cache.getMisses(), 1);
+	}
+	
+	@Test
+	public void testOffHeapHit() {
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(3, 4, 0xff0000);
+		cache.put(key(0), image);
+		cache.put(key(1), new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		cache.put(key(2), new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		assertEquals("1 image pushed off the heap", cache.getEvictions(), 1);
+		
+		BufferedImage restored = cache.get(key(0));
+		assertNotNull("Image restored from outside the heap", restored);
+		assertEquals("1 off heap hit", cache.getOffHeapHits(), 1);
+		assertEquals("Pixels survive compression", restored.getRGB(3, 4) & 0xffffff, 0xff0000);
+	}
+	
+	@Test
+	public void testInvalidate() {
+		cache.put(key(0), new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		cache.invalidate(document);
+		assertNull("Document's pages dropped", cache.get(key(0)));
+	}
+	
+	@Test
+	public void testRenderCountedOnce() throws Exception {
+		PDDocument doc = new PDDocument();
+		doc.addPage(new PDPage());
+		File file = new File("test0.pdf");
+		doc.save(file);
+		doc.close();
+		
+		cache = new RenderCache();
+		final PDFHandle pdf = new PDFHandleCache().open(file);
+		
+		// Hold the PDF so the page is cached by someone else while the render waits for it
+		pdf.acquire();
+		Thread render = new Thread() {
+			@Override
+			public void run() {
+				try {
+					cache.render(pdf, 0, 1, ImageType.RGB);
+				} catch (IOException e) {
+				}
+			}
+		};
+		render.start();
+		for (int i = 0; i < 100 && cache.getMisses() == 0; ++i) {
+			Thread.sleep(100);
+		}
+		cache.put(new RenderCache.Key(pdf, 0, 1, ImageType.RGB), new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		pdf.release();
+		render.join();
+		assertEquals("1 miss", cache.getMisses(), 1);
+		assertEquals("No hit", cache.getHits(), 0);
+		
+		cache.render(pdf, 0, 1, ImageType.RGB);
+		assertEquals("Second render is 1 hit", cache.getHits(), 1);
+		assertEquals("Still 1 miss", cache.getMisses(), 1);
+		pdf.close();
+	}
+	
+	@Test
+	public void testPrefetch() throws Exception {
+		PDDocument doc = new PDDocument();
+		for (int i = 0; i < 3; ++i) {
+			doc.addPage(new PDPage());
+		}
+		File file = new File("test0.pdf");
+		doc.save(file);
+		doc.close();
+		
+		cache = new RenderCache();
+		PDFHandle pdf = new PDFHandleCache().open(file);
+		List<PageLocation> pages = new ArrayList<PageLocation>();
+		pages.add(new PageLocation(pdf, 1));
+		pages.add(new PageLocation(pdf, 2));
+		new PreviewPrefetcher(cache).prefetch(UIConstants.IMAGE_LOADEDPDF, pages, new float[]{1, 1}, ImageType.RGB);
+		
+		RenderCache.Key last = new RenderCache.Key(pdf, 2, 1, ImageType.RGB);
+		for (int i = 0; i < 100 && !cache.contains(last); ++i) {
+			Thread.sleep(100);
+		}
+		assertTrue("Page 2 prefetched", cache.contains(new RenderCache.Key(pdf, 1, 1, ImageType.RGB)));
+		assertTrue("Page 3 prefetched", cache.contains(last));
+		assertFalse("Page 1 not prefetched", cache.contains(new RenderCache.Key(pdf, 0, 1, ImageType.RGB)));
+		pdf.close();
+	}
+	
+	@Test
+	public void testOnlyLatestRenderPublished() throws Exception {
+		PDDocument doc = new PDDocument();
+		for (int i = 0; i < 3; ++i) {
+			doc.addPage(new PDPage());
+		}
+		File file = new File("test0.pdf");
+		doc.save(file);
+		doc.close();
+		
+		cache = new RenderCache();
+		PDFHandle pdf = new PDFHandleCache().open(file);
+		PreviewRenderer renderer = new PreviewRenderer(cache);
+		final List<Integer> published = new ArrayList<Integer>();
+		
+		// Hold the PDF so no render can finish before the last request is made
+		pdf.acquire();
+		for (int i = 0; i < 3; ++i) {
+			final int pageIndex = i;
+			renderer.render(UIConstants.IMAGE_LOADEDPDF, new PageLocation(pdf, i), 1, ImageType.RGB, new PreviewRenderer.Callback() {
+				public void drafted(BufferedImage draft) {
+				}
+				
+				public void rendered(BufferedImage image) {
+					published.add(pageIndex);
+				}
+				
+				public void failed(IOException e) {
+					published.add(-1);
+				}
+			});
+		}
+		pdf.release();
+		
+		for (int i = 0; i < 100 && published.isEmpty(); ++i) {
+			Thread.sleep(100);
+			flushEventThread();
+		}
+		assertEquals("Only the last page published", published.size(), 1);
+		assertEquals("Page 3 published", (int) published.get(0), 2);
+		assertFalse("Page 2 never rendered", cache.contains(new RenderCache.Key(pdf, 1, 1, ImageType.RGB)));
+		pdf.close();
+	}
+	
+	@Test
+	public void testDraftBeforeFullRender() throws Exception {
+		PDDocument doc = new PDDocument();
+		doc.addPage(new PDPage());
+		File file = new File("test0.pdf");
+		doc.save(file);
+		doc.close();
+		
+		cache = new RenderCache();
+		PDFHandle pdf = new PDFHandleCache().open(file);
+		final List<Integer> widths = new ArrayList<Integer>();
+		new PreviewRenderer(cache).render(UIConstants.IMAGE_FINALPDF, new PageLocation(pdf, 0), 1, ImageType.RGB, new PreviewRenderer.Callback() {
+			public void drafted(BufferedImage draft) {
+				widths.add(draft.getWidth());
+			}
+			
+			public void rendered(BufferedImage image) {
+				widths.add(image.getWidth());
+			}
+			
+			public void failed(IOException e) {
+			}
+		});
+		
+		for (int i = 0; i < 100 && widths.size() < 2; ++i) {
+			Thread.sleep(100);
+			flushEventThread();
+		}
+		assertEquals("Draft and full render published", widths.size(), 2);
+		assertEquals("Draft at a quarter of the width", (int) widths.get(0), 612 / PreviewRenderer.DRAFT_DIVISOR);
+		assertEquals("Full render at 72 DPI", (int) widths.get(1), 612);
+		pdf.close();
+	}
+	
+	private void flushEventThread() throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+	
+	private RenderCache.Key key(int pageIndex) {
+		return new RenderCache.Key(document, pageIndex, 1, ImageType.RGB);
+	}
+}
@@ -0,0 +1,92 @@
+package pdfsplicer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnits testing that thumbnails are only rendered for cells in view, and only a few are kept.
+ * 
+ * @author Abeer Ahmed
+ */
+public class TestThumbnailLoader {
+
+	PDFHandle pdf;
+	ThumbnailLoader loader;
+	int[] loaded;
+	
+	@Before
+	public void before() throws Exception {
+		PDDocument doc = new PDDocument();
+		for (int i = 0; i < 5; ++i) {
+			doc.addPage(new PDPage());
+		}
+		File file = new File("test0.pdf");
+		doc.save(file);
+		doc.close();
+		
+		pdf = new PDFHandleCache().open(file);
+		loaded = new int[1];
+		loader = new ThumbnailLoader(32, 2, new RenderCache(), new Runnable() {
+			public void run() {
+				++loaded[0];
+			}
+		});
+	}
+	
+	@After
+	public void after() throws Exception {
+		pdf.close();
+		pdf = null;
+		loader = null;
+	}
+	
+	@Test
+	public void testOnlyCapacityKept() throws Exception {
+		for (int i = 0; i < 5; ++i) {
+			loader.get(i, new PageLocation(pdf, i));
+		}
+		waitForLoaded(5);
+		
+		assertEquals("All 5 thumbnails rendered", loaded[0], 5);
+		assertEquals("Only 2 thumbnails kept", loader.getCachedCount(), 2);
+		assertNotNull("Thumbnail fits in the box", loader.get(4, new PageLocation(pdf, 4)));
+		assertTrue("Thumbnail fits in the box", loader.get(4, new PageLocation(pdf, 4)).getIconHeight() <= 32);
+	}
+	
+	@Test
+	public void testCellsOutOfViewSkipped() throws Exception {
+		loader.setVisibleRange(3, 4);
+		for (int i = 0; i < 5; ++i) {
+			loader.get(i, new PageLocation(pdf, i));
+		}
+		waitForLoaded(2);
+		
+		assertEquals("Only the 2 cells in view rendered", loaded[0], 2);
+		assertNull("Cell out of view not rendered", loader.get(0, new PageLocation(pdf, 0)));
+	}
+	
+	private void waitForLoaded(int count) throws Exception {
+		for (int i = 0; i < 100 && loaded[0] < count; ++i) {
+			Thread.sleep(100);
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+				}
+			});
+		}
+		// Give any unexpected extra renders a chance to show up
+		Thread.sleep(200);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+}